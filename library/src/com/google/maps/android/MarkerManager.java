@@ -1,14 +1,25 @@
 package com.google.maps.android;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.View;
 
 import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+import com.google.maps.android.quadtree.PointQuadTree;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -18,12 +29,26 @@ import java.util.Set;
  * <p/>
  * All marker operations (adds and removes) should occur via its collection class. That is, don't
  * add a marker via a collection, then remove it via Marker.remove()
+ * <p/>
+ * When using {@link CulledCollection}s, MarkerManager should also be added to the map as a
+ * {@link com.google.android.gms.maps.GoogleMap.OnCameraChangeListener}. ClusterManager forwards
+ * camera changes to its MarkerManager.
  */
-public class MarkerManager implements GoogleMap.OnInfoWindowClickListener, GoogleMap.OnMarkerClickListener, GoogleMap.OnMarkerDragListener, GoogleMap.InfoWindowAdapter {
+public class MarkerManager implements GoogleMap.OnInfoWindowClickListener, GoogleMap.OnMarkerClickListener, GoogleMap.OnMarkerDragListener, GoogleMap.InfoWindowAdapter, GoogleMap.OnCameraChangeListener {
+    /**
+     * Time a batch operation may spend on the UI thread before yielding, in ms. About half a frame.
+     */
+    private static final long BATCH_BUDGET_MS = 8;
+
+    private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
+
     private final GoogleMap mMap;
 
     private final Map<String, Collection> mNamedCollections = new HashMap<String, Collection>();
-    private final Map<Marker, Collection> mAllMarkers = new HashMap<Marker, Collection>();
+    private final List<CulledCollection> mCulledCollections = new ArrayList<CulledCollection>();
+    private Map<Marker, Collection> mAllMarkers = new HashMap<Marker, Collection>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
     public MarkerManager(GoogleMap map) {
         this.mMap = map;
@@ -46,6 +71,28 @@ public class MarkerManager implements GoogleMap.OnInfoWindowClickListener, Googl
         return collection;
     }
 
+    /**
+     * Create a new collection which only keeps the markers in the visible region on the map.
+     *
+     * @param maxLiveMarkers the most markers the collection keeps on the map at once.
+     */
+    public CulledCollection newCulledCollection(int maxLiveMarkers) {
+        if (maxLiveMarkers < 0) {
+            throw new IllegalArgumentException("maxLiveMarkers must not be negative: " + maxLiveMarkers);
+        }
+        CulledCollection collection = new CulledCollection(maxLiveMarkers);
+        track(collection);
+        return collection;
+    }
+
+    /**
+     * Culls the collection on camera changes, starting with the current visible region.
+     */
+    private void track(CulledCollection collection) {
+        mCulledCollections.add(collection);
+        collection.cull(mMap.getProjection().getVisibleRegion().latLngBounds);
+    }
+
     /**
      * Gets a named collection that was created by {@link #newCollection(String)}
      * @param id the unique id for this collection.
@@ -113,6 +160,17 @@ public class MarkerManager implements GoogleMap.OnInfoWindowClickListener, Googl
         }
     }
 
+    @Override
+    public void onCameraChange(CameraPosition cameraPosition) {
+        if (mCulledCollections.isEmpty()) {
+            return;
+        }
+        LatLngBounds visibleBounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        for (CulledCollection collection : mCulledCollections) {
+            collection.cull(visibleBounds);
+        }
+    }
+
     /**
      * Removes a marker from its collection.
      *
@@ -124,13 +182,55 @@ public class MarkerManager implements GoogleMap.OnInfoWindowClickListener, Googl
         return collection != null && collection.remove(marker);
     }
 
+    /**
+     * Makes room for count more markers at once, rather than rehashing repeatedly while they are
+     * added one by one. Only worth it when count is large compared to the markers already there.
+     */
+    private void ensureCapacity(int count) {
+        if (count > mAllMarkers.size()) {
+            int size = mAllMarkers.size() + count;
+            Map<Marker, Collection> allMarkers = new HashMap<Marker, Collection>(size * 4 / 3 + 1);
+            allMarkers.putAll(mAllMarkers);
+            mAllMarkers = allMarkers;
+        }
+    }
+
+    /**
+     * Receives progress of a batch operation. Methods are called on the main thread.
+     */
+    public interface BatchCallback {
+        /**
+         * Called after each chunk of markers.
+         *
+         * @param done  number of markers processed so far.
+         * @param total number of markers in the batch.
+         */
+        void onProgress(int done, int total);
+
+        /**
+         * Called once every marker of the batch has been processed.
+         */
+        void onComplete();
+
+        /**
+         * Called instead of onComplete when the collection is cleared before every marker of the
+         * batch has been processed.
+         */
+        void onCancelled();
+    }
+
     public class Collection {
-        private final Set<Marker> mMarkers = new HashSet<Marker>();
+        private Set<Marker> mMarkers = new HashSet<Marker>();
         private GoogleMap.OnInfoWindowClickListener mInfoWindowClickListener;
         private GoogleMap.OnMarkerClickListener mMarkerClickListener;
         private GoogleMap.OnMarkerDragListener mMarkerDragListener;
         private GoogleMap.InfoWindowAdapter mInfoWindowAdapter;
 
+        /**
+         * Incremented by clear(), to cancel batches in progress.
+         */
+        private int mBatchGeneration;
+
         public Collection() {
         }
 
@@ -151,6 +251,7 @@ public class MarkerManager implements GoogleMap.OnInfoWindowClickListener, Googl
         }
 
         public void clear() {
+            mBatchGeneration++;
             for (Marker marker : mMarkers) {
                 marker.remove();
                 mAllMarkers.remove(marker);
@@ -158,6 +259,86 @@ public class MarkerManager implements GoogleMap.OnInfoWindowClickListener, Googl
             mMarkers.clear();
         }
 
+        /**
+         * Adds markers in chunks of about half a frame each, posted to the main thread, so that
+         * large layers do not block it. Must be called on the main thread. Calling
+         * {@link #clear()} cancels the rest of the batch, and calls the callback's onCancelled.
+         *
+         * @param callback notified of progress, or null.
+         * @return the added markers, in the order of options. The list grows as chunks are added,
+         * and is complete when the callback's onComplete is called. For a CulledCollection, the
+         * entries of markers not on the map when they were added are null, and entries are not
+         * updated as the camera moves.
+         */
+        public List<Marker> addMarkers(final List<MarkerOptions> options, final BatchCallback callback) {
+            final List<Marker> markers = new ArrayList<Marker>(options.size());
+            ensureCapacity(options.size());
+            if (options.size() > mMarkers.size()) {
+                Set<Marker> presized = new HashSet<Marker>((mMarkers.size() + options.size()) * 4 / 3 + 1);
+                presized.addAll(mMarkers);
+                mMarkers = presized;
+            }
+            runBatch(options.size(), callback, new BatchStep() {
+                @Override
+                public void run(int index) {
+                    markers.add(addMarker(options.get(index)));
+                }
+            });
+            return Collections.unmodifiableList(markers);
+        }
+
+        /**
+         * Removes markers in chunks of about half a frame each, posted to the main thread. Must be
+         * called on the main thread. Markers not in this collection are skipped.
+         *
+         * @param callback notified of progress, or null.
+         */
+        public void removeMarkers(java.util.Collection<Marker> markers, BatchCallback callback) {
+            final List<Marker> toRemove = new ArrayList<Marker>(markers);
+            runBatch(toRemove.size(), callback, new BatchStep() {
+                @Override
+                public void run(int index) {
+                    remove(toRemove.get(index));
+                }
+            });
+        }
+
+        /**
+         * Runs the first chunk of a batch right away, and posts the following chunks.
+         */
+        private void runBatch(final int total, final BatchCallback callback, final BatchStep step) {
+            final int generation = mBatchGeneration;
+            new Runnable() {
+                private int mDone;
+
+                @Override
+                public void run() {
+                    if (generation != mBatchGeneration) {
+                        // The collection was cleared while this chunk was posted.
+                        if (callback != null) {
+                            callback.onCancelled();
+                        }
+                        return;
+                    }
+                    long deadline = SystemClock.uptimeMillis() + BATCH_BUDGET_MS;
+                    while (mDone < total) {
+                        step.run(mDone++);
+                        if (SystemClock.uptimeMillis() >= deadline) {
+                            break;
+                        }
+                    }
+                    if (callback != null) {
+                        callback.onProgress(mDone, total);
+                    }
+                    if (mDone < total) {
+                        mHandler.post(this);
+                    } else if (callback != null) {
+                        callback.onComplete();
+                    }
+                }
+            }.run();
+        }
+
         public java.util.Collection<Marker> getMarkers() {
             return Collections.unmodifiableCollection(mMarkers);
         }
@@ -178,4 +359,211 @@ public class MarkerManager implements GoogleMap.OnInfoWindowClickListener, Googl
             mInfoWindowAdapter = infoWindowAdapter;
         }
     }
+
+    /**
+     * A collection which keeps the options of every logical marker, indexed by position, and only
+     * adds markers to the map while they are in the visible region. Markers are added and removed
+     * as the camera moves, up to a budget of live markers, so that collections far larger than the
+     * map can display stay responsive.
+     * <p/>
+     * {@link #getMarkers()} returns the live markers only, and {@link #addMarker} returns null for
+     * markers not on the map yet. Marker events are delivered for live markers as for any other
+     * collection.
+     * <p/>
+     * Clearing the collection stops culling it on camera changes until markers are added again, so
+     * cleared collections are not kept by the MarkerManager.
+     */
+    public class CulledCollection extends Collection {
+        private final PointQuadTree<CulledMarker> mIndex = new PointQuadTree<CulledMarker>(0, 1, 0, 1);
+        private final Map<MarkerOptions, CulledMarker> mCulledMarkers = new HashMap<MarkerOptions, CulledMarker>();
+        private final Map<Marker, CulledMarker> mLiveMarkers = new HashMap<Marker, CulledMarker>();
+        private final int mMaxLiveMarkers;
+
+        /**
+         * The visible region at the last cull, in projected coordinates. Two boxes when it crosses
+         * the antimeridian.
+         */
+        private List<Bounds> mViewport = Collections.emptyList();
+
+        private CulledCollection(int maxLiveMarkers) {
+            mMaxLiveMarkers = maxLiveMarkers;
+        }
+
+        /**
+         * Adds a logical marker. It is added to the map if it is in the visible region and the
+         * budget of live markers allows it.
+         *
+         * @return the live marker, or null if the marker is not on the map yet.
+         */
+        @Override
+        public Marker addMarker(MarkerOptions opts) {
+            if (!mCulledCollections.contains(this)) {
+                track(this);
+            }
+            CulledMarker culledMarker = new CulledMarker(opts);
+            CulledMarker previous = mCulledMarkers.put(opts, culledMarker);
+            if (previous != null) {
+                removeCulledMarker(previous);
+            }
+            mIndex.add(culledMarker);
+            if (mLiveMarkers.size() < mMaxLiveMarkers && isInViewport(culledMarker.mPoint)) {
+                show(culledMarker);
+            }
+            return culledMarker.mMarker;
+        }
+
+        /**
+         * Removes a logical marker, and its live marker if it is on the map.
+         *
+         * @return true if the marker was removed.
+         */
+        public boolean remove(MarkerOptions opts) {
+            CulledMarker culledMarker = mCulledMarkers.remove(opts);
+            if (culledMarker == null) {
+                return false;
+            }
+            removeCulledMarker(culledMarker);
+            return true;
+        }
+
+        /**
+         * Removes a live marker, along with its logical marker.
+         */
+        @Override
+        public boolean remove(Marker marker) {
+            CulledMarker culledMarker = mLiveMarkers.get(marker);
+            if (culledMarker == null) {
+                return false;
+            }
+            mCulledMarkers.remove(culledMarker.mOptions);
+            removeCulledMarker(culledMarker);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            mIndex.clear();
+            mCulledMarkers.clear();
+            mLiveMarkers.clear();
+            mCulledCollections.remove(this);
+        }
+
+        /**
+         * @return the options of every logical marker, whether it is on the map or not.
+         */
+        public java.util.Collection<MarkerOptions> getMarkerOptions() {
+            return Collections.unmodifiableCollection(mCulledMarkers.keySet());
+        }
+
+        /**
+         * Adds the markers in the given bounds to the map, and removes the others. When more
+         * markers are visible than the budget allows, markers already on the map are kept first,
+         * so that markers do not flicker while panning. Called on camera changes.
+         */
+        public void cull(LatLngBounds bounds) {
+            Point southwest = PROJECTION.toPoint(bounds.southwest);
+            Point northeast = PROJECTION.toPoint(bounds.northeast);
+            // Projected y grows to the south.
+            List<Bounds> viewport = new ArrayList<Bounds>(2);
+            if (southwest.x <= northeast.x) {
+                viewport.add(new Bounds(southwest.x, northeast.x, northeast.y, southwest.y));
+            } else {
+                viewport.add(new Bounds(southwest.x, 1, northeast.y, southwest.y));
+                viewport.add(new Bounds(0, northeast.x, northeast.y, southwest.y));
+            }
+            mViewport = viewport;
+
+            Set<CulledMarker> visible = new HashSet<CulledMarker>();
+            for (Bounds box : viewport) {
+                visible.addAll(mIndex.search(box));
+            }
+            if (visible.size() > mMaxLiveMarkers) {
+                Set<CulledMarker> kept = new HashSet<CulledMarker>();
+                for (CulledMarker culledMarker : mLiveMarkers.values()) {
+                    if (kept.size() < mMaxLiveMarkers && visible.contains(culledMarker)) {
+                        kept.add(culledMarker);
+                    }
+                }
+                for (CulledMarker culledMarker : visible) {
+                    if (kept.size() >= mMaxLiveMarkers) {
+                        break;
+                    }
+                    kept.add(culledMarker);
+                }
+                visible = kept;
+            }
+
+            List<CulledMarker> hidden = new ArrayList<CulledMarker>();
+            for (CulledMarker culledMarker : mLiveMarkers.values()) {
+                if (!visible.contains(culledMarker)) {
+                    hidden.add(culledMarker);
+                }
+            }
+            for (CulledMarker culledMarker : hidden) {
+                hide(culledMarker);
+            }
+            for (CulledMarker culledMarker : visible) {
+                if (culledMarker.mMarker == null) {
+                    show(culledMarker);
+                }
+            }
+        }
+
+        private boolean isInViewport(Point point) {
+            for (Bounds box : mViewport) {
+                if (box.contains(point)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void removeCulledMarker(CulledMarker culledMarker) {
+            mIndex.remove(culledMarker);
+            if (culledMarker.mMarker != null) {
+                hide(culledMarker);
+            }
+        }
+
+        private void show(CulledMarker culledMarker) {
+            culledMarker.mMarker = super.addMarker(culledMarker.mOptions);
+            mLiveMarkers.put(culledMarker.mMarker, culledMarker);
+        }
+
+        private void hide(CulledMarker culledMarker) {
+            mLiveMarkers.remove(culledMarker.mMarker);
+            super.remove(culledMarker.mMarker);
+            culledMarker.mMarker = null;
+        }
+    }
+
+    /**
+     * A logical marker of a {@link CulledCollection}, with its live marker while it is on the map.
+     */
+    static class CulledMarker implements PointQuadTree.Item {
+        private final MarkerOptions mOptions;
+        private final Point mPoint;
+        private Marker mMarker;
+
+        CulledMarker(MarkerOptions options) {
+            mOptions = options;
+            // Latitudes near the poles project outside the world, and the index drops points
+            // outside its bounds.
+            Point point = PROJECTION.toPoint(options.getPosition());
+            mPoint = new Point(point.x, Math.max(0, Math.min(1, point.y)));
+        }
+
+        @Override
+        public Point getPoint() {
+            return mPoint;
+        }
+    }
+
+    /**
+     * One marker's worth of work in a batch.
+     */
+    private interface BatchStep {
+        void run(int index);
+    }
 }
@@ -11,8 +11,11 @@ import com.google.maps.android.MarkerManager;
 import com.google.maps.android.clustering.algo.Algorithm;
 import com.google.maps.android.clustering.algo.NonHierarchicalDistanceBasedAlgorithm;
 import com.google.maps.android.clustering.algo.PreCachingAlgorithmDecorator;
+import com.google.maps.android.clustering.algo.SnapshotAlgorithm;
+import com.google.maps.android.clustering.algo.StoreBackedAlgorithm;
 import com.google.maps.android.clustering.view.ClusterRenderer;
 import com.google.maps.android.clustering.view.DefaultClusterRenderer;
+import com.google.maps.android.clustering.view.ViewportClusterRenderer;
 
 import java.util.Collection;
 import java.util.Set;
@@ -30,7 +33,7 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
     private final MarkerManager.Collection mMarkers;
     private final MarkerManager.Collection mClusterMarkers;
 
-    private Algorithm<T> mAlgorithm;
+    private PreCachingAlgorithmDecorator<T> mAlgorithm;
     private final ReadWriteLock mAlgorithmLock = new ReentrantReadWriteLock();
     private ClusterRenderer<T> mRenderer;
 
@@ -86,11 +89,34 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
         cluster();
     }
 
+    /**
+     * Replaces the clustering algorithm. If both the current and the new algorithm are
+     * {@link StoreBackedAlgorithm}s, the new one adopts the current one's items without copying
+     * them, and indexes them when it next clusters, on a background thread. The current algorithm
+     * is dropped straight away, but the markers it was last rendered with stay on the map until
+     * the new algorithm's clusters are rendered.
+     *
+     * @throws IllegalStateException if the algorithm is a {@link SnapshotAlgorithm} and there are
+     *                               items, which it cannot take over.
+     */
     public void setAlgorithm(Algorithm<T> algorithm) {
         mAlgorithmLock.writeLock().lock();
         try {
             if (mAlgorithm != null) {
-                algorithm.addItems(mAlgorithm.getItems());
+                Algorithm<T> previous = mAlgorithm.getAlgorithm();
+                if (previous instanceof StoreBackedAlgorithm && algorithm instanceof StoreBackedAlgorithm) {
+                    ((StoreBackedAlgorithm<T>) algorithm).setItemStore(
+                            ((StoreBackedAlgorithm<T>) previous).getItemStore());
+                } else {
+                    Collection<T> items = mAlgorithm.getItems();
+                    if (!items.isEmpty()) {
+                        if (algorithm instanceof SnapshotAlgorithm) {
+                            throw new IllegalStateException("A SnapshotAlgorithm brings its own "
+                                    + "items: call clearItems before setting it");
+                        }
+                        algorithm.addItems(items);
+                    }
+                }
             }
             mAlgorithm = new PreCachingAlgorithmDecorator<T>(algorithm);
         } finally {
@@ -140,15 +166,17 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
      * Force a re-cluster. You may want to call this after adding new item(s).
      */
     public void cluster() {
+        // Capture the viewport once on the UI thread; everything downstream works from the snapshot.
+        ViewportSnapshot viewport = ViewportSnapshot.capture(mMap);
         mClusterTaskLock.writeLock().lock();
         try {
             // Attempt to cancel the in-flight request.
             mClusterTask.cancel(true);
             mClusterTask = new ClusterTask();
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
-                mClusterTask.execute(mMap.getCameraPosition().zoom);
+                mClusterTask.execute(viewport);
             } else {
-                mClusterTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mMap.getCameraPosition().zoom);
+                mClusterTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, viewport);
             }
         } finally {
             mClusterTaskLock.writeLock().unlock();
@@ -162,6 +190,7 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
      */
     @Override
     public void onCameraChange(CameraPosition cameraPosition) {
+        mMarkerManager.onCameraChange(cameraPosition);
         if (mRenderer instanceof GoogleMap.OnCameraChangeListener) {
             ((GoogleMap.OnCameraChangeListener) mRenderer).onCameraChange(cameraPosition);
         }
@@ -189,12 +218,15 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
     /**
      * Runs the clustering algorithm in a background thread, then re-paints when results come back.
      */
-    private class ClusterTask extends AsyncTask<Float, Void, Set<? extends Cluster<T>>> {
+    private class ClusterTask extends AsyncTask<ViewportSnapshot, Void, Set<? extends Cluster<T>>> {
+        private ViewportSnapshot mViewport;
+
         @Override
-        protected Set<? extends Cluster<T>> doInBackground(Float... zoom) {
+        protected Set<? extends Cluster<T>> doInBackground(ViewportSnapshot... viewport) {
+            mViewport = viewport[0];
             mAlgorithmLock.readLock().lock();
             try {
-                return mAlgorithm.getClusters(zoom[0]);
+                return mAlgorithm.getClusters(mViewport.getZoom());
             } finally {
                 mAlgorithmLock.readLock().unlock();
             }
@@ -202,7 +234,11 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
 
         @Override
         protected void onPostExecute(Set<? extends Cluster<T>> clusters) {
-            mRenderer.onClustersChanged(clusters);
+            if (mRenderer instanceof ViewportClusterRenderer) {
+                ((ViewportClusterRenderer<T>) mRenderer).onClustersChanged(clusters, mViewport);
+            } else {
+                mRenderer.onClustersChanged(clusters);
+            }
         }
     }
 
@@ -0,0 +1,20 @@
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * A cluster from a hierarchical algorithm, which can tell where its items are and when they split
+ * up without iterating over them. Useful for zooming in on a tapped cluster.
+ */
+public interface ExpandableCluster<T extends ClusterItem> extends Cluster<T> {
+    /**
+     * @return the bounds of the cluster's items.
+     */
+    LatLngBounds getBounds();
+
+    /**
+     * @return the lowest zoom level at which the cluster's items are split between more than one
+     * cluster, or the algorithm's highest zoom level if they never are.
+     */
+    int getExpansionZoom();
+}
@@ -0,0 +1,83 @@
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.Projection;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.VisibleRegion;
+
+/**
+ * An immutable copy of the map's viewport, taken at a single point in time.
+ * <p/>
+ * {@link Projection} and {@link GoogleMap#getCameraPosition()} may only be used on the UI thread.
+ * A snapshot is captured there once, and can then be handed to clustering and rendering work
+ * running on any thread.
+ */
+public class ViewportSnapshot {
+    private final LatLngBounds mVisibleBounds;
+    private final float mZoom;
+    private final float mBearing;
+    private final int mScreenWidth;
+    private final int mScreenHeight;
+
+    public ViewportSnapshot(LatLngBounds visibleBounds, float zoom, float bearing, int screenWidth, int screenHeight) {
+        mVisibleBounds = visibleBounds;
+        mZoom = zoom;
+        mBearing = bearing;
+        mScreenWidth = screenWidth;
+        mScreenHeight = screenHeight;
+    }
+
+    /**
+     * Captures the current viewport of the map. Must be called on the UI thread.
+     */
+    public static ViewportSnapshot capture(GoogleMap map) {
+        CameraPosition cameraPosition = map.getCameraPosition();
+        Projection projection = map.getProjection();
+        VisibleRegion visibleRegion = projection.getVisibleRegion();
+        // The near right corner of the visible region is the bottom right corner of the screen.
+        android.graphics.Point bottomRight = projection.toScreenLocation(visibleRegion.nearRight);
+        return new ViewportSnapshot(visibleRegion.latLngBounds, cameraPosition.zoom,
+                cameraPosition.bearing, bottomRight.x, bottomRight.y);
+    }
+
+    /**
+     * The smallest bounds containing the visible region of the map.
+     */
+    public LatLngBounds getVisibleBounds() {
+        return mVisibleBounds;
+    }
+
+    public float getZoom() {
+        return mZoom;
+    }
+
+    public float getBearing() {
+        return mBearing;
+    }
+
+    /**
+     * The width of the map view, in pixels.
+     */
+    public int getScreenWidth() {
+        return mScreenWidth;
+    }
+
+    /**
+     * The height of the map view, in pixels.
+     */
+    public int getScreenHeight() {
+        return mScreenHeight;
+    }
+
+    @Override
+    public String toString() {
+        return "ViewportSnapshot{" +
+                "mVisibleBounds=" + mVisibleBounds +
+                ", mZoom=" + mZoom +
+                ", mBearing=" + mBearing +
+                ", mScreenWidth=" + mScreenWidth +
+                ", mScreenHeight=" + mScreenHeight +
+                '}';
+    }
+}
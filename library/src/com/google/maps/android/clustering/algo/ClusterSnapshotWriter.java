@@ -0,0 +1,270 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.ClusterItem;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Precomputes a cluster hierarchy for a fixed list of items, and writes it in the format read by
+ * {@link SnapshotAlgorithm}.
+ * <p/>
+ * Snapshots can also be written from arrays of latitudes and longitudes, which only needs plain
+ * Java, so they can be built offline on a build machine, with the main method:
+ * <pre>
+ * java -cp library.jar com.google.maps.android.clustering.algo.ClusterSnapshotWriter \
+ *     items.csv snapshot.bin [minZoom maxZoom]
+ * </pre>
+ * where each line of items.csv holds an item's latitude and longitude, separated by a comma, in
+ * the order the items will be loaded with.
+ * <p/>
+ * Items are grouped like {@link GridPyramidAlgorithm}: the grid at zoom z has 2^(z + 1) cells on
+ * each side, so every cluster at zoom z + 1 lies within a single cluster at zoom z. Items are
+ * ordered by their cell at the finest zoom level, which makes every cluster at every zoom level a
+ * contiguous range of that order. Clusters are positioned at the centroid of their items, and
+ * their bounds are stored, so that {@link SnapshotAlgorithm} can serve
+ * {@link com.google.maps.android.clustering.ExpandableCluster}s.
+ * <p/>
+ * The format is big-endian:
+ * <pre>
+ * int    MAGIC
+ * int    FORMAT_VERSION
+ * int    item count n
+ * int    min zoom
+ * int    max zoom
+ * int[n] item order, as indices into the list of items the snapshot was built from
+ * for each zoom level from min zoom to max zoom:
+ *   int  cluster count c
+ *   c x  (int latitude * 1e7, int longitude * 1e7, int index of the first item in the order,
+ *         int south * 1e7, int west * 1e7, int north * 1e7, int east * 1e7)
+ * </pre>
+ * A cluster's items run up to the first item of the next cluster at the same zoom level, or to
+ * the end of the order.
+ */
+public class ClusterSnapshotWriter {
+    static final int MAGIC = 0x4d434c53; // "MCLS"
+    static final int FORMAT_VERSION = 2;
+
+    /**
+     * Zoom levels past this one are clustered like it.
+     */
+    static final int MAX_ZOOM = 21;
+
+    static final double E7 = 1e7;
+
+    /**
+     * Number of ints written for each cluster.
+     */
+    static final int CLUSTER_INTS = 7;
+
+    private ClusterSnapshotWriter() {
+    }
+
+    /**
+     * Writes the clusters of every zoom level from minZoom up to maxZoom. Stops early at the first
+     * zoom level where every cluster holds a single item, since higher levels would be the same.
+     *
+     * @param items the items, in the order the snapshot will be loaded with.
+     */
+    public static void write(List<? extends ClusterItem> items, int minZoom, int maxZoom, OutputStream out)
+            throws IOException {
+        double[] latitudes = new double[items.size()];
+        double[] longitudes = new double[items.size()];
+        for (int i = 0; i < latitudes.length; i++) {
+            LatLng position = items.get(i).getPosition();
+            latitudes[i] = position.latitude;
+            longitudes[i] = position.longitude;
+        }
+        write(latitudes, longitudes, minZoom, maxZoom, out);
+    }
+
+    /**
+     * Writes the clusters of items given by their positions, without needing the Maps API.
+     *
+     * @param latitudes  latitudes of the items, in the order the snapshot will be loaded with.
+     * @param longitudes longitudes of the items, in the same order.
+     */
+    public static void write(double[] latitudes, double[] longitudes, int minZoom, int maxZoom,
+                             OutputStream out) throws IOException {
+        if (minZoom < 0 || maxZoom < minZoom || maxZoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Need 0 <= minZoom <= maxZoom <= " + MAX_ZOOM);
+        }
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Need as many latitudes as longitudes");
+        }
+        final int size = latitudes.length;
+        final double[] x = new double[size];
+        final double[] y = new double[size];
+        final long[] coords = new long[size];
+        final long numCells = 1L << (MAX_ZOOM + 1);
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = toX(longitudes[i]);
+            y[i] = toY(latitudes[i]);
+            coords[i] = GridBasedAlgorithm.getCoord(toCell(x[i] * numCells, numCells), toCell(y[i] * numCells, numCells));
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return coords[a] < coords[b] ? -1 : coords[a] == coords[b] ? 0 : 1;
+            }
+        });
+
+        int[][] levels = new int[maxZoom - minZoom + 1][];
+        int lastZoom = maxZoom;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            levels[zoom - minZoom] = buildLevel(order, coords, x, y, 2 * (MAX_ZOOM - zoom));
+            if (levels[zoom - minZoom].length / CLUSTER_INTS == size) {
+                lastZoom = zoom;
+                break;
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(size);
+        data.writeInt(minZoom);
+        data.writeInt(lastZoom);
+        for (Integer index : order) {
+            data.writeInt(index);
+        }
+        for (int zoom = minZoom; zoom <= lastZoom; zoom++) {
+            int[] level = levels[zoom - minZoom];
+            data.writeInt(level.length / CLUSTER_INTS);
+            for (int value : level) {
+                data.writeInt(value);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * @return the position, first item and bounds of each cluster, packed in one array.
+     */
+    private static int[] buildLevel(Integer[] order, long[] coords, double[] x, double[] y, int shift) {
+        int[] level = new int[16 * CLUSTER_INTS];
+        int length = 0;
+        int start = 0;
+        while (start < order.length) {
+            long cell = coords[order[start]] >>> shift;
+            double sumX = 0;
+            double sumY = 0;
+            double minX = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE;
+            double maxY = -Double.MAX_VALUE;
+            int end = start;
+            for (; end < order.length && coords[order[end]] >>> shift == cell; end++) {
+                double itemX = x[order[end]];
+                double itemY = y[order[end]];
+                sumX += itemX;
+                sumY += itemY;
+                minX = Math.min(minX, itemX);
+                maxX = Math.max(maxX, itemX);
+                minY = Math.min(minY, itemY);
+                maxY = Math.max(maxY, itemY);
+            }
+            if (length + CLUSTER_INTS > level.length) {
+                level = Arrays.copyOf(level, level.length * 2);
+            }
+            level[length++] = (int) Math.round(toLatitude(sumY / (end - start)) * E7);
+            level[length++] = (int) Math.round(toLongitude(sumX / (end - start)) * E7);
+            level[length++] = start;
+            // Projected y grows to the south.
+            level[length++] = (int) Math.round(toLatitude(maxY) * E7);
+            level[length++] = (int) Math.round(toLongitude(minX) * E7);
+            level[length++] = (int) Math.round(toLatitude(minY) * E7);
+            level[length++] = (int) Math.round(toLongitude(maxX) * E7);
+            start = end;
+        }
+        return Arrays.copyOf(level, length);
+    }
+
+    /*
+     * Spherical Mercator projection onto a world of width 1, as SphericalMercatorProjection, but
+     * without LatLng.
+     */
+
+    private static double toX(double longitude) {
+        return longitude / 360 + .5;
+    }
+
+    private static double toY(double latitude) {
+        double siny = Math.sin(Math.toRadians(latitude));
+        return 0.5 * Math.log((1 + siny) / (1 - siny)) / -(2 * Math.PI) + .5;
+    }
+
+    private static double toLongitude(double x) {
+        return (x - 0.5) * 360;
+    }
+
+    private static double toLatitude(double y) {
+        return 90 - Math.toDegrees(Math.atan(Math.exp(-(.5 - y) * 2 * Math.PI)) * 2);
+    }
+
+    /**
+     * Writes a snapshot of items read from a file, one "latitude,longitude" line per item.
+     * Arguments: input file, output file, and optionally the min and max zoom levels.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 4) {
+            System.err.println("Usage: ClusterSnapshotWriter items.csv snapshot.bin [minZoom maxZoom]");
+            System.exit(1);
+        }
+        int minZoom = args.length == 4 ? Integer.parseInt(args[2]) : 0;
+        int maxZoom = args.length == 4 ? Integer.parseInt(args[3]) : MAX_ZOOM;
+
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+        int size = 0;
+        BufferedReader in = new BufferedReader(new FileReader(args[0]));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    throw new IOException("Expected latitude,longitude but got: " + line);
+                }
+                if (size == latitudes.length) {
+                    latitudes = Arrays.copyOf(latitudes, size * 2);
+                    longitudes = Arrays.copyOf(longitudes, size * 2);
+                }
+                latitudes[size] = Double.parseDouble(line.substring(0, comma).trim());
+                longitudes[size] = Double.parseDouble(line.substring(comma + 1).trim());
+                size++;
+            }
+        } finally {
+            in.close();
+        }
+
+        OutputStream out = new FileOutputStream(args[1]);
+        try {
+            write(Arrays.copyOf(latitudes, size), Arrays.copyOf(longitudes, size), minZoom, maxZoom, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Clamps a projected coordinate to a cell. Latitudes near the poles project outside the world.
+     */
+    private static long toCell(double coordinate, long numCells) {
+        long cell = (long) Math.floor(coordinate);
+        return cell < 0 ? 0 : cell >= numCells ? numCells - 1 : cell;
+    }
+}
@@ -0,0 +1,226 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups items only when their rendered icons would overlap on screen.
+ * <p/>
+ * Each item's icon is treated as a rectangle of the size reported by an {@link IconSizeProvider},
+ * anchored at the bottom center like a default marker. Dense areas collapse into clusters, while
+ * items in sparse areas stay visible individually, however large their icons are.
+ * <p/>
+ * High level algorithm:<br>
+ * 1. Iterate over items in the order of the {@link ItemStore}.<br>
+ * 2. Look up already placed clusters in the screen-space grid cells around the item.<br>
+ * 3. If the item's icon overlaps the icon of one of those clusters, add it to the nearest one.<br>
+ * 4. Otherwise place a new cluster with the item's icon, and add it to the grid.
+ * <p/>
+ * Clusters have the center of the first element. Note that DefaultClusterRenderer draws clusters
+ * of up to four items as individual markers; override shouldRenderAsCluster to avoid drawing
+ * overlapping markers.
+ */
+public class CollisionBasedAlgorithm<T extends ClusterItem> implements StoreBackedAlgorithm<T> {
+    /**
+     * Default icon width, in dp. Roughly the size of the default marker.
+     */
+    public static final int DEFAULT_ICON_WIDTH = 24;
+
+    /**
+     * Default icon height, in dp. Roughly the size of the default marker.
+     */
+    public static final int DEFAULT_ICON_HEIGHT = 40;
+
+    private ItemStore<T> mStore = new ItemStore<T>();
+
+    private final IconSizeProvider<T> mIconSizeProvider;
+
+    /**
+     * Reports the size of the icon an item is rendered with.
+     */
+    public interface IconSizeProvider<T extends ClusterItem> {
+        /**
+         * @return the width of the item's icon, in dp.
+         */
+        int getIconWidth(T item);
+
+        /**
+         * @return the height of the item's icon, in dp.
+         */
+        int getIconHeight(T item);
+    }
+
+    /**
+     * Creates an algorithm that assumes every item is rendered with an icon of the default size.
+     */
+    public CollisionBasedAlgorithm() {
+        this(new IconSizeProvider<T>() {
+            @Override
+            public int getIconWidth(T item) {
+                return DEFAULT_ICON_WIDTH;
+            }
+
+            @Override
+            public int getIconHeight(T item) {
+                return DEFAULT_ICON_HEIGHT;
+            }
+        });
+    }
+
+    public CollisionBasedAlgorithm(IconSizeProvider<T> iconSizeProvider) {
+        mIconSizeProvider = iconSizeProvider;
+    }
+
+    @Override
+    public void addItem(T item) {
+        mStore.add(item);
+    }
+
+    @Override
+    public void addItems(Collection<T> items) {
+        mStore.addAll(items);
+    }
+
+    @Override
+    public void clearItems() {
+        mStore.clear();
+    }
+
+    @Override
+    public void removeItem(T item) {
+        mStore.remove(item);
+    }
+
+    @Override
+    public ItemStore<T> getItemStore() {
+        return mStore;
+    }
+
+    @Override
+    public void setItemStore(ItemStore<T> store) {
+        mStore = store;
+    }
+
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        final int discreteZoom = (int) zoom;
+        // Width of the world in dp at this zoom level.
+        final double worldWidth = 256 * Math.pow(2, discreteZoom);
+
+        final Set<Cluster<T>> results = new HashSet<Cluster<T>>();
+
+        final ItemStore<T> store = mStore;
+        synchronized (store) {
+            final int size = store.size();
+            final double[] projectedX = store.getXArray();
+            final double[] projectedY = store.getYArray();
+
+            // Grid cells are as large as the largest icon, so any icon overlapping a given icon
+            // is anchored in the same cell or in one of the eight cells around it.
+            int cellWidth = 1;
+            int cellHeight = 1;
+            for (int i = 0; i < size; i++) {
+                T item = store.get(i);
+                cellWidth = Math.max(cellWidth, mIconSizeProvider.getIconWidth(item));
+                cellHeight = Math.max(cellHeight, mIconSizeProvider.getIconHeight(item));
+            }
+
+            final Map<Long, List<PlacedCluster<T>>> grid = new HashMap<Long, List<PlacedCluster<T>>>();
+
+            for (int index = 0; index < size; index++) {
+                T item = store.get(index);
+                double x = projectedX[index] * worldWidth;
+                double y = projectedY[index] * worldWidth;
+                double halfWidth = mIconSizeProvider.getIconWidth(item) / 2.0;
+                double left = x - halfWidth;
+                double right = x + halfWidth;
+                double top = y - mIconSizeProvider.getIconHeight(item);
+
+                long cellX = (long) (x / cellWidth);
+                long cellY = (long) (y / cellHeight);
+
+                PlacedCluster<T> closest = null;
+                double minDistSquared = Double.MAX_VALUE;
+                for (long i = cellX - 1; i <= cellX + 1; i++) {
+                    for (long j = cellY - 1; j <= cellY + 1; j++) {
+                        List<PlacedCluster<T>> cell = grid.get(GridBasedAlgorithm.getCoord(i, j));
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (PlacedCluster<T> candidate : cell) {
+                            if (!candidate.overlaps(left, top, right, y)) {
+                                continue;
+                            }
+                            double distSquared = candidate.distanceSquared(x, y);
+                            if (distSquared < minDistSquared) {
+                                closest = candidate;
+                                minDistSquared = distSquared;
+                            }
+                        }
+                    }
+                }
+
+                if (closest != null) {
+                    closest.mCluster.add(item);
+                    continue;
+                }
+
+                PlacedCluster<T> placed = new PlacedCluster<T>(item, x, y, left, top, right, y);
+                long key = GridBasedAlgorithm.getCoord(cellX, cellY);
+                List<PlacedCluster<T>> cell = grid.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<PlacedCluster<T>>(1);
+                    grid.put(key, cell);
+                }
+                cell.add(placed);
+                results.add(placed.mCluster);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        return mStore.getItems();
+    }
+
+    /**
+     * A cluster, and the screen-space rectangle of the icon it is drawn with.
+     */
+    private static class PlacedCluster<T extends ClusterItem> {
+        private final StaticCluster<T> mCluster;
+        private final double mX;
+        private final double mY;
+        private final double mLeft;
+        private final double mTop;
+        private final double mRight;
+        private final double mBottom;
+
+        private PlacedCluster(T item, double x, double y, double left, double top, double right, double bottom) {
+            mCluster = new StaticCluster<T>(item.getPosition());
+            mCluster.add(item);
+            mX = x;
+            mY = y;
+            mLeft = left;
+            mTop = top;
+            mRight = right;
+            mBottom = bottom;
+        }
+
+        private boolean overlaps(double left, double top, double right, double bottom) {
+            return left < mRight && mLeft < right && top < mBottom && mTop < bottom;
+        }
+
+        private double distanceSquared(double x, double y) {
+            return (x - mX) * (x - mX) + (y - mY) * (y - mY);
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.google.maps.android.clustering.algo;
+
+import android.support.v4.util.LruCache;
+
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A density-based clustering algorithm (DBSCAN) in projected screen space. Unlike the
+ * distance-based and grid algorithms, clusters may take any shape, so items strung along roads
+ * or coastlines form a single cluster.
+ * <p/>
+ * An item is a core item if at least minItems items, including itself, lie within radius dp of
+ * it. Core items within radius of each other belong to the same cluster. Other items join the
+ * cluster of any core item within radius of them, or are returned as single item clusters.
+ * <p/>
+ * Neighbours are found through a grid of cells radius / sqrt(2) wide, so that any two items in
+ * the same cell are neighbours, and any neighbour lies in one of the 21 cells around an item:<br>
+ * 1. Every item in a cell holding at least minItems items is a core item. Items in sparser cells
+ * count their neighbours in the cells around them, stopping at minItems. This step is split
+ * between several threads, which are kept between calls, and its results are cached per zoom
+ * level until items change.<br>
+ * 2. Cells holding a core item are merged with a union-find whenever a pair of their core items
+ * are neighbours.<br>
+ * 3. Other items join the cluster of the first neighbouring core item found.
+ * <p/>
+ * Clusters are positioned at the centroid of their items.
+ */
+public class DensityBasedAlgorithm<T extends ClusterItem> implements StoreBackedAlgorithm<T> {
+    public static final int DEFAULT_RADIUS = 50; // dp.
+    public static final int DEFAULT_MIN_ITEMS = 5;
+
+    /**
+     * The finest zoom level that is clustered. Higher zoom levels are clustered at this level.
+     */
+    private static final int MAX_ZOOM = 21;
+
+    /**
+     * Number of zoom levels to keep core items for.
+     */
+    private static final int CORE_CACHE_SIZE = 5;
+
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
+
+    private final int mRadius;
+    private final int mMinItems;
+    private final int mThreads;
+
+    /**
+     * Runs chunks of findCoreItems, created when first needed. Idle threads time out, so it is
+     * never shut down.
+     */
+    private ThreadPoolExecutor mExecutor;
+
+    private ItemStore<T> mStore = new ItemStore<T>();
+
+    /**
+     * Which items are core items, by zoom level, and the version of mStore they match. Any access
+     * should be synchronized on mStore.
+     */
+    private final LruCache<Integer, boolean[]> mCoreCache = new LruCache<Integer, boolean[]>(CORE_CACHE_SIZE);
+    private int mCoreVersion;
+
+    public DensityBasedAlgorithm() {
+        this(DEFAULT_RADIUS, DEFAULT_MIN_ITEMS);
+    }
+
+    /**
+     * @param radius   the neighbourhood radius, in dp.
+     * @param minItems the number of items, including itself, that must lie within radius of an
+     *                 item for it to be a core item.
+     */
+    public DensityBasedAlgorithm(int radius, int minItems) {
+        this(radius, minItems, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads number of threads used to find core items.
+     */
+    public DensityBasedAlgorithm(int radius, int minItems, int threads) {
+        if (radius <= 0 || minItems < 1 || threads < 1) {
+            throw new IllegalArgumentException("radius, minItems and threads must be positive");
+        }
+        mRadius = radius;
+        mMinItems = minItems;
+        mThreads = threads;
+    }
+
+    @Override
+    public void addItem(T item) {
+        mStore.add(item);
+    }
+
+    @Override
+    public void addItems(Collection<T> items) {
+        mStore.addAll(items);
+    }
+
+    @Override
+    public void clearItems() {
+        mStore.clear();
+    }
+
+    @Override
+    public void removeItem(T item) {
+        mStore.remove(item);
+    }
+
+    @Override
+    public ItemStore<T> getItemStore() {
+        return mStore;
+    }
+
+    @Override
+    public void setItemStore(ItemStore<T> store) {
+        synchronized (store) {
+            mStore = store;
+            mCoreCache.evictAll();
+            mCoreVersion = store.getVersion();
+        }
+    }
+
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        final int discreteZoom = Math.max(0, Math.min(MAX_ZOOM, (int) zoom));
+        final double radius = mRadius / Math.pow(2, discreteZoom) / 256;
+
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            Grid grid = new Grid(store.getXArray(), store.getYArray(), store.size(), radius);
+
+            if (mCoreVersion != store.getVersion()) {
+                mCoreCache.evictAll();
+                mCoreVersion = store.getVersion();
+            }
+            boolean[] core = mCoreCache.get(discreteZoom);
+            if (core == null) {
+                core = findCoreItems(grid);
+                mCoreCache.put(discreteZoom, core);
+            }
+
+            int[] cellCluster = joinCoreCells(grid, core);
+            return buildClusters(store, grid, core, cellCluster);
+        }
+    }
+
+    /**
+     * Finds which items are core items, splitting the cells between mThreads threads.
+     */
+    private boolean[] findCoreItems(final Grid grid) {
+        final boolean[] core = new boolean[grid.mSize];
+        final int threads = grid.mSize < 10000 ? 1 : mThreads;
+        final int chunkSize = (grid.mCellCount + threads - 1) / threads;
+        List<Runnable> chunks = new ArrayList<Runnable>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int fromCell = t * chunkSize;
+            final int toCell = Math.min(grid.mCellCount, fromCell + chunkSize);
+            chunks.add(new Runnable() {
+                @Override
+                public void run() {
+                    for (int cell = fromCell; cell < toCell; cell++) {
+                        boolean dense = grid.mCellStart[cell + 1] - grid.mCellStart[cell] >= mMinItems;
+                        if (!dense && grid.countNearbyItems(cell) < mMinItems) {
+                            // No item in this cell can have enough neighbours.
+                            continue;
+                        }
+                        for (int i = grid.mCellStart[cell]; i < grid.mCellStart[cell + 1]; i++) {
+                            int item = grid.mOrder[i];
+                            core[item] = dense || grid.hasNeighbours(item, cell, mMinItems);
+                        }
+                    }
+                }
+            });
+        }
+
+        if (threads == 1) {
+            chunks.get(0).run();
+            return core;
+        }
+
+        // The calling thread runs the last chunk itself.
+        ThreadPoolExecutor executor = getExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>(threads - 1);
+        for (int t = 0; t < threads - 1; t++) {
+            futures.add(executor.submit(chunks.get(t)));
+        }
+        chunks.get(threads - 1).run();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return core;
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (mExecutor == null) {
+            int threads = mThreads - 1;
+            mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DensityBasedAlgorithm");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mExecutor;
+    }
+
+    /**
+     * Merges cells whose core items are neighbours.
+     *
+     * @return the root cell of each cell holding a core item, or -1 for other cells.
+     */
+    private static int[] joinCoreCells(Grid grid, boolean[] core) {
+        final int[] parent = new int[grid.mCellCount];
+        for (int cell = 0; cell < grid.mCellCount; cell++) {
+            parent[cell] = -1;
+            for (int i = grid.mCellStart[cell]; i < grid.mCellStart[cell + 1]; i++) {
+                if (core[grid.mOrder[i]]) {
+                    parent[cell] = cell;
+                    break;
+                }
+            }
+        }
+
+        for (int cell = 0; cell < grid.mCellCount; cell++) {
+            if (parent[cell] == -1) {
+                continue;
+            }
+            for (int n = grid.mNeighbourStart[cell]; n < grid.mNeighbourStart[cell + 1]; n++) {
+                int other = grid.mNeighbours[n];
+                // Each pair of cells only needs checking once.
+                if (other <= cell || parent[other] == -1) {
+                    continue;
+                }
+                int root = find(parent, cell);
+                int otherRoot = find(parent, other);
+                if (root != otherRoot && grid.hasCoreNeighbours(cell, other, core)) {
+                    parent[otherRoot] = root;
+                }
+            }
+        }
+
+        for (int cell = 0; cell < grid.mCellCount; cell++) {
+            if (parent[cell] != -1) {
+                parent[cell] = find(parent, cell);
+            }
+        }
+        return parent;
+    }
+
+    private static int find(int[] parent, int cell) {
+        while (parent[cell] != cell) {
+            // Path halving.
+            parent[cell] = parent[parent[cell]];
+            cell = parent[cell];
+        }
+        return cell;
+    }
+
+    private static <T extends ClusterItem> Set<Cluster<T>> buildClusters(
+            ItemStore<T> store, Grid grid, boolean[] core, int[] cellCluster) {
+        final Set<Cluster<T>> results = new HashSet<Cluster<T>>();
+        final int[] clusterOf = new int[grid.mSize];
+        final double[] sumX = new double[grid.mCellCount];
+        final double[] sumY = new double[grid.mCellCount];
+        final int[] count = new int[grid.mCellCount];
+
+        for (int cell = 0; cell < grid.mCellCount; cell++) {
+            for (int i = grid.mCellStart[cell]; i < grid.mCellStart[cell + 1]; i++) {
+                int item = grid.mOrder[i];
+                int root;
+                if (cellCluster[cell] != -1) {
+                    // Every item in a cell is a neighbour of the core items in that cell.
+                    root = cellCluster[cell];
+                } else {
+                    int neighbour = grid.findCoreNeighbour(item, cell, core);
+                    root = neighbour == -1 ? -1 : cellCluster[grid.mItemCell[neighbour]];
+                }
+                clusterOf[item] = root;
+                if (root != -1) {
+                    sumX[root] += grid.mX[item];
+                    sumY[root] += grid.mY[item];
+                    count[root]++;
+                }
+            }
+        }
+
+        final StaticCluster<T>[] clusters = newClusterArray(grid.mCellCount);
+        for (int item = 0; item < grid.mSize; item++) {
+            int root = clusterOf[item];
+            if (root == -1) {
+                // Noise.
+                StaticCluster<T> cluster = new StaticCluster<T>(store.get(item).getPosition());
+                cluster.add(store.get(item));
+                results.add(cluster);
+                continue;
+            }
+            if (clusters[root] == null) {
+                clusters[root] = new StaticCluster<T>(
+                        PROJECTION.toLatLng(new Point(sumX[root] / count[root], sumY[root] / count[root])));
+                results.add(clusters[root]);
+            }
+            clusters[root].add(store.get(item));
+        }
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends ClusterItem> StaticCluster<T>[] newClusterArray(int size) {
+        return new StaticCluster[size];
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        return mStore.getItems();
+    }
+
+    /**
+     * Items bucketed into cells radius / sqrt(2) wide. Cells are ordered row by row, and items are
+     * ordered by cell, so each cell's items are a contiguous range of mOrder. The occupied cells
+     * around each cell are found once, in a single sweep over the sorted cells, so neighbour
+     * queries need no lookups.
+     */
+    private static class Grid {
+        private final double[] mX;
+        private final double[] mY;
+        private final int mSize;
+        private final double mRadiusSquared;
+        private final int mCellCount;
+        private final int[] mCellStart;
+        private final int[] mOrder;
+        private final int[] mItemCell;
+
+        /**
+         * The occupied cells that may hold neighbours of the items in cell c, including c itself,
+         * are mNeighbours[mNeighbourStart[c]] to mNeighbours[mNeighbourStart[c + 1] - 1].
+         */
+        private final int[] mNeighbourStart;
+        private final int[] mNeighbours;
+
+        private Grid(double[] x, double[] y, int size, double radius) {
+            mX = x;
+            mY = y;
+            mSize = size;
+            mRadiusSquared = radius * radius;
+            double cellWidth = radius / Math.sqrt(2);
+            long numCells = (long) Math.ceil(1 / cellWidth);
+
+            // Key cells by row, then column.
+            long[] itemKeys = new long[size];
+            for (int i = 0; i < size; i++) {
+                itemKeys[i] = toCell(y[i] / cellWidth, numCells) * numCells + toCell(x[i] / cellWidth, numCells);
+            }
+            long[] cellKeys = Arrays.copyOf(itemKeys, size);
+            Arrays.sort(cellKeys);
+            int cellCount = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || cellKeys[i] != cellKeys[i - 1]) {
+                    cellKeys[cellCount++] = cellKeys[i];
+                }
+            }
+            mCellCount = cellCount;
+
+            LongIntMap cellIndex = new LongIntMap(cellCount);
+            for (int cell = 0; cell < cellCount; cell++) {
+                cellIndex.put(cellKeys[cell], cell);
+            }
+            mItemCell = new int[size];
+            mCellStart = new int[cellCount + 1];
+            for (int i = 0; i < size; i++) {
+                mItemCell[i] = cellIndex.get(itemKeys[i], -1);
+                mCellStart[mItemCell[i] + 1]++;
+            }
+            for (int cell = 0; cell < cellCount; cell++) {
+                mCellStart[cell + 1] += mCellStart[cell];
+            }
+            int[] next = Arrays.copyOf(mCellStart, cellCount);
+            mOrder = new int[size];
+            for (int i = 0; i < size; i++) {
+                mOrder[next[mItemCell[i]]++] = i;
+            }
+
+            // For each row offset, the first cell not before the current cell's window in that
+            // row. Windows only move forward as the cells are visited in order.
+            int[] first = new int[5];
+            int[] neighbours = new int[Math.max(16, cellCount * 2)];
+            int neighbourCount = 0;
+            mNeighbourStart = new int[cellCount + 1];
+            for (int cell = 0; cell < cellCount; cell++) {
+                long cellX = cellKeys[cell] % numCells;
+                long cellY = cellKeys[cell] / numCells;
+                for (int dy = -2; dy <= 2; dy++) {
+                    long row = cellY + dy;
+                    if (row < 0 || row >= numCells) {
+                        continue;
+                    }
+                    // The corners of the 5x5 block are too far away.
+                    int reach = Math.abs(dy) == 2 ? 1 : 2;
+                    long from = row * numCells + Math.max(0, cellX - reach);
+                    long to = row * numCells + Math.min(numCells - 1, cellX + reach);
+                    int other = first[dy + 2];
+                    while (other < cellCount && cellKeys[other] < from) {
+                        other++;
+                    }
+                    first[dy + 2] = other;
+                    for (; other < cellCount && cellKeys[other] <= to; other++) {
+                        if (neighbourCount == neighbours.length) {
+                            neighbours = Arrays.copyOf(neighbours, neighbourCount * 2);
+                        }
+                        neighbours[neighbourCount++] = other;
+                    }
+                }
+                mNeighbourStart[cell + 1] = neighbourCount;
+            }
+            mNeighbours = neighbours;
+        }
+
+        /**
+         * Clamps a coordinate to a cell. Latitudes near the poles project outside the world.
+         */
+        private static long toCell(double coordinate, long numCells) {
+            long cell = (long) Math.floor(coordinate);
+            return cell < 0 ? 0 : cell >= numCells ? numCells - 1 : cell;
+        }
+
+        private boolean isNeighbour(int a, int b) {
+            double dx = mX[a] - mX[b];
+            double dy = mY[a] - mY[b];
+            return dx * dx + dy * dy <= mRadiusSquared;
+        }
+
+        /**
+         * Whether item, in the given cell, has at least minCount neighbours, including itself.
+         */
+        private boolean hasNeighbours(int item, int cell, int minCount) {
+            int count = 0;
+            for (int n = mNeighbourStart[cell]; n < mNeighbourStart[cell + 1]; n++) {
+                int other = mNeighbours[n];
+                for (int i = mCellStart[other]; i < mCellStart[other + 1]; i++) {
+                    if (isNeighbour(item, mOrder[i]) && ++count >= minCount) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the number of items in the cell and the cells around it.
+         */
+        private int countNearbyItems(int cell) {
+            int count = 0;
+            for (int n = mNeighbourStart[cell]; n < mNeighbourStart[cell + 1]; n++) {
+                int other = mNeighbours[n];
+                count += mCellStart[other + 1] - mCellStart[other];
+            }
+            return count;
+        }
+
+        /**
+         * @return a core item that is a neighbour of item, in the given cell, or -1 if there are
+         * none.
+         */
+        private int findCoreNeighbour(int item, int cell, boolean[] core) {
+            for (int n = mNeighbourStart[cell]; n < mNeighbourStart[cell + 1]; n++) {
+                int other = mNeighbours[n];
+                for (int i = mCellStart[other]; i < mCellStart[other + 1]; i++) {
+                    int candidate = mOrder[i];
+                    if (core[candidate] && isNeighbour(item, candidate)) {
+                        return candidate;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Whether any core item of cell a is a neighbour of a core item of cell b.
+         */
+        private boolean hasCoreNeighbours(int a, int b, boolean[] core) {
+            for (int i = mCellStart[a]; i < mCellStart[a + 1]; i++) {
+                int item = mOrder[i];
+                if (!core[item]) {
+                    continue;
+                }
+                for (int j = mCellStart[b]; j < mCellStart[b + 1]; j++) {
+                    int other = mOrder[j];
+                    if (core[other] && isNeighbour(item, other)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
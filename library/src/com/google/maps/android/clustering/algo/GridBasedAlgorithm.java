@@ -1,12 +1,11 @@
 package com.google.maps.android.clustering.algo;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
-import android.support.v4.util.LongSparseArray;
-
 import com.google.maps.android.clustering.Cluster;
 import com.google.maps.android.clustering.ClusterItem;
 import com.google.maps.android.geometry.Point;
@@ -14,30 +13,44 @@ import com.google.maps.android.projection.SphericalMercatorProjection;
 
 /**
  * Groups markers into a grid.
+ * <p/>
+ * Each item is projected once, when it is added to the {@link ItemStore}. Clustering then only
+ * scales those coordinates to grid cells, buckets them by cell key in a primitive hash map, and
+ * emits the clusters in a single pass over the items.
  */
-public class GridBasedAlgorithm<T extends ClusterItem> implements Algorithm<T> {
+public class GridBasedAlgorithm<T extends ClusterItem> implements StoreBackedAlgorithm<T> {
     private static final int GRID_SIZE = 100;
 
-    private final Set<T> mItems = Collections.synchronizedSet(new HashSet<T>());
+    private ItemStore<T> mStore = new ItemStore<T>();
 
     @Override
     public void addItem(T item) {
-        mItems.add(item);
+        mStore.add(item);
     }
 
     @Override
     public void addItems(Collection<T> items) {
-        mItems.addAll(items);
+        mStore.addAll(items);
     }
 
     @Override
     public void clearItems() {
-        mItems.clear();
+        mStore.clear();
     }
 
     @Override
     public void removeItem(T item) {
-        mItems.remove(item);
+        mStore.remove(item);
+    }
+
+    @Override
+    public ItemStore<T> getItemStore() {
+        return mStore;
+    }
+
+    @Override
+    public void setItemStore(ItemStore<T> store) {
+        mStore = store;
     }
 
     @Override
@@ -45,34 +58,91 @@ public class GridBasedAlgorithm<T extends ClusterItem> implements Algorithm<T> {
         long numCells = (long) Math.ceil(256 * Math.pow(2, zoom) / GRID_SIZE);
         SphericalMercatorProjection proj = new SphericalMercatorProjection(numCells);
 
-        HashSet<Cluster<T>> clusters = new HashSet<Cluster<T>>();
-        LongSparseArray<StaticCluster<T>> sparseArray = new LongSparseArray<StaticCluster<T>>();
-
-        synchronized (mItems) {
-            for (T item : mItems) {
-                Point p = proj.toPoint(item.getPosition());
-
-                long coord = getCoord(numCells, p.x, p.y);
-
-                StaticCluster<T> cluster = sparseArray.get(coord);
-                if (cluster == null) {
-                    cluster = new StaticCluster<T>(proj.toLatLng(new Point(Math.floor(p.x) + .5, Math.floor(p.y) + .5)));
-                    sparseArray.put(coord, cluster);
-                    clusters.add(cluster);
+        List<StaticCluster<T>> clusters = new ArrayList<StaticCluster<T>>();
+
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            int size = store.size();
+            double[] x = store.getXArray();
+            double[] y = store.getYArray();
+            LongIntMap clusterIndex = new LongIntMap(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                long cellX = toCell(x[i] * numCells, numCells);
+                long cellY = toCell(y[i] * numCells, numCells);
+                long coord = getCoord(cellX, cellY);
+
+                int index = clusterIndex.get(coord, -1);
+                if (index == -1) {
+                    index = clusters.size();
+                    clusterIndex.put(coord, index);
+                    clusters.add(new StaticCluster<T>(proj.toLatLng(new Point(cellX + .5, cellY + .5))));
                 }
-                cluster.add(item);
+                clusters.get(index).add(store.get(i));
             }
         }
 
-        return clusters;
+        return new HashSet<Cluster<T>>(clusters);
     }
 
     @Override
     public Collection<T> getItems() {
-        return mItems;
+        return mStore.getItems();
+    }
+
+    /**
+     * Clamps a projected coordinate to a cell. Latitudes near the poles project outside the world.
+     */
+    private static long toCell(double coordinate, long numCells) {
+        long cell = (long) Math.floor(coordinate);
+        return cell < 0 ? 0 : cell >= numCells ? numCells - 1 : cell;
+    }
+
+    /**
+     * Interleaves the bits of the cell's x and y indices (a Morton, or Z-order, code), so cells
+     * close to each other have close keys, and a cell's key shifted right by two bits is the key
+     * of the cell containing it in a grid with half as many cells on each side.
+     */
+    static long getCoord(long cellX, long cellY) {
+        return spread(cellX) | (spread(cellY) << 1);
+    }
+
+    /**
+     * @return the x index of the cell with the given key.
+     */
+    static long getCellX(long coord) {
+        return compact(coord);
+    }
+
+    /**
+     * @return the y index of the cell with the given key.
+     */
+    static long getCellY(long coord) {
+        return compact(coord >>> 1);
+    }
+
+    /**
+     * Spreads the low 32 bits of value over the even bits of the result.
+     */
+    private static long spread(long value) {
+        value &= 0xffffffffL;
+        value = (value | (value << 16)) & 0x0000ffff0000ffffL;
+        value = (value | (value << 8)) & 0x00ff00ff00ff00ffL;
+        value = (value | (value << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        value = (value | (value << 2)) & 0x3333333333333333L;
+        value = (value | (value << 1)) & 0x5555555555555555L;
+        return value;
     }
 
-    private static long getCoord(long numCells, double x, double y) {
-        return (long) (numCells * Math.floor(x) + Math.floor(y));
+    /**
+     * Gathers the even bits of value into the low 32 bits of the result. Inverse of spread.
+     */
+    private static long compact(long value) {
+        value &= 0x5555555555555555L;
+        value = (value | (value >>> 1)) & 0x3333333333333333L;
+        value = (value | (value >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        value = (value | (value >>> 4)) & 0x00ff00ff00ff00ffL;
+        value = (value | (value >>> 8)) & 0x0000ffff0000ffffL;
+        value = (value | (value >>> 16)) & 0x00000000ffffffffL;
+        return value;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,467 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ExpandableCluster;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Groups markers into a grid, like {@link GridBasedAlgorithm}, but buckets each item only once.
+ * <p/>
+ * The grid at zoom z has 2^(z + 1) cells on each side, so cells are 128dp wide and every cell
+ * at zoom z + 1 lies in exactly one cell at zoom z. Item counts are kept for every cell of every
+ * zoom level, and updated incrementally as items are added or removed. Clustering at any zoom
+ * therefore costs O(occupied cells) rather than O(items). After adopting another algorithm's
+ * {@link ItemStore}, the counts are rebuilt once, on the next call to getClusters.
+ * <p/>
+ * The items of a cluster are looked up lazily, from a copy of the items sorted by cell. The copy
+ * is made the first time any cluster's items, bounds or expansion zoom are requested after items
+ * change, so getClusters itself stays O(occupied cells). If items change in between, clusters
+ * already returned report the items of their cell at that time. Clusters are
+ * {@link ExpandableCluster}s: their bounds, to the nearest cell at MAX_ZOOM, take O(log n) and
+ * their expansion zoom O(log n) to find.
+ */
+public class GridPyramidAlgorithm<T extends ClusterItem> implements StoreBackedAlgorithm<T> {
+    /**
+     * The finest zoom level that is bucketed. Higher zoom levels are clustered at this level.
+     */
+    private static final int MAX_ZOOM = 21;
+
+    private ItemStore<T> mStore = new ItemStore<T>();
+
+    /**
+     * The key of each item's cell at MAX_ZOOM, indexed like the items of mStore, and the version of
+     * mStore they match. Any access should be synchronized on mStore.
+     */
+    private long[] mCoords = new long[16];
+    private int mIndexedVersion;
+
+    /**
+     * Number of items in each occupied cell, for each zoom level.
+     */
+    private final LongIntMap[] mLevels = new LongIntMap[MAX_ZOOM + 1];
+
+    /**
+     * Items sorted by cell, or null if items have changed since it was made. Any access should be
+     * synchronized on mStore.
+     */
+    private SortedItems<T> mSortedItems;
+
+    public GridPyramidAlgorithm() {
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            mLevels[zoom] = new LongIntMap();
+        }
+    }
+
+    @Override
+    public void addItem(T item) {
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            addItemLocked(store, item);
+        }
+    }
+
+    @Override
+    public void addItems(Collection<T> items) {
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            for (T item : items) {
+                addItemLocked(store, item);
+            }
+        }
+    }
+
+    /**
+     * Adds an item to the store, and to the cell counts if they are up to date.
+     */
+    private void addItemLocked(ItemStore<T> store, T item) {
+        boolean indexed = mIndexedVersion == store.getVersion();
+        if (!store.add(item) || !indexed) {
+            return;
+        }
+        int index = store.size() - 1;
+        if (index == mCoords.length) {
+            mCoords = Arrays.copyOf(mCoords, index * 2);
+        }
+        long coord = getFinestCoord(store.getX(index), store.getY(index));
+        mCoords[index] = coord;
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            mLevels[zoom].increment(coord >>> (2 * (MAX_ZOOM - zoom)), 1);
+        }
+        mIndexedVersion = store.getVersion();
+        mSortedItems = null;
+    }
+
+    @Override
+    public void clearItems() {
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            store.clear();
+            for (LongIntMap level : mLevels) {
+                level.clear();
+            }
+            mIndexedVersion = store.getVersion();
+            mSortedItems = null;
+        }
+    }
+
+    @Override
+    public void removeItem(T item) {
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            boolean indexed = mIndexedVersion == store.getVersion();
+            int index = store.indexOf(item);
+            if (index == -1) {
+                return;
+            }
+            store.remove(item);
+            mSortedItems = null;
+            if (!indexed) {
+                return;
+            }
+            long coord = mCoords[index];
+            for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+                long cell = coord >>> (2 * (MAX_ZOOM - zoom));
+                if (mLevels[zoom].increment(cell, -1) == 0) {
+                    mLevels[zoom].remove(cell);
+                }
+            }
+            // The store moved its last item into the removed slot.
+            mCoords[index] = mCoords[store.size()];
+            mIndexedVersion = store.getVersion();
+        }
+    }
+
+    @Override
+    public ItemStore<T> getItemStore() {
+        return mStore;
+    }
+
+    @Override
+    public void setItemStore(ItemStore<T> store) {
+        synchronized (store) {
+            mStore = store;
+            // Force a rebuild of the cell counts on the next call to getClusters.
+            mIndexedVersion = store.getVersion() - 1;
+            mSortedItems = null;
+        }
+    }
+
+    /**
+     * Recounts every cell, if items changed without the counts being updated.
+     */
+    private void indexLocked(ItemStore<T> store) {
+        if (mIndexedVersion == store.getVersion()) {
+            return;
+        }
+        int size = store.size();
+        if (size > mCoords.length) {
+            mCoords = new long[size];
+        }
+        for (LongIntMap level : mLevels) {
+            level.clear();
+        }
+        double[] x = store.getXArray();
+        double[] y = store.getYArray();
+        for (int i = 0; i < size; i++) {
+            long coord = getFinestCoord(x[i], y[i]);
+            mCoords[i] = coord;
+            for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+                mLevels[zoom].increment(coord >>> (2 * (MAX_ZOOM - zoom)), 1);
+            }
+        }
+        mIndexedVersion = store.getVersion();
+        mSortedItems = null;
+    }
+
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        final int discreteZoom = Math.max(0, Math.min(MAX_ZOOM, (int) zoom));
+        final int shift = 2 * (MAX_ZOOM - discreteZoom);
+        final SphericalMercatorProjection proj = new SphericalMercatorProjection(1L << (discreteZoom + 1));
+
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            indexLocked(store);
+            LongIntMap level = mLevels[discreteZoom];
+            Set<Cluster<T>> clusters = new HashSet<Cluster<T>>(level.size() * 2);
+            for (int slot = 0; slot < level.capacity(); slot++) {
+                if (!level.isOccupied(slot)) {
+                    continue;
+                }
+                long coord = level.keyAt(slot);
+                LatLng center = proj.toLatLng(new Point(
+                        GridBasedAlgorithm.getCellX(coord) + .5, GridBasedAlgorithm.getCellY(coord) + .5));
+                clusters.add(new CellCluster<T>(center, level.valueAt(slot), this,
+                        coord << shift, (coord + 1) << shift));
+            }
+            return clusters;
+        }
+    }
+
+    /**
+     * @return the current items sorted by cell, copying them if they changed since last time.
+     */
+    private SortedItems<T> getSortedItems() {
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            indexLocked(store);
+            if (mSortedItems == null) {
+                mSortedItems = new SortedItems<T>(store.getItems(), mCoords, mLevels[MAX_ZOOM]);
+            }
+            return mSortedItems;
+        }
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        return mStore.getItems();
+    }
+
+    /**
+     * @return the key of the cell at MAX_ZOOM holding the given point, on a world of width 1.
+     */
+    private static long getFinestCoord(double x, double y) {
+        long numCells = 1L << (MAX_ZOOM + 1);
+        return GridBasedAlgorithm.getCoord(toCell(x * numCells, numCells), toCell(y * numCells, numCells));
+    }
+
+    /**
+     * Clamps a projected coordinate to a cell. Latitudes near the poles project outside the world.
+     */
+    private static long toCell(double coordinate, long numCells) {
+        long cell = (long) Math.floor(coordinate);
+        return cell < 0 ? 0 : cell >= numCells ? numCells - 1 : cell;
+    }
+
+    /**
+     * An immutable copy of the items, ordered by the key of their cell at MAX_ZOOM.
+     * <p/>
+     * Because cell keys are Morton codes, the finest cells inside any coarser cell form a
+     * contiguous range of keys, so a cluster's items are a contiguous range of this list.
+     * The copy is sorted on first use, with a counting sort over the occupied cells.
+     */
+    private static class SortedItems<T> {
+        private final Object[] mItems;
+        private final long[] mCoords;
+        private final long[] mCells;
+        private List<T> mSorted;
+        private int[] mOffsets;
+
+        /**
+         * Segment trees over the cells, holding the smallest and largest x and y index of the cells
+         * below each node. Built on first use.
+         */
+        private int[] mMinX;
+        private int[] mMaxX;
+        private int[] mMinY;
+        private int[] mMaxY;
+
+        private SortedItems(Collection<T> items, long[] coords, LongIntMap cells) {
+            mItems = items.toArray();
+            mCoords = Arrays.copyOf(coords, mItems.length);
+            mCells = new long[cells.size()];
+            int i = 0;
+            for (int slot = 0; slot < cells.capacity(); slot++) {
+                if (cells.isOccupied(slot)) {
+                    mCells[i++] = cells.keyAt(slot);
+                }
+            }
+            Arrays.sort(mCells);
+        }
+
+        private synchronized List<T> get(long fromCoord, long toCoord) {
+            if (mSorted == null) {
+                sort();
+            }
+            int from = mOffsets[lowerBound(fromCoord)];
+            int to = mOffsets[lowerBound(toCoord)];
+            return mSorted.subList(from, to);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void sort() {
+            LongIntMap cellIndex = new LongIntMap(mCells.length);
+            for (int i = 0; i < mCells.length; i++) {
+                cellIndex.put(mCells[i], i);
+            }
+            int[] cellCounts = new int[mCells.length];
+            for (long coord : mCoords) {
+                cellCounts[cellIndex.get(coord, -1)]++;
+            }
+            mOffsets = new int[mCells.length + 1];
+            for (int i = 0; i < mCells.length; i++) {
+                mOffsets[i + 1] = mOffsets[i] + cellCounts[i];
+            }
+            int[] next = Arrays.copyOf(mOffsets, mCells.length);
+            Object[] sorted = new Object[mItems.length];
+            for (int i = 0; i < mItems.length; i++) {
+                sorted[next[cellIndex.get(mCoords[i], -1)]++] = mItems[i];
+            }
+            mSorted = (List<T>) Arrays.asList(sorted);
+        }
+
+        /**
+         * @return the lowest zoom level at which the cells from fromCoord up to toCoord are in
+         * more than one cell, or MAX_ZOOM if there is only one.
+         */
+        private int getExpansionZoom(long fromCoord, long toCoord) {
+            int from = lowerBound(fromCoord);
+            int to = lowerBound(toCoord);
+            if (from == to) {
+                // The items were removed after the cluster was made.
+                return MAX_ZOOM;
+            }
+            long first = mCells[from];
+            long last = mCells[to - 1];
+            if (first == last) {
+                return MAX_ZOOM;
+            }
+            // The keys share their leading bit pairs while the cells share an ancestor.
+            int level = (63 - Long.numberOfLeadingZeros(first ^ last)) / 2;
+            return MAX_ZOOM - level;
+        }
+
+        /**
+         * @return the bounds of the cells from fromCoord up to toCoord.
+         */
+        private synchronized LatLngBounds getBounds(long fromCoord, long toCoord) {
+            if (mMinX == null) {
+                buildBoundsTrees();
+            }
+            int minX = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE;
+            int minY = Integer.MAX_VALUE;
+            int maxY = Integer.MIN_VALUE;
+            int from = lowerBound(fromCoord) + mCells.length;
+            int to = lowerBound(toCoord) + mCells.length;
+            if (from == to) {
+                // The items were removed after the cluster was made, so take the whole range.
+                minX = (int) GridBasedAlgorithm.getCellX(fromCoord);
+                maxX = (int) GridBasedAlgorithm.getCellX(toCoord - 1);
+                minY = (int) GridBasedAlgorithm.getCellY(fromCoord);
+                maxY = (int) GridBasedAlgorithm.getCellY(toCoord - 1);
+            }
+            while (from < to) {
+                if ((from & 1) == 1) {
+                    minX = Math.min(minX, mMinX[from]);
+                    maxX = Math.max(maxX, mMaxX[from]);
+                    minY = Math.min(minY, mMinY[from]);
+                    maxY = Math.max(maxY, mMaxY[from]);
+                    from++;
+                }
+                if ((to & 1) == 1) {
+                    to--;
+                    minX = Math.min(minX, mMinX[to]);
+                    maxX = Math.max(maxX, mMaxX[to]);
+                    minY = Math.min(minY, mMinY[to]);
+                    maxY = Math.max(maxY, mMaxY[to]);
+                }
+                from >>= 1;
+                to >>= 1;
+            }
+            // Cell indices grow to the east and to the south.
+            SphericalMercatorProjection proj = new SphericalMercatorProjection(1L << (MAX_ZOOM + 1));
+            return new LatLngBounds(
+                    proj.toLatLng(new Point(minX, maxY + 1)),
+                    proj.toLatLng(new Point(maxX + 1, minY)));
+        }
+
+        private void buildBoundsTrees() {
+            int count = mCells.length;
+            mMinX = new int[2 * count];
+            mMaxX = new int[2 * count];
+            mMinY = new int[2 * count];
+            mMaxY = new int[2 * count];
+            for (int i = 0; i < count; i++) {
+                mMinX[count + i] = mMaxX[count + i] = (int) GridBasedAlgorithm.getCellX(mCells[i]);
+                mMinY[count + i] = mMaxY[count + i] = (int) GridBasedAlgorithm.getCellY(mCells[i]);
+            }
+            for (int node = count - 1; node > 0; node--) {
+                mMinX[node] = Math.min(mMinX[2 * node], mMinX[2 * node + 1]);
+                mMaxX[node] = Math.max(mMaxX[2 * node], mMaxX[2 * node + 1]);
+                mMinY[node] = Math.min(mMinY[2 * node], mMinY[2 * node + 1]);
+                mMaxY[node] = Math.max(mMaxY[2 * node], mMaxY[2 * node + 1]);
+            }
+        }
+
+        /**
+         * @return the index of the first cell with a key not less than coord.
+         */
+        private int lowerBound(long coord) {
+            int index = Arrays.binarySearch(mCells, coord);
+            return index < 0 ? -index - 1 : index;
+        }
+    }
+
+    /**
+     * A cluster for a single grid cell. Its items are only gathered when requested, and its
+     * bounds and expansion zoom are looked up in the sorted cells, which are kept from the first
+     * request on.
+     */
+    private static class CellCluster<T extends ClusterItem> implements ExpandableCluster<T> {
+        private final LatLng mCenter;
+        private final int mSize;
+        private final GridPyramidAlgorithm<T> mAlgorithm;
+        private final long mFromCoord;
+        private final long mToCoord;
+        private SortedItems<T> mSortedItems;
+
+        private CellCluster(LatLng center, int size, GridPyramidAlgorithm<T> algorithm, long fromCoord, long toCoord) {
+            mCenter = center;
+            mSize = size;
+            mAlgorithm = algorithm;
+            mFromCoord = fromCoord;
+            mToCoord = toCoord;
+        }
+
+        private synchronized SortedItems<T> getSortedItems() {
+            if (mSortedItems == null) {
+                mSortedItems = mAlgorithm.getSortedItems();
+            }
+            return mSortedItems;
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mCenter;
+        }
+
+        @Override
+        public Collection<T> getItems() {
+            return getSortedItems().get(mFromCoord, mToCoord);
+        }
+
+        @Override
+        public int getSize() {
+            return mSize;
+        }
+
+        @Override
+        public LatLngBounds getBounds() {
+            return getSortedItems().getBounds(mFromCoord, mToCoord);
+        }
+
+        @Override
+        public int getExpansionZoom() {
+            return getSortedItems().getExpansionZoom(mFromCoord, mToCoord);
+        }
+
+        @Override
+        public String toString() {
+            return "CellCluster{" +
+                    "mCenter=" + mCenter +
+                    ", mSize=" + mSize +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Items of an algorithm, with their positions projected once onto a world of width 1.
+ * <p/>
+ * A store can be handed from one {@link StoreBackedAlgorithm} to another, so switching algorithms
+ * does not copy or re-project the items. Algorithms build any index of their own lazily, and use
+ * {@link #getVersion()} to find out whether the items changed since.
+ * <p/>
+ * Items are kept in an array, and removing an item moves the last item into its slot. Methods are
+ * synchronized on the store. Algorithms reading several items should hold that lock themselves.
+ */
+public class ItemStore<T extends ClusterItem> {
+    private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
+
+    private final List<T> mItems = new ArrayList<T>();
+    private final Map<T, Integer> mItemIndex = new HashMap<T, Integer>();
+    private double[] mX = new double[16];
+    private double[] mY = new double[16];
+    private int mVersion;
+
+    /**
+     * Adds an item, unless it is already in the store.
+     *
+     * @return true if the item was added.
+     */
+    public synchronized boolean add(T item) {
+        if (mItemIndex.containsKey(item)) {
+            return false;
+        }
+        Point p = PROJECTION.toPoint(item.getPosition());
+        int index = mItems.size();
+        ensureCapacity(index + 1);
+        mItems.add(item);
+        mItemIndex.put(item, index);
+        mX[index] = p.x;
+        mY[index] = p.y;
+        mVersion++;
+        return true;
+    }
+
+    public synchronized void addAll(Collection<T> items) {
+        ensureCapacity(mItems.size() + items.size());
+        for (T item : items) {
+            add(item);
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > mX.length) {
+            int capacity = Math.max(size, mX.length * 2);
+            mX = Arrays.copyOf(mX, capacity);
+            mY = Arrays.copyOf(mY, capacity);
+        }
+    }
+
+    /**
+     * Removes an item. The last item is moved into the removed item's slot.
+     *
+     * @return true if the item was in the store.
+     */
+    public synchronized boolean remove(T item) {
+        Integer index = mItemIndex.remove(item);
+        if (index == null) {
+            return false;
+        }
+        int last = mItems.size() - 1;
+        T lastItem = mItems.remove(last);
+        if (index != last) {
+            mItems.set(index, lastItem);
+            mItemIndex.put(lastItem, index);
+            mX[index] = mX[last];
+            mY[index] = mY[last];
+        }
+        mVersion++;
+        return true;
+    }
+
+    public synchronized void clear() {
+        mItems.clear();
+        mItemIndex.clear();
+        mVersion++;
+    }
+
+    public synchronized int size() {
+        return mItems.size();
+    }
+
+    public synchronized T get(int index) {
+        return mItems.get(index);
+    }
+
+    /**
+     * @return the index of the item, or -1 if it is not in the store.
+     */
+    public synchronized int indexOf(T item) {
+        Integer index = mItemIndex.get(item);
+        return index == null ? -1 : index;
+    }
+
+    public synchronized double getX(int index) {
+        return mX[index];
+    }
+
+    public synchronized double getY(int index) {
+        return mY[index];
+    }
+
+    /**
+     * A number that changes whenever items are added or removed.
+     */
+    public synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return a copy of the items.
+     */
+    public synchronized Collection<T> getItems() {
+        return new ArrayList<T>(mItems);
+    }
+
+    /**
+     * The projected x coordinates, indexed like the items. Only valid while holding the store's
+     * lock, and until the next change.
+     */
+    double[] getXArray() {
+        return mX;
+    }
+
+    /**
+     * The projected y coordinates, indexed like the items. Only valid while holding the store's
+     * lock, and until the next change.
+     */
+    double[] getYArray() {
+        return mY;
+    }
+}
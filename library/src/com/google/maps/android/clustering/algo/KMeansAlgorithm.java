@@ -0,0 +1,309 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Groups items into a given number of clusters with mini-batch k-means, so that clusters are
+ * balanced by position rather than split by a distance threshold.
+ * <p/>
+ * The number of clusters doubles with each zoom level, from minClusters at zoom 0 up to
+ * maxClusters. Pass the same value for both to get a fixed number of clusters at every zoom.
+ * <p/>
+ * High level algorithm:<br>
+ * 1. Seed the centers from the centers last computed for the nearest zoom level, if any. Missing
+ * centers are picked with k-means++ from a sample of the items.<br>
+ * 2. Refine the centers with a few mini-batches of randomly sampled items.<br>
+ * 3. Assign every item to its nearest center, and place each cluster at the mean of its items.
+ * <p/>
+ * Each assignment compares an item with every center, so maxClusters should stay in the hundreds.
+ * Sampling uses a fixed seed, so clusters are stable between calls as long as items do not change.
+ */
+public class KMeansAlgorithm<T extends ClusterItem> implements StoreBackedAlgorithm<T> {
+    public static final int DEFAULT_MIN_CLUSTERS = 4;
+    public static final int DEFAULT_MAX_CLUSTERS = 128;
+
+    private static final int MAX_ZOOM = 21;
+    private static final int BATCH_SIZE = 1024;
+    private static final int ITERATIONS = 10;
+    private static final long RANDOM_SEED = 42;
+
+    private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
+
+    private final int mMinClusters;
+    private final int mMaxClusters;
+
+    private ItemStore<T> mStore = new ItemStore<T>();
+
+    /**
+     * The centers last computed for each zoom level, and the version of mStore they match. Kept
+     * when items change, to seed the next computation. Any access should be synchronized on mStore.
+     */
+    private final Map<Integer, Centers> mCenters = new HashMap<Integer, Centers>();
+
+    public KMeansAlgorithm() {
+        this(DEFAULT_MIN_CLUSTERS, DEFAULT_MAX_CLUSTERS);
+    }
+
+    /**
+     * @param minClusters number of clusters at zoom level 0.
+     * @param maxClusters the most clusters at any zoom level.
+     */
+    public KMeansAlgorithm(int minClusters, int maxClusters) {
+        if (minClusters < 1 || maxClusters < minClusters) {
+            throw new IllegalArgumentException("Need 1 <= minClusters <= maxClusters");
+        }
+        mMinClusters = minClusters;
+        mMaxClusters = maxClusters;
+    }
+
+    @Override
+    public void addItem(T item) {
+        mStore.add(item);
+    }
+
+    @Override
+    public void addItems(Collection<T> items) {
+        mStore.addAll(items);
+    }
+
+    @Override
+    public void clearItems() {
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            store.clear();
+            mCenters.clear();
+        }
+    }
+
+    @Override
+    public void removeItem(T item) {
+        mStore.remove(item);
+    }
+
+    @Override
+    public ItemStore<T> getItemStore() {
+        return mStore;
+    }
+
+    @Override
+    public void setItemStore(ItemStore<T> store) {
+        synchronized (store) {
+            mStore = store;
+            mCenters.clear();
+        }
+    }
+
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        final int discreteZoom = Math.max(0, Math.min(MAX_ZOOM, (int) zoom));
+
+        final ItemStore<T> store = mStore;
+        synchronized (store) {
+            final int size = store.size();
+            final double[] x = store.getXArray();
+            final double[] y = store.getYArray();
+            final Set<Cluster<T>> results = new HashSet<Cluster<T>>();
+            if (size == 0) {
+                return results;
+            }
+            int k = (int) Math.min(size, Math.min(mMaxClusters, (long) mMinClusters << discreteZoom));
+
+            Centers centers = mCenters.get(discreteZoom);
+            if (centers == null || centers.mVersion != store.getVersion() || centers.mCount != k) {
+                Random random = new Random(RANDOM_SEED);
+                centers = seed(getNearestCenters(discreteZoom), k, x, y, size, random);
+                refine(centers, x, y, size, random);
+                centers.mVersion = store.getVersion();
+                mCenters.put(discreteZoom, centers);
+            }
+
+            // Assign every item, and place clusters at the mean of their items.
+            int[] assignment = new int[size];
+            double[] sumX = new double[k];
+            double[] sumY = new double[k];
+            int[] count = new int[k];
+            for (int i = 0; i < size; i++) {
+                int center = centers.nearest(x[i], y[i]);
+                assignment[i] = center;
+                sumX[center] += x[i];
+                sumY[center] += y[i];
+                count[center]++;
+            }
+            List<StaticCluster<T>> clusters = new ArrayList<StaticCluster<T>>(k);
+            for (int c = 0; c < k; c++) {
+                clusters.add(count[c] == 0 ? null : new StaticCluster<T>(
+                        PROJECTION.toLatLng(new Point(sumX[c] / count[c], sumY[c] / count[c]))));
+            }
+            for (int i = 0; i < size; i++) {
+                clusters.get(assignment[i]).add(store.get(i));
+            }
+            for (StaticCluster<T> cluster : clusters) {
+                if (cluster != null) {
+                    results.add(cluster);
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * @return the centers computed for the zoom level nearest to the given one, preferring coarser
+     * zoom levels, or null if there are none.
+     */
+    private Centers getNearestCenters(int zoom) {
+        for (int distance = 0; distance <= MAX_ZOOM; distance++) {
+            Centers centers = mCenters.get(zoom - distance);
+            if (centers == null) {
+                centers = mCenters.get(zoom + distance);
+            }
+            if (centers != null) {
+                return centers;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks k initial centers. Previous centers are kept, or, if there are too many, thinned out
+     * with k-means++. Any remaining centers are picked with k-means++ from a sample of the items.
+     */
+    private static Centers seed(Centers previous, int k, double[] x, double[] y, int size, Random random) {
+        Centers centers = new Centers(k);
+        if (previous != null) {
+            if (previous.mCount <= k) {
+                System.arraycopy(previous.mX, 0, centers.mX, 0, previous.mCount);
+                System.arraycopy(previous.mY, 0, centers.mY, 0, previous.mCount);
+                centers.mCount = previous.mCount;
+            } else {
+                pickCenters(centers, previous.mX, previous.mY, previous.mCount, k, random);
+                return centers;
+            }
+        }
+
+        int sampleSize = Math.min(size, Math.max(BATCH_SIZE, 4 * k));
+        double[] sampleX = new double[sampleSize];
+        double[] sampleY = new double[sampleSize];
+        for (int i = 0; i < sampleSize; i++) {
+            int item = sampleSize == size ? i : random.nextInt(size);
+            sampleX[i] = x[item];
+            sampleY[i] = y[item];
+        }
+        pickCenters(centers, sampleX, sampleY, sampleSize, k, random);
+        return centers;
+    }
+
+    /**
+     * Adds centers picked with k-means++ from the given points, until there are k. Each point is
+     * picked with probability proportional to its squared distance to the nearest center.
+     */
+    private static void pickCenters(Centers centers, double[] x, double[] y, int size, int k, Random random) {
+        if (centers.mCount >= k) {
+            return;
+        }
+        double[] distances = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            distances[i] = centers.mCount == 0 ? 1 : centers.distanceSquared(centers.nearest(x[i], y[i]), x[i], y[i]);
+            total += distances[i];
+        }
+        while (centers.mCount < k) {
+            int picked;
+            if (total <= 0) {
+                // All points coincide with a center; any point will do.
+                picked = random.nextInt(size);
+            } else {
+                double target = random.nextDouble() * total;
+                picked = 0;
+                while (picked < size - 1 && (target -= distances[picked]) >= 0) {
+                    picked++;
+                }
+            }
+            int center = centers.mCount++;
+            centers.mX[center] = x[picked];
+            centers.mY[center] = y[picked];
+
+            total = 0;
+            for (int i = 0; i < size; i++) {
+                distances[i] = Math.min(distances[i], centers.distanceSquared(center, x[i], y[i]));
+                total += distances[i];
+            }
+        }
+    }
+
+    /**
+     * Moves the centers towards the mean of their items with mini-batches of sampled items. Each
+     * center moves by a step that shrinks with the number of items it has been assigned.
+     */
+    private static void refine(Centers centers, double[] x, double[] y, int size, Random random) {
+        int batchSize = Math.min(size, BATCH_SIZE);
+        int[] batch = new int[batchSize];
+        int[] assignment = new int[batchSize];
+        int[] counts = new int[centers.mCount];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = random.nextInt(size);
+                assignment[i] = centers.nearest(x[batch[i]], y[batch[i]]);
+            }
+            for (int i = 0; i < batchSize; i++) {
+                int center = assignment[i];
+                double rate = 1.0 / ++counts[center];
+                centers.mX[center] += (x[batch[i]] - centers.mX[center]) * rate;
+                centers.mY[center] += (y[batch[i]] - centers.mY[center]) * rate;
+            }
+        }
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        return mStore.getItems();
+    }
+
+    /**
+     * Cluster centers, on a world of width 1.
+     */
+    private static class Centers {
+        private final double[] mX;
+        private final double[] mY;
+        private int mCount;
+        private int mVersion;
+
+        private Centers(int capacity) {
+            mX = new double[capacity];
+            mY = new double[capacity];
+        }
+
+        private double distanceSquared(int center, double x, double y) {
+            double dx = mX[center] - x;
+            double dy = mY[center] - y;
+            return dx * dx + dy * dy;
+        }
+
+        /**
+         * @return the index of the center nearest to the given point.
+         */
+        private int nearest(double x, double y) {
+            int nearest = 0;
+            double minDistance = Double.MAX_VALUE;
+            for (int center = 0; center < mCount; center++) {
+                double distance = distanceSquared(center, x, y);
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    nearest = center;
+                }
+            }
+            return nearest;
+        }
+    }
+}
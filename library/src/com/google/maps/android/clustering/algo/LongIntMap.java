@@ -0,0 +1,166 @@
+package com.google.maps.android.clustering.algo;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to int values, using open addressing with linear probing.
+ * Entries need no allocation and keys are never boxed, which matters in loops over every item.
+ * <p/>
+ * Keys must not be negative. This class is not thread safe.
+ */
+class LongIntMap {
+    private static final long EMPTY = -1;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private int mSize;
+    private int mMask;
+
+    LongIntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of entries that can be added without a resize.
+     */
+    LongIntMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)));
+        return capacity < expectedSize / LOAD_FACTOR ? capacity << 1 : capacity;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, EMPTY);
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        mSize = 0;
+    }
+
+    /**
+     * Spreads the key's bits, so that keys differing only in their high bits do not collide.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * @return the slot holding key, or the empty slot where it would be inserted.
+     */
+    private int slotOf(long key) {
+        int slot = hash(key) & mMask;
+        while (mKeys[slot] != EMPTY && mKeys[slot] != key) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the value for key, or missingValue if there is none.
+     */
+    int get(long key, int missingValue) {
+        int slot = slotOf(key);
+        return mKeys[slot] == EMPTY ? missingValue : mValues[slot];
+    }
+
+    void put(long key, int value) {
+        int slot = slotOf(key);
+        if (mKeys[slot] == EMPTY) {
+            if (mSize + 1 > mKeys.length * LOAD_FACTOR) {
+                grow();
+                slot = slotOf(key);
+            }
+            mKeys[slot] = key;
+            mSize++;
+        }
+        mValues[slot] = value;
+    }
+
+    /**
+     * Adds delta to the value for key, treating a missing key as 0.
+     *
+     * @return the new value.
+     */
+    int increment(long key, int delta) {
+        int slot = slotOf(key);
+        if (mKeys[slot] == EMPTY) {
+            put(key, delta);
+            return delta;
+        }
+        return mValues[slot] += delta;
+    }
+
+    /**
+     * Removes key, if present. Later entries of the probe sequence are shifted back, so no
+     * tombstones are left behind.
+     */
+    void remove(long key) {
+        int hole = slotOf(key);
+        if (mKeys[hole] == EMPTY) {
+            return;
+        }
+        int slot = (hole + 1) & mMask;
+        while (mKeys[slot] != EMPTY) {
+            int ideal = hash(mKeys[slot]) & mMask;
+            // The entry may fill the hole if the hole lies on its probe sequence.
+            if (((slot - ideal) & mMask) >= ((slot - hole) & mMask)) {
+                mKeys[hole] = mKeys[slot];
+                mValues[hole] = mValues[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mKeys[hole] = EMPTY;
+        mSize--;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+    }
+
+    /**
+     * The number of slots, for iterating with {@link #isOccupied(int)}, {@link #keyAt(int)} and
+     * {@link #valueAt(int)}.
+     */
+    int capacity() {
+        return mKeys.length;
+    }
+
+    boolean isOccupied(int slot) {
+        return mKeys[slot] != EMPTY;
+    }
+
+    long keyAt(int slot) {
+        return mKeys[slot];
+    }
+
+    int valueAt(int slot) {
+        return mValues[slot];
+    }
+
+    private void grow() {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        allocate(keys.length << 1);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                int slot = slotOf(keys[i]);
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+                mSize++;
+            }
+        }
+    }
+}
@@ -14,7 +14,6 @@ import com.google.maps.android.clustering.Cluster;
 import com.google.maps.android.clustering.ClusterItem;
 import com.google.maps.android.geometry.Bounds;
 import com.google.maps.android.geometry.Point;
-import com.google.maps.android.projection.SphericalMercatorProjection;
 import com.google.maps.android.quadtree.PointQuadTree;
 
 /**
@@ -22,7 +21,7 @@ import com.google.maps.android.quadtree.PointQuadTree;
  * hierarchical.
  * <p/>
  * High level algorithm:<br>
- * 1. Iterate over items in the order they were added (candidate clusters).<br>
+ * 1. Iterate over items in the order of the {@link ItemStore} (candidate clusters).<br>
  * 2. Create a cluster with the center of the item. <br>
  * 3. Add all items that are within a certain distance to the cluster. <br>
  * 4. Move any items out of an existing cluster if they are closer to another cluster. <br>
@@ -30,49 +29,121 @@ import com.google.maps.android.quadtree.PointQuadTree;
  * <p/>
  * Clusters have the center of the first element (not the centroid of the items within it).
  */
-public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implements Algorithm<T> {
+public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implements StoreBackedAlgorithm<T> {
     public static final int MAX_DISTANCE_AT_ZOOM = 100; // essentially 100 dp.
 
+    private ItemStore<T> mStore = new ItemStore<T>();
+
     /**
-     * Any modifications should be synchronized on mQuadTree.
+     * Quad items, indexed like the items of mStore, and the version of mStore they match. Any
+     * access should be synchronized on mStore.
      */
-    private final Collection<QuadItem<T>> mItems = new ArrayList<QuadItem<T>>();
+    private final List<QuadItem<T>> mItems = new ArrayList<QuadItem<T>>();
+    private int mIndexedVersion;
 
     /**
-     * Any modifications should be synchronized on mQuadTree.
+     * Any access should be synchronized on mStore.
      */
     private final PointQuadTree<QuadItem<T>> mQuadTree = new PointQuadTree<QuadItem<T>>(0, 1, 0, 1);
 
-    private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
-
     @Override
     public void addItem(T item) {
-        final QuadItem<T> quadItem = new QuadItem<T>(item);
-        synchronized (mQuadTree) {
-            mItems.add(quadItem);
-            mQuadTree.add(quadItem);
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            addItemLocked(store, item);
         }
     }
 
     @Override
     public void addItems(Collection<T> items) {
-        for (T item : items) {
-            addItem(item);
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            for (T item : items) {
+                addItemLocked(store, item);
+            }
+        }
+    }
+
+    /**
+     * Adds an item to the store, and to the quad tree if it is up to date.
+     */
+    private void addItemLocked(ItemStore<T> store, T item) {
+        boolean indexed = mIndexedVersion == store.getVersion();
+        if (!store.add(item) || !indexed) {
+            return;
         }
+        int index = store.size() - 1;
+        QuadItem<T> quadItem = new QuadItem<T>(item, new Point(store.getX(index), store.getY(index)));
+        mItems.add(quadItem);
+        mQuadTree.add(quadItem);
+        mIndexedVersion = store.getVersion();
     }
 
     @Override
     public void clearItems() {
-        synchronized (mQuadTree) {
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            store.clear();
             mItems.clear();
             mQuadTree.clear();
+            mIndexedVersion = store.getVersion();
         }
     }
 
     @Override
     public void removeItem(T item) {
-        // TODO: delegate QuadItem#hashCode and QuadItem#equals to its item.
-        throw new UnsupportedOperationException("NonHierarchicalDistanceBasedAlgorithm.remove not implemented");
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            boolean indexed = mIndexedVersion == store.getVersion();
+            int index = store.indexOf(item);
+            if (index == -1) {
+                return;
+            }
+            store.remove(item);
+            if (!indexed) {
+                return;
+            }
+            mQuadTree.remove(mItems.get(index));
+            // The store moved its last item into the removed slot.
+            QuadItem<T> last = mItems.remove(mItems.size() - 1);
+            if (index < mItems.size()) {
+                mItems.set(index, last);
+            }
+            mIndexedVersion = store.getVersion();
+        }
+    }
+
+    @Override
+    public ItemStore<T> getItemStore() {
+        return mStore;
+    }
+
+    @Override
+    public void setItemStore(ItemStore<T> store) {
+        synchronized (store) {
+            mStore = store;
+            // Force a rebuild of the quad tree on the next call to getClusters.
+            mIndexedVersion = store.getVersion() - 1;
+        }
+    }
+
+    /**
+     * Rebuilds the quad tree, if items changed without it being updated.
+     */
+    private void indexLocked(ItemStore<T> store) {
+        if (mIndexedVersion == store.getVersion()) {
+            return;
+        }
+        mItems.clear();
+        mQuadTree.clear();
+        double[] x = store.getXArray();
+        double[] y = store.getYArray();
+        for (int i = 0; i < store.size(); i++) {
+            QuadItem<T> quadItem = new QuadItem<T>(store.get(i), new Point(x[i], y[i]));
+            mItems.add(quadItem);
+            mQuadTree.add(quadItem);
+        }
+        mIndexedVersion = store.getVersion();
     }
 
     @Override
@@ -86,7 +157,9 @@ public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implem
         final Map<QuadItem<T>, Double> distanceToCluster = new HashMap<QuadItem<T>, Double>();
         final Map<QuadItem<T>, StaticCluster<T>> itemToCluster = new HashMap<QuadItem<T>, StaticCluster<T>>();
 
-        synchronized (mQuadTree) {
+        ItemStore<T> store = mStore;
+        synchronized (store) {
+            indexLocked(store);
             for (QuadItem<T> candidate : mItems) {
                 if (visitedCandidates.contains(candidate)) {
                     // Candidate is already part of another cluster.
@@ -129,13 +202,7 @@ public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implem
 
     @Override
     public Collection<T> getItems() {
-        final List<T> items = new ArrayList<T>();
-        synchronized (mQuadTree) {
-            for (QuadItem<T> quadItem : mItems) {
-                items.add(quadItem.mClusterItem);
-            }
-        }
-        return items;
+        return mStore.getItems();
     }
 
     private double distanceSquared(Point a, Point b) {
@@ -157,10 +224,10 @@ public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implem
         private final LatLng mPosition;
         private Set<T> singletonSet;
 
-        private QuadItem(T item) {
+        private QuadItem(T item, Point point) {
             mClusterItem = item;
             mPosition = item.getPosition();
-            mPoint = PROJECTION.toPoint(mPosition);
+            mPoint = point;
             singletonSet = Collections.singleton(mClusterItem);
         }
 
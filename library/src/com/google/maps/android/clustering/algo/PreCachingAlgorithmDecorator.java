@@ -24,6 +24,13 @@ public class PreCachingAlgorithmDecorator<T extends ClusterItem> implements Algo
         mAlgorithm = algorithm;
     }
 
+    /**
+     * @return the decorated algorithm.
+     */
+    public Algorithm<T> getAlgorithm() {
+        return mAlgorithm;
+    }
+
     public void addItem(T item) {
         mAlgorithm.addItem(item);
         clearCache();
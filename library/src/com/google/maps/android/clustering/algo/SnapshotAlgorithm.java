@@ -0,0 +1,236 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ExpandableCluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Serves clusters precomputed by {@link ClusterSnapshotWriter}, for a fixed list of items.
+ * <p/>
+ * Nothing is computed or copied when loading: clusters are read straight from the buffer, which
+ * may be memory-mapped from a file with {@link java.nio.channels.FileChannel#map}, and a
+ * cluster's items are only looked up when requested. Zoom levels outside the snapshot's range are
+ * clustered like the nearest level inside it. Clusters are {@link ExpandableCluster}s, with
+ * stored bounds, and an expansion zoom found with a binary search per zoom level.
+ * <p/>
+ * The items cannot be changed, so the add and remove methods throw
+ * UnsupportedOperationException, and clearItems does nothing. A ClusterManager that already has
+ * items refuses to switch to this algorithm, as it cannot hand them over.
+ */
+public class SnapshotAlgorithm<T extends ClusterItem> implements Algorithm<T> {
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int CLUSTER_SIZE = ClusterSnapshotWriter.CLUSTER_INTS * 4;
+
+    private final List<T> mItems;
+    private final ByteBuffer mBuffer;
+    private final int mMinZoom;
+    private final int mMaxZoom;
+
+    /**
+     * Offset of the cluster count of each zoom level, from mMinZoom.
+     */
+    private final int[] mLevelOffsets;
+
+    /**
+     * @param items  the items, in the order the snapshot was written with.
+     * @param buffer the snapshot. Only absolute reads are made, so the buffer's position is left
+     *               untouched.
+     */
+    public SnapshotAlgorithm(List<T> items, ByteBuffer buffer) {
+        if (buffer.getInt(0) != ClusterSnapshotWriter.MAGIC) {
+            throw new IllegalArgumentException("Not a cluster snapshot");
+        }
+        if (buffer.getInt(4) != ClusterSnapshotWriter.FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + buffer.getInt(4));
+        }
+        if (buffer.getInt(8) != items.size()) {
+            throw new IllegalArgumentException(
+                    "Snapshot has " + buffer.getInt(8) + " items, but " + items.size() + " were given");
+        }
+        mItems = items;
+        mBuffer = buffer;
+        mMinZoom = buffer.getInt(12);
+        mMaxZoom = buffer.getInt(16);
+
+        mLevelOffsets = new int[mMaxZoom - mMinZoom + 1];
+        int offset = HEADER_SIZE + 4 * items.size();
+        for (int zoom = mMinZoom; zoom <= mMaxZoom; zoom++) {
+            mLevelOffsets[zoom - mMinZoom] = offset;
+            offset += 4 + CLUSTER_SIZE * buffer.getInt(offset);
+        }
+    }
+
+    /**
+     * Reads a snapshot from a stream, for snapshots that cannot be memory-mapped, such as assets.
+     */
+    public static <T extends ClusterItem> SnapshotAlgorithm<T> read(List<T> items, InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            out.write(chunk, 0, read);
+        }
+        return new SnapshotAlgorithm<T>(items, ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Override
+    public void addItem(T item) {
+        throw new UnsupportedOperationException("SnapshotAlgorithm items cannot be changed");
+    }
+
+    @Override
+    public void addItems(Collection<T> items) {
+        throw new UnsupportedOperationException("SnapshotAlgorithm items cannot be changed");
+    }
+
+    /**
+     * Does nothing, as the items belong to the snapshot.
+     */
+    @Override
+    public void clearItems() {
+    }
+
+    @Override
+    public void removeItem(T item) {
+        throw new UnsupportedOperationException("SnapshotAlgorithm items cannot be changed");
+    }
+
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        int discreteZoom = Math.max(mMinZoom, Math.min(mMaxZoom, (int) zoom));
+        int offset = mLevelOffsets[discreteZoom - mMinZoom];
+        int count = mBuffer.getInt(offset);
+        offset += 4;
+
+        Set<Cluster<T>> clusters = new HashSet<Cluster<T>>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int record = offset + i * CLUSTER_SIZE;
+            LatLng position = new LatLng(
+                    mBuffer.getInt(record) / ClusterSnapshotWriter.E7,
+                    mBuffer.getInt(record + 4) / ClusterSnapshotWriter.E7);
+            int start = mBuffer.getInt(record + 8);
+            int end = i + 1 < count ? mBuffer.getInt(record + CLUSTER_SIZE + 8) : mItems.size();
+            clusters.add(new SnapshotCluster(position, discreteZoom, record, start, end));
+        }
+        return clusters;
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        return new ArrayList<T>(mItems);
+    }
+
+    /**
+     * @return the lowest zoom level above the given one at which the items from start up to end
+     * are split between more than one cluster, or mMaxZoom if they never are.
+     */
+    private int getExpansionZoom(int zoom, int start, int end) {
+        for (int next = zoom + 1; next <= mMaxZoom; next++) {
+            // Binary search for the first cluster starting after start.
+            int offset = mLevelOffsets[next - mMinZoom];
+            int low = 0;
+            int high = mBuffer.getInt(offset);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mBuffer.getInt(offset + 4 + mid * CLUSTER_SIZE + 8) <= start) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low < mBuffer.getInt(offset) && mBuffer.getInt(offset + 4 + low * CLUSTER_SIZE + 8) < end) {
+                return next;
+            }
+        }
+        return mMaxZoom;
+    }
+
+    /**
+     * @return the item at the given index of the snapshot's item order.
+     */
+    private T getOrderedItem(int index) {
+        return mItems.get(mBuffer.getInt(HEADER_SIZE + 4 * index));
+    }
+
+    /**
+     * A cluster of the items in a range of the snapshot's item order.
+     */
+    private class SnapshotCluster implements ExpandableCluster<T> {
+        private final LatLng mPosition;
+        private final int mZoom;
+        private final int mRecord;
+        private final int mStart;
+        private final int mEnd;
+
+        private SnapshotCluster(LatLng position, int zoom, int record, int start, int end) {
+            mPosition = position;
+            mZoom = zoom;
+            mRecord = record;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public Collection<T> getItems() {
+            return new AbstractList<T>() {
+                @Override
+                public T get(int index) {
+                    if (index < 0 || index >= size()) {
+                        throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+                    }
+                    return getOrderedItem(mStart + index);
+                }
+
+                @Override
+                public int size() {
+                    return mEnd - mStart;
+                }
+            };
+        }
+
+        @Override
+        public int getSize() {
+            return mEnd - mStart;
+        }
+
+        @Override
+        public LatLngBounds getBounds() {
+            return new LatLngBounds(
+                    new LatLng(mBuffer.getInt(mRecord + 12) / ClusterSnapshotWriter.E7,
+                            mBuffer.getInt(mRecord + 16) / ClusterSnapshotWriter.E7),
+                    new LatLng(mBuffer.getInt(mRecord + 20) / ClusterSnapshotWriter.E7,
+                            mBuffer.getInt(mRecord + 24) / ClusterSnapshotWriter.E7));
+        }
+
+        @Override
+        public int getExpansionZoom() {
+            return SnapshotAlgorithm.this.getExpansionZoom(mZoom, mStart, mEnd);
+        }
+
+        @Override
+        public String toString() {
+            return "SnapshotCluster{" +
+                    "mPosition=" + mPosition +
+                    ", mSize=" + getSize() +
+                    '}';
+        }
+    }
+}
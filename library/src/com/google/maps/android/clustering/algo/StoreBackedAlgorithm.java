@@ -0,0 +1,17 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.maps.android.clustering.ClusterItem;
+
+/**
+ * An algorithm that keeps its items in an {@link ItemStore}, which can be handed to another
+ * algorithm instead of copying the items.
+ */
+public interface StoreBackedAlgorithm<T extends ClusterItem> extends Algorithm<T> {
+    ItemStore<T> getItemStore();
+
+    /**
+     * Replaces this algorithm's items with the items of the given store. The store is shared, not
+     * copied, and any index over it is built on the next call to getClusters.
+     */
+    void setItemStore(ItemStore<T> store);
+}
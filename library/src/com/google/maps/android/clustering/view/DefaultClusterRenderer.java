@@ -22,7 +22,6 @@ import android.view.ViewGroup;
 import android.view.animation.DecelerateInterpolator;
 
 import com.google.android.gms.maps.GoogleMap;
-import com.google.android.gms.maps.Projection;
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
@@ -34,6 +33,7 @@ import com.google.maps.android.R;
 import com.google.maps.android.clustering.Cluster;
 import com.google.maps.android.clustering.ClusterItem;
 import com.google.maps.android.clustering.ClusterManager;
+import com.google.maps.android.clustering.ViewportSnapshot;
 import com.google.maps.android.geometry.Point;
 import com.google.maps.android.projection.SphericalMercatorProjection;
 import com.google.maps.android.ui.SquareTextView;
@@ -41,8 +41,8 @@ import com.google.maps.android.ui.IconGenerator;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -57,7 +57,7 @@ import static com.google.maps.android.clustering.algo.NonHierarchicalDistanceBas
 /**
  * The default view for a ClusterManager. Markers are animated in and out of clusters.
  */
-public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRenderer<T> {
+public class DefaultClusterRenderer<T extends ClusterItem> implements ViewportClusterRenderer<T> {
     private static final boolean SHOULD_ANIMATE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
     private final GoogleMap mMap;
     private final IconGenerator mIconGenerator;
@@ -79,25 +79,27 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
     private SparseArray<BitmapDescriptor> mIcons = new SparseArray<BitmapDescriptor>();
 
     /**
-     * Markers for single ClusterItems.
+     * Markers for single ClusterItems and for Clusters, indexed in both directions.
      */
-    private MarkerCache<T> mMarkerCache = new MarkerCache<T>();
+    private final MarkerCache<T> mMarkerCache = new MarkerCache<T>();
 
     /**
      * If cluster size is less than this size, display individual markers.
      */
     private static final int MIN_CLUSTER_SIZE = 4;
 
+    private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
+
     /**
      * The currently displayed set of clusters.
      */
     private Set<? extends Cluster<T>> mClusters;
 
     /**
-     * Lookup between markers and the associated cluster.
+     * Positions of the currently displayed clusters on a world of width 1, for those that have
+     * been projected. Reused as animation origins by the next render.
      */
-    private Map<Marker, Cluster<T>> mMarkerToCluster = new HashMap<Marker, Cluster<T>>();
-    private Map<Cluster<T>, Marker> mClusterToMarker = new HashMap<Cluster<T>, Marker>();
+    private Map<Cluster<T>, Point> mClusterPoints = new HashMap<Cluster<T>, Point>();
 
     /**
      * The target zoom level for the current set of clusters.
@@ -126,7 +128,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         mClusterManager.getMarkerCollection().setOnMarkerClickListener(new GoogleMap.OnMarkerClickListener() {
             @Override
             public boolean onMarkerClick(Marker marker) {
-                return mItemClickListener != null && mItemClickListener.onClusterItemClick(mMarkerCache.get(marker));
+                return mItemClickListener != null && mItemClickListener.onClusterItemClick(mMarkerCache.getClusterItem(marker));
             }
         });
 
@@ -134,7 +136,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
             @Override
             public void onInfoWindowClick(Marker marker) {
                 if (mItemInfoWindowClickListener != null) {
-                    mItemInfoWindowClickListener.onClusterItemInfoWindowClick(mMarkerCache.get(marker));
+                    mItemInfoWindowClickListener.onClusterItemInfoWindowClick(mMarkerCache.getClusterItem(marker));
                 }
             }
         });
@@ -142,7 +144,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         mClusterManager.getClusterMarkerCollection().setOnMarkerClickListener(new GoogleMap.OnMarkerClickListener() {
             @Override
             public boolean onMarkerClick(Marker marker) {
-                return mClickListener != null && mClickListener.onClusterClick(mMarkerToCluster.get(marker));
+                return mClickListener != null && mClickListener.onClusterClick(mMarkerCache.getCluster(marker));
             }
         });
 
@@ -150,7 +152,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
             @Override
             public void onInfoWindowClick(Marker marker) {
                 if (mInfoWindowClickListener != null) {
-                    mInfoWindowClickListener.onClusterInfoWindowClick(mMarkerToCluster.get(marker));
+                    mInfoWindowClickListener.onClusterInfoWindowClick(mMarkerCache.getCluster(marker));
                 }
             }
         });
@@ -262,15 +264,16 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                     sendEmptyMessage(TASK_FINISHED);
                 }
             });
-            renderTask.setProjection(mMap.getProjection());
-            renderTask.setMapZoom(mMap.getCameraPosition().zoom);
+            // The map may have moved since the clusters were computed, so animate and remove
+            // markers against the bounds visible now.
+            renderTask.setVisibleBounds(mMap.getProjection().getVisibleRegion().latLngBounds);
             new Thread(renderTask).start();
         }
 
-        public void queue(Set<? extends Cluster<T>> clusters) {
+        public void queue(Set<? extends Cluster<T>> clusters, ViewportSnapshot viewport) {
             synchronized (this) {
                 // Overwrite any pending cluster tasks - we don't care about intermediate states.
-                mNextClusters = new RenderTask(clusters);
+                mNextClusters = new RenderTask(clusters, viewport);
             }
             sendEmptyMessage(RUN_TASK);
         }
@@ -303,13 +306,21 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
      */
     private class RenderTask implements Runnable {
         final Set<? extends Cluster<T>> clusters;
+        private final ViewportSnapshot mViewport;
+        private LatLngBounds mVisibleBounds;
         private Runnable mCallback;
-        private Projection mProjection;
-        private SphericalMercatorProjection mSphericalMercatorProjection;
-        private float mMapZoom;
 
-        private RenderTask(Set<? extends Cluster<T>> clusters) {
+        private RenderTask(Set<? extends Cluster<T>> clusters, ViewportSnapshot viewport) {
             this.clusters = clusters;
+            this.mViewport = viewport;
+            this.mVisibleBounds = viewport.getVisibleBounds();
+        }
+
+        /**
+         * Replaces the snapshot's visible bounds with those read when the render starts.
+         */
+        public void setVisibleBounds(LatLngBounds visibleBounds) {
+            mVisibleBounds = visibleBounds;
         }
 
         /**
@@ -321,15 +332,6 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
             mCallback = callback;
         }
 
-        public void setProjection(Projection projection) {
-            this.mProjection = projection;
-        }
-
-        public void setMapZoom(float zoom) {
-            this.mMapZoom = zoom;
-            this.mSphericalMercatorProjection = new SphericalMercatorProjection(256 * Math.pow(2, Math.min(zoom, mZoom)));
-        }
-
         @SuppressLint("NewApi")
         public void run() {
             if (clusters.equals(DefaultClusterRenderer.this.mClusters)) {
@@ -339,12 +341,16 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
 
             final MarkerModifier markerModifier = new MarkerModifier();
 
-            final float zoom = mMapZoom;
+            final float zoom = mViewport.getZoom();
             final boolean zoomingIn = zoom > mZoom;
             final float zoomDelta = zoom - mZoom;
+            // Points are compared on a world of width 1, so scale the distance instead.
+            final double maxDistance = MAX_DISTANCE_AT_ZOOM / (256 * Math.pow(2, Math.min(zoom, mZoom)));
+            final Map<Cluster<T>, Point> previousClusterPoints = mClusterPoints;
+            final Map<Cluster<T>, Point> clusterPoints = new HashMap<Cluster<T>, Point>();
 
             final Set<MarkerWithPosition> markersToRemove = mMarkers;
-            final LatLngBounds visibleBounds = mProjection.getVisibleRegion().latLngBounds;
+            final LatLngBounds visibleBounds = mVisibleBounds;
             // TODO: Add some padding, so that markers can animate in from off-screen.
 
             // Find all of the existing clusters that are on-screen. These are candidates for
@@ -354,8 +360,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                 existingClustersOnScreen = new ArrayList<Point>();
                 for (Cluster<T> c : DefaultClusterRenderer.this.mClusters) {
                     if (shouldRenderAsCluster(c) && visibleBounds.contains(c.getPosition())) {
-                        Point point = mSphericalMercatorProjection.toPoint(c.getPosition());
-                        existingClustersOnScreen.add(point);
+                        existingClustersOnScreen.add(getPoint(previousClusterPoints, c));
                     }
                 }
             }
@@ -366,10 +371,10 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
             for (Cluster<T> c : clusters) {
                 boolean onScreen = visibleBounds.contains(c.getPosition());
                 if (zoomingIn && onScreen && SHOULD_ANIMATE) {
-                    Point point = mSphericalMercatorProjection.toPoint(c.getPosition());
-                    Point closest = findClosestCluster(existingClustersOnScreen, point);
+                    Point point = getPoint(clusterPoints, c);
+                    Point closest = findClosestCluster(existingClustersOnScreen, point, maxDistance);
                     if (closest != null) {
-                        LatLng animateTo = mSphericalMercatorProjection.toLatLng(closest);
+                        LatLng animateTo = PROJECTION.toLatLng(closest);
                         markerModifier.add(true, new CreateMarkerTask(c, newMarkers, animateTo));
                     } else {
                         markerModifier.add(true, new CreateMarkerTask(c, newMarkers, null));
@@ -393,8 +398,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                 newClustersOnScreen = new ArrayList<Point>();
                 for (Cluster<T> c : clusters) {
                     if (shouldRenderAsCluster(c) && visibleBounds.contains(c.getPosition())) {
-                        Point p = mSphericalMercatorProjection.toPoint(c.getPosition());
-                        newClustersOnScreen.add(p);
+                        newClustersOnScreen.add(getPoint(clusterPoints, c));
                     }
                 }
             }
@@ -405,10 +409,9 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                 // Don't animate when zooming out more than 3 zoom levels.
                 // TODO: drop animation based on speed of device & number of markers to animate.
                 if (!zoomingIn && zoomDelta > -3 && onScreen && SHOULD_ANIMATE) {
-                    final Point point = mSphericalMercatorProjection.toPoint(marker.position);
-                    final Point closest = findClosestCluster(newClustersOnScreen, point);
+                    final Point closest = findClosestCluster(newClustersOnScreen, marker.getPoint(), maxDistance);
                     if (closest != null) {
-                        LatLng animateTo = mSphericalMercatorProjection.toLatLng(closest);
+                        LatLng animateTo = PROJECTION.toLatLng(closest);
                         markerModifier.animateThenRemove(marker, marker.position, animateTo);
                     } else {
                         markerModifier.remove(true, marker.marker);
@@ -422,15 +425,24 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
 
             mMarkers = newMarkers;
             DefaultClusterRenderer.this.mClusters = clusters;
+            mClusterPoints = clusterPoints;
             mZoom = zoom;
 
             mCallback.run();
         }
     }
 
+    /**
+     * Captures the map's current viewport and renders against it. Must be called on the UI thread.
+     */
     @Override
     public void onClustersChanged(Set<? extends Cluster<T>> clusters) {
-        mViewModifier.queue(clusters);
+        onClustersChanged(clusters, ViewportSnapshot.capture(mMap));
+    }
+
+    @Override
+    public void onClustersChanged(Set<? extends Cluster<T>> clusters, ViewportSnapshot viewport) {
+        mViewModifier.queue(clusters, viewport);
     }
 
     @Override
@@ -457,11 +469,24 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         return (a.x - b.x) * (a.x - b.x) + (a.y - b.y) * (a.y - b.y);
     }
 
-    private static Point findClosestCluster(List<Point> markers, Point point) {
+    /**
+     * @return the cluster's position on a world of width 1, projecting it only if it is not in
+     * points yet.
+     */
+    private static <T extends ClusterItem> Point getPoint(Map<Cluster<T>, Point> points, Cluster<T> cluster) {
+        Point point = points.get(cluster);
+        if (point == null) {
+            point = PROJECTION.toPoint(cluster.getPosition());
+            points.put(cluster, point);
+        }
+        return point;
+    }
+
+    private static Point findClosestCluster(List<Point> markers, Point point, double maxDistance) {
         if (markers == null || markers.isEmpty()) return null;
 
         // TODO: make this configurable.
-        double minDistSquared = MAX_DISTANCE_AT_ZOOM * MAX_DISTANCE_AT_ZOOM;
+        double minDistSquared = maxDistance * maxDistance;
         Point closest = null;
         for (Point candidate : markers) {
             double dist = distanceSquared(candidate, point);
@@ -614,10 +639,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         }
 
         private void removeMarker(Marker m) {
-            Cluster<T> cluster = mMarkerToCluster.get(m);
-            mClusterToMarker.remove(cluster);
             mMarkerCache.remove(m);
-            mMarkerToCluster.remove(m);
             mClusterManager.getMarkerManager().remove(m);
         }
 
@@ -667,18 +689,34 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
     }
 
     /**
-     * A cache of markers representing individual ClusterItems.
+     * A cache of markers representing individual ClusterItems and Clusters.
+     * <p/>
+     * Items and clusters share a single forward index, and every marker maps back to the item or
+     * cluster it was created for, so lookups from click listeners are O(1). Entries are told apart
+     * by whether they implement {@link Cluster}. Both indexes may be read from any thread.
      */
-    private static class MarkerCache<T> {
-        private Map<T, Marker> mCache = new HashMap<T, Marker>();
-        private Map<Marker, T> mCacheReverse = new HashMap<Marker, T>();
+    private static class MarkerCache<T extends ClusterItem> {
+        private final Map<Object, Marker> mCache = new ConcurrentHashMap<Object, Marker>();
+        private final Map<Marker, Object> mCacheReverse = new ConcurrentHashMap<Marker, Object>();
 
         public Marker get(T item) {
             return mCache.get(item);
         }
 
-        public T get(Marker m) {
-            return mCacheReverse.get(m);
+        public Marker get(Cluster<T> cluster) {
+            return mCache.get(cluster);
+        }
+
+        @SuppressWarnings("unchecked")
+        public T getClusterItem(Marker m) {
+            Object owner = mCacheReverse.get(m);
+            return owner instanceof Cluster ? null : (T) owner;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Cluster<T> getCluster(Marker m) {
+            Object owner = mCacheReverse.get(m);
+            return owner instanceof Cluster ? (Cluster<T>) owner : null;
         }
 
         public void put(T item, Marker m) {
@@ -686,10 +724,16 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
             mCacheReverse.put(m, item);
         }
 
+        public void put(Cluster<T> cluster, Marker m) {
+            mCache.put(cluster, m);
+            mCacheReverse.put(m, cluster);
+        }
+
         public void remove(Marker m) {
-            T item = mCacheReverse.get(m);
-            mCacheReverse.remove(m);
-            mCache.remove(item);
+            Object owner = mCacheReverse.remove(m);
+            if (owner != null) {
+                mCache.remove(owner);
+            }
         }
     }
 
@@ -742,7 +786,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
      * @return a ClusterItem from a marker or null if it does not exists
      */
     public T getClusterItem(Marker marker) {
-        return mMarkerCache.get(marker);
+        return mMarkerCache.getClusterItem(marker);
     }
 
     /**
@@ -751,7 +795,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
      * @return a marker from a cluster or null if it does not exists
      */
     public Marker getMarker(Cluster<T>  cluster) {
-        return mClusterToMarker.get(cluster);
+        return mMarkerCache.get(cluster);
     }
 
     /**
@@ -760,7 +804,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
      * @return a Cluster from a marker or null if it does not exists
      */
     public Cluster<T> getCluster(Marker marker) {
-        return mMarkerToCluster.get(marker);
+        return mMarkerCache.getCluster(marker);
     }
 
     /**
@@ -818,8 +862,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
             onBeforeClusterRendered(cluster, markerOptions);
 
             Marker marker = mClusterManager.getClusterMarkerCollection().addMarker(markerOptions);
-            mMarkerToCluster.put(marker, cluster);
-            mClusterToMarker.put(cluster, marker);
+            mMarkerCache.put(cluster, marker);
             MarkerWithPosition markerWithPosition = new MarkerWithPosition(marker);
             if (animateFrom != null) {
                 markerModifier.animate(markerWithPosition, animateFrom, cluster.getPosition());
@@ -836,12 +879,28 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
     private static class MarkerWithPosition {
         private final Marker marker;
         private LatLng position;
+        private Point point;
 
         private MarkerWithPosition(Marker marker) {
             this.marker = marker;
             position = marker.getPosition();
         }
 
+        private void setPosition(LatLng position) {
+            this.position = position;
+            point = null;
+        }
+
+        /**
+         * @return the position on a world of width 1, projected once per position.
+         */
+        private Point getPoint() {
+            if (point == null) {
+                point = PROJECTION.toPoint(position);
+            }
+            return point;
+        }
+
         @Override
         public boolean equals(Object other) {
             if (other instanceof MarkerWithPosition) {
@@ -889,13 +948,10 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         @Override
         public void onAnimationEnd(Animator animation) {
             if (mRemoveOnComplete) {
-                Cluster<T> cluster = mMarkerToCluster.get(marker);
-                mClusterToMarker.remove(cluster);
                 mMarkerCache.remove(marker);
-                mMarkerToCluster.remove(marker);
                 mMarkerManager.remove(marker);
             }
-            markerWithPosition.position = to;
+            markerWithPosition.setPosition(to);
         }
 
         public void removeOnAnimationComplete(MarkerManager markerManager) {
@@ -0,0 +1,24 @@
+package com.google.maps.android.clustering.view;
+
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ViewportSnapshot;
+
+import java.util.Set;
+
+/**
+ * A {@link ClusterRenderer} that can also be given the viewport clusters were computed for.
+ * ClusterManager checks for this interface, and otherwise calls
+ * {@link ClusterRenderer#onClustersChanged(Set)}.
+ */
+public interface ViewportClusterRenderer<T extends ClusterItem> extends ClusterRenderer<T> {
+
+    /**
+     * Called when the view needs to be updated because new clusters need to be displayed.
+     * @param clusters the clusters to be displayed.
+     * @param viewport the viewport the clusters were computed for. Renderers should use it
+     *                 instead of querying the map, so that rendering can be prepared off the UI
+     *                 thread.
+     */
+    void onClustersChanged(Set<? extends Cluster<T>> clusters, ViewportSnapshot viewport);
+}
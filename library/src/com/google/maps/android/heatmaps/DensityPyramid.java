@@ -0,0 +1,313 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import com.google.maps.android.geometry.Point;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Intensities of points summed per tile pixel, for every zoom level up to a maximum, so that
+ * tiles at low zoom levels are filled from at most a few tiles' worth of pixels rather than from
+ * every point they cover.
+ * <p/>
+ * Only pixels with points are kept, keyed by the Morton code of their coordinates in the world.
+ * Like {@link IntensityPyramid}, a pixel's key shifted right by two bits is the key of the pixel
+ * containing it one zoom level out, so each level is summed from the one below. The pixels of a
+ * tile also have consecutive keys, so they are found with two binary searches.
+ * <p/>
+ * Points can then be added and removed one at a time. As in IntensityPyramid, the first change
+ * moves each level into a hash table, along with a table of the tiles that have points, and a
+ * tile's pixels are then looked up one by one.
+ */
+class DensityPyramid {
+    /**
+     * Most zoom levels, so that keys of pixels fit in a long.
+     */
+    static final int MAX_ZOOM = 10;
+
+    private final int mDim;
+
+    /**
+     * log2 of mDim
+     */
+    private final int mDimBits;
+
+    /**
+     * Sorted keys of pixels with points, for each zoom level.
+     */
+    private long[][] mKeys;
+
+    /**
+     * Summed intensity of each pixel, in the order of mKeys.
+     */
+    private double[][] mSums;
+
+    /**
+     * Number of points in each pixel, in the order of mKeys.
+     */
+    private int[][] mCounts;
+
+    /**
+     * Pixels of each zoom level, once points have been added or removed.
+     */
+    private IntensityPyramid.BucketTable[] mTables;
+
+    /**
+     * Tiles with points, keyed like pixels, for each zoom level in mTables.
+     */
+    private IntensityPyramid.BucketTable[] mTileTables;
+
+    /**
+     * @param points  the points to sum.
+     * @param maxZoom highest zoom level to sum points for.
+     * @param dim     width and height of tiles in pixels, which must be a power of two.
+     */
+    DensityPyramid(Collection<WeightedLatLng> points, int maxZoom, int dim) {
+        if (maxZoom < 0 || maxZoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Need 0 <= maxZoom <= " + MAX_ZOOM);
+        }
+        mDim = dim;
+        mDimBits = Integer.numberOfTrailingZeros(dim);
+        mKeys = new long[maxZoom + 1][];
+        mSums = new double[maxZoom + 1][];
+        mCounts = new int[maxZoom + 1][];
+
+        // Key every point by its pixel at the highest zoom level, then sum the intensities of
+        // each distinct key.
+        int worldPixels = dim << maxZoom;
+        long[] pointKeys = new long[points.size()];
+        int i = 0;
+        for (WeightedLatLng l : points) {
+            pointKeys[i++] = getKey(l.getPoint(), worldPixels);
+        }
+        long[] keys = pointKeys.clone();
+        Arrays.sort(keys);
+        int size = 0;
+        for (i = 0; i < keys.length; i++) {
+            if (size == 0 || keys[i] != keys[size - 1]) {
+                keys[size++] = keys[i];
+            }
+        }
+        keys = Arrays.copyOf(keys, size);
+        double[] sums = new double[size];
+        int[] counts = new int[size];
+        i = 0;
+        for (WeightedLatLng l : points) {
+            int index = Arrays.binarySearch(keys, pointKeys[i++]);
+            sums[index] += l.getIntensity();
+            counts[index]++;
+        }
+        mKeys[maxZoom] = keys;
+        mSums[maxZoom] = sums;
+        mCounts[maxZoom] = counts;
+
+        // Sum 2 x 2 blocks of pixels into each lower zoom level.
+        for (int zoom = maxZoom - 1; zoom >= 0; zoom--) {
+            long[] childKeys = mKeys[zoom + 1];
+            double[] childSums = mSums[zoom + 1];
+            int[] childCounts = mCounts[zoom + 1];
+            keys = new long[childKeys.length];
+            sums = new double[childKeys.length];
+            counts = new int[childKeys.length];
+            size = 0;
+            for (i = 0; i < childKeys.length; i++) {
+                long key = childKeys[i] >>> 2;
+                if (size == 0 || key != keys[size - 1]) {
+                    keys[size++] = key;
+                }
+                sums[size - 1] += childSums[i];
+                counts[size - 1] += childCounts[i];
+            }
+            mKeys[zoom] = Arrays.copyOf(keys, size);
+            mSums[zoom] = Arrays.copyOf(sums, size);
+            mCounts[zoom] = Arrays.copyOf(counts, size);
+        }
+    }
+
+    /**
+     * Adds the point's intensity to the pixels containing it.
+     */
+    void add(WeightedLatLng point) {
+        update(point, point.getIntensity(), 1);
+    }
+
+    /**
+     * Removes the intensity of a point added before from the pixels containing it.
+     */
+    void remove(WeightedLatLng point) {
+        update(point, -point.getIntensity(), -1);
+    }
+
+    private void update(WeightedLatLng point, double intensity, int count) {
+        int maxZoom = mKeys != null ? mKeys.length - 1 : mTables.length - 1;
+        if (mTables == null) {
+            mTables = new IntensityPyramid.BucketTable[maxZoom + 1];
+            mTileTables = new IntensityPyramid.BucketTable[maxZoom + 1];
+            int shift = 2 * mDimBits;
+            for (int zoom = 0; zoom <= maxZoom; zoom++) {
+                long[] keys = mKeys[zoom];
+                int[] counts = mCounts[zoom];
+                mTables[zoom] = new IntensityPyramid.BucketTable(keys, mSums[zoom], counts);
+                mTileTables[zoom] = new IntensityPyramid.BucketTable(new long[0], new double[0],
+                        new int[0]);
+                for (int i = 0; i < keys.length; i++) {
+                    mTileTables[zoom].update(keys[i] >>> shift, 0, counts[i]);
+                }
+            }
+            mKeys = null;
+            mSums = null;
+            mCounts = null;
+        }
+        long key = getKey(point.getPoint(), mDim << maxZoom);
+        for (int zoom = maxZoom; zoom >= 0; zoom--, key >>>= 2) {
+            mTables[zoom].update(key, intensity, count);
+            mTileTables[zoom].update(key >>> (2 * mDimBits), 0, count);
+        }
+    }
+
+    /**
+     * Adds the pixels of a tile, and those of its neighbours within padding of it, to a grid whose
+     * origin is padding pixels above and left of the tile. Tiles wrap around the world's x axis.
+     *
+     * @return whether any pixel was added.
+     */
+    boolean fill(TileGrid grid, int x, int y, int zoom, int padding) {
+        int tiles = 1 << zoom;
+        int paddedDim = mDim + 2 * padding;
+        boolean filled = false;
+        for (int dy = -1; dy <= 1; dy++) {
+            int neighbourY = y + dy;
+            if (neighbourY < 0 || neighbourY >= tiles) {
+                continue;
+            }
+            for (int dx = -1; dx <= 1; dx++) {
+                int neighbourX = ((x + dx) % tiles + tiles) % tiles;
+                int offsetX = dx * mDim + padding;
+                int offsetY = dy * mDim + padding;
+                filled |= fill(grid, neighbourX, neighbourY, zoom, offsetX, offsetY, paddedDim);
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Adds the pixels of the tile which fall within the grid, at the given offset.
+     */
+    private boolean fill(TileGrid grid, int x, int y, int zoom, int offsetX, int offsetY,
+                         int paddedDim) {
+        // Skip tiles whose pixels all fall outside the grid
+        if (offsetX >= paddedDim || offsetX + mDim <= 0
+                || offsetY >= paddedDim || offsetY + mDim <= 0) {
+            return false;
+        }
+        if (mTables != null) {
+            return fillFromTables(grid, x, y, zoom, offsetX, offsetY, paddedDim);
+        }
+        long[] keys = mKeys[zoom];
+        double[] sums = mSums[zoom];
+        int shift = 2 * mDimBits;
+        long first = interleave(x, y) << shift;
+        long pixelMask = (1L << shift) - 1;
+        int start = lowerBound(keys, first);
+        int end = lowerBound(keys, first + (1L << shift));
+        boolean filled = false;
+        for (int i = start; i < end; i++) {
+            long pixel = keys[i] & pixelMask;
+            int gridX = compact(pixel) + offsetX;
+            int gridY = compact(pixel >>> 1) + offsetY;
+            if (gridX >= 0 && gridX < paddedDim && gridY >= 0 && gridY < paddedDim) {
+                grid.add(gridX, gridY, sums[i]);
+                filled = true;
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Adds the pixels of the tile which fall within the grid by looking each one up, skipping
+     * tiles without points.
+     */
+    private boolean fillFromTables(TileGrid grid, int x, int y, int zoom, int offsetX,
+                                   int offsetY, int paddedDim) {
+        long tileKey = interleave(x, y);
+        if (mTileTables[zoom].indexOf(tileKey) < 0) {
+            return false;
+        }
+        IntensityPyramid.BucketTable table = mTables[zoom];
+        long first = tileKey << (2 * mDimBits);
+        int startX = Math.max(0, -offsetX);
+        int endX = Math.min(mDim, paddedDim - offsetX);
+        int startY = Math.max(0, -offsetY);
+        int endY = Math.min(mDim, paddedDim - offsetY);
+        boolean filled = false;
+        for (int pixelY = startY; pixelY < endY; pixelY++) {
+            for (int pixelX = startX; pixelX < endX; pixelX++) {
+                int slot = table.indexOf(first | interleave(pixelX, pixelY));
+                if (slot >= 0) {
+                    grid.add(pixelX + offsetX, pixelY + offsetY, table.getSum(slot));
+                    filled = true;
+                }
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * @return index of the first key at least key.
+     */
+    private static int lowerBound(long[] keys, long key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the key of the pixel containing the point, in a world of the given width in pixels.
+     */
+    private static long getKey(Point p, int worldPixels) {
+        int x = (int) Math.max(0, Math.min(worldPixels - 1, Math.floor(p.x * worldPixels)));
+        int y = (int) Math.max(0, Math.min(worldPixels - 1, Math.floor(p.y * worldPixels)));
+        return interleave(x, y);
+    }
+
+    static long interleave(int x, int y) {
+        return IntensityPyramid.getKey(x, y);
+    }
+
+    /**
+     * Gathers the even bits of value into an int, undoing IntensityPyramid's spread.
+     */
+    static int compact(long value) {
+        value &= 0x5555555555555555L;
+        value = (value | (value >>> 1)) & 0x3333333333333333L;
+        value = (value | (value >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        value = (value | (value >>> 4)) & 0x00ff00ff00ff00ffL;
+        value = (value | (value >>> 8)) & 0x0000ffff0000ffffL;
+        value = (value | (value >>> 16)) & 0x00000000ffffffffL;
+        return (int) value;
+    }
+}
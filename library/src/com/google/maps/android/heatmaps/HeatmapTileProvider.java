@@ -16,21 +16,26 @@
 
 package com.google.maps.android.heatmaps;
 
-import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.support.v4.util.LongSparseArray;
 
+import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Tile;
 import com.google.android.gms.maps.model.TileProvider;
 import com.google.maps.android.geometry.Bounds;
 import com.google.maps.android.geometry.Point;
 import com.google.maps.android.quadtree.PointQuadTree;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Tile provider that creates heatmap tiles.
@@ -70,6 +75,21 @@ public class HeatmapTileProvider implements TileProvider {
      */
     public static final Gradient DEFAULT_GRADIENT = new Gradient(DEFAULT_GRADIENT_COLORS, DEFAULT_GRADIENT_START_POINTS);
 
+    /**
+     * Default size of the in-memory cache of rendered tiles, in bytes
+     */
+    public static final int DEFAULT_TILE_CACHE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Default size of the in-memory cache of convolved tiles kept for recoloring, in bytes
+     */
+    public static final int DEFAULT_INTENSITY_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Most colors in the color map of palette tiles, leaving room for transparent
+     */
+    private static final int MAX_PALETTE_COLORS = 255;
+
     /**
      * Size of the world (arbitrary).
      * Used to measure distances relative to the total world size.
@@ -78,9 +98,17 @@ public class HeatmapTileProvider implements TileProvider {
     static final double WORLD_WIDTH = 1;
 
     /**
-     * Tile dimension, in pixels.
+     * Default tile dimension, in pixels. The radius is measured in pixels of tiles of this size,
+     * so it covers the same area of the map whatever the tile size.
      */
-    private static final int TILE_DIM = 512;
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    /**
+     * Bounds of the tile dimension, in pixels. Tiles are never computed at fewer than
+     * MIN_TILE_SIZE pixels either.
+     */
+    private static final int MIN_TILE_SIZE = 64;
+    private static final int MAX_TILE_SIZE = 2048;
 
     /**
      * Assumed screen size (pixels)
@@ -112,21 +140,83 @@ public class HeatmapTileProvider implements TileProvider {
      */
     private static final int MAX_RADIUS = 50;
 
+    /**
+     * Most tiles invalidated one by one after points are added or removed. If more tiles are
+     * affected, all tiles are invalidated.
+     */
+    private static final int MAX_INVALIDATED_TILES = 1 << 16;
+
     /**
      * Quad tree of all the points to display in the heatmap
      */
     private PointQuadTree<WeightedLatLng> mTree;
 
+    /**
+     * Bounds of the quad tree, which can be larger than the data after points are added
+     */
+    private Bounds mTreeBounds;
+
     /**
      * Collection of all the data.
      */
     private Collection<WeightedLatLng> mData;
 
     /**
-     * Bounds of the quad tree
+     * Whether mData is a copy made by this provider, which points can be added to and removed from.
+     * The copy is a LinkedHashSet, so that points are removed by identity in constant time.
+     */
+    private boolean mOwnsData;
+
+    /**
+     * Largest intensity of a single point, which bounds means and maxes at every zoom level
+     */
+    private double mMaxPointIntensity;
+
+    /**
+     * Whether the point with the largest intensity was removed, so it must be found again
+     */
+    private boolean mMaxPointIntensityStale;
+
+    /**
+     * Bounds of the data
      */
     private Bounds mBounds;
 
+    /**
+     * Sums of intensities the max intensities are estimated from, kept up to date as points are
+     * added and removed
+     */
+    private IntensityPyramid mPyramid;
+
+    private final Aggregation mAggregation;
+
+    /**
+     * Highest zoom level whose tiles are filled from mDensity, or -1 for none
+     */
+    private final int mDensityMaxZoom;
+
+    /**
+     * Intensities summed per tile pixel for zoom levels up to mDensityMaxZoom, or null until it
+     * is first needed after the data is set. Points added and removed later update it in place
+     */
+    private volatile DensityPyramid mDensity;
+
+    /**
+     * Held while building mDensity, so only one thread builds it
+     */
+    private final Object mDensityBuildLock = new Object();
+
+    /**
+     * Guards the data, tree, bounds and pyramid, which tiles are searched in while points are
+     * added and removed
+     */
+    private final ReadWriteLock mDataLock = new ReentrantReadWriteLock();
+
+    /**
+     * How max intensities change as points are added and removed
+     */
+    private volatile UpdateStrategy mUpdateStrategy;
+
     /**
      * Heatmap point radius.
      */
@@ -157,6 +247,141 @@ public class HeatmapTileProvider implements TileProvider {
      */
     private double[] mMaxIntensity;
 
+    /**
+     * Tile dimension, in pixels
+     */
+    private final int mTileSize;
+
+    /**
+     * Factor tiles are upsampled by: they are computed at mTileSize / mSampling pixels
+     */
+    private final int mSampling;
+
+    /**
+     * Whether tiles are rendered with floats rather than doubles
+     */
+    private final boolean mFloatPrecision;
+
+    /**
+     * Scratch grids for rendering tiles, one per thread requesting tiles
+     */
+    private final ThreadLocal<TileGrid> mTileGrids = new ThreadLocal<TileGrid>();
+
+    /**
+     * Image format of tiles
+     */
+    private final TileFormat mTileFormat;
+
+    /**
+     * Encoders of tiles, one per thread requesting tiles
+     */
+    private final ThreadLocal<TileEncoder> mTileEncoders = new ThreadLocal<TileEncoder>();
+
+    private OnTileEncodedListener mOnTileEncodedListener;
+
+    /**
+     * Cache of rendered and convolved tiles
+     */
+    private final TileCache mTileCache;
+
+    /**
+     * Renders tiles around the camera ahead of the map, or null if prefetching is disabled
+     */
+    private final TilePrefetcher mPrefetcher;
+
+    /**
+     * Version of the data and settings, incremented whenever they change, so tiles rendered
+     * before can be told apart. Written after the data and settings, and read before them.
+     */
+    private volatile int mVersion;
+
+    /**
+     * Version of the data and radius, which convolved tiles depend on. Changing the gradient or
+     * opacity only needs tiles to be recolored.
+     */
+    private volatile int mDataVersion;
+
+    /**
+     * Image formats tiles can be encoded in.
+     */
+    public enum TileFormat {
+        /**
+         * PNG, compressed by Bitmap.compress. Smallest lossless tiles, but slowest to encode.
+         */
+        PNG,
+
+        /**
+         * PNG without row filtering, deflated at the fastest level. Faster to encode than PNG,
+         * with larger tiles.
+         */
+        FAST_PNG,
+
+        /**
+         * 8-bit PNG, with the gradient's colors as its palette. The color map is reduced to 255
+         * colors. Fast to encode, and small.
+         */
+        PALETTE_PNG,
+
+        /**
+         * WebP, compressed by Bitmap.compress.
+         */
+        WEBP
+    }
+
+    /**
+     * How the max intensities, which the gradient is scaled to, follow points being added and
+     * removed.
+     */
+    public enum UpdateStrategy {
+        /**
+         * Max intensities are estimated again after each change. If they change, every tile is
+         * recolored.
+         */
+        RENORMALIZE,
+
+        /**
+         * Max intensities are kept until the data or radius is set. Only the tiles near the
+         * changed points are rendered again, but their colors may saturate.
+         */
+        KEEP_MAX
+    }
+
+    /**
+     * How the intensities of points near each pixel are combined.
+     */
+    public enum Aggregation {
+        /**
+         * Intensities are summed, weighted by the kernel, into a density. The gradient is scaled
+         * to estimates of the densest areas at each zoom level.
+         */
+        SUM,
+
+        /**
+         * The kernel weighted mean of the intensities, such as the average reading of sensors
+         * near each pixel. The gradient is scaled to the largest intensity.
+         */
+        MEAN,
+
+        /**
+         * The largest intensity, scaled by the kernel, of the points near each pixel. Points with
+         * negative intensities are ignored. The gradient is scaled to the largest intensity.
+         */
+        MAX
+    }
+
+    /**
+     * Listener for the encoding of each tile, for metrics.
+     */
+    public interface OnTileEncodedListener {
+        /**
+         * Called on the thread requesting the tile, after it is encoded.
+         *
+         * @param encodeNanos time spent encoding the tile, in nanoseconds
+         * @param byteCount   size of the encoded tile, in bytes
+         */
+        void onTileEncoded(int x, int y, int zoom, long encodeNanos, int byteCount);
+    }
+
     /**
      * Builder class for the HeatmapTileProvider.
      */
@@ -168,6 +393,18 @@ public class HeatmapTileProvider implements TileProvider {
         private int radius = DEFAULT_RADIUS;
         private Gradient gradient = DEFAULT_GRADIENT;
         private double opacity = DEFAULT_OPACITY;
+        private boolean floatPrecision = false;
+        private int tileSize = DEFAULT_TILE_SIZE;
+        private int sampling = 1;
+        private TileFormat tileFormat = TileFormat.PNG;
+        private int tileCacheSize = DEFAULT_TILE_CACHE_SIZE;
+        private int intensityCacheSize = DEFAULT_INTENSITY_CACHE_SIZE;
+        private int prefetchThreads = 0;
+        private UpdateStrategy updateStrategy = UpdateStrategy.RENORMALIZE;
+        private int densityMaxZoom = -1;
+        private Aggregation aggregation = Aggregation.SUM;
+        private File diskCacheDirectory = null;
+        private long diskCacheSize = 0;
 
         /**
          * Constructor for builder.
@@ -246,6 +483,180 @@ public class HeatmapTileProvider implements TileProvider {
             return this;
         }
 
+        /**
+         * Setter for precision in builder
+         *
+         * @param val Whether to render tiles with floats rather than doubles. Halves the memory
+         *            kept for rendering by each thread, at the cost of some precision.
+         * @return updated builder object
+         */
+        public Builder floatPrecision(boolean val) {
+            floatPrecision = val;
+            return this;
+        }
+
+        /**
+         * Setter for tile size in builder
+         *
+         * @param val Width and height of tiles, in pixels. Must be a power of two from 64 to
+         *            2048. Smaller tiles render faster, larger ones are sharper.
+         * @return updated builder object
+         */
+        public Builder tileSize(int val) {
+            if (val < MIN_TILE_SIZE || val > MAX_TILE_SIZE || (val & (val - 1)) != 0) {
+                throw new IllegalArgumentException("Tile size must be a power of two from "
+                        + MIN_TILE_SIZE + " to " + MAX_TILE_SIZE);
+            }
+            tileSize = val;
+            return this;
+        }
+
+        /**
+         * Setter for sampling in builder
+         *
+         * @param val Factor to upsample tiles by. Tiles are computed at tile size / val pixels,
+         *            and interpolated to the tile size, making them faster to render but
+         *            blurrier. Must be a power of two, and leave at least 64 pixels to compute.
+         * @return updated builder object
+         */
+        public Builder sampling(int val) {
+            if (val < 1 || (val & (val - 1)) != 0) {
+                throw new IllegalArgumentException("Sampling must be a power of two");
+            }
+            sampling = val;
+            return this;
+        }
+
+        /**
+         * Setter for tile format in builder
+         *
+         * @param val Image format to encode tiles in.
+         * @return updated builder object
+         */
+        public Builder tileFormat(TileFormat val) {
+            if (val == null) {
+                throw new IllegalArgumentException("Tile format must not be null");
+            }
+            tileFormat = val;
+            return this;
+        }
+
+        /**
+         * Setter for tile cache size in builder
+         *
+         * @param val Maximum size of the rendered tiles kept in memory, in bytes.
+         *            0 disables the memory cache.
+         * @return updated builder object
+         */
+        public Builder tileCacheSize(int val) {
+            tileCacheSize = val;
+            if (tileCacheSize < 0) {
+                throw new IllegalArgumentException("Tile cache size must not be negative");
+            }
+            return this;
+        }
+
+        /**
+         * Setter for intensity cache size in builder
+         * Convolved tiles are kept, at 16-bit precision, so that changing the gradient or opacity
+         * only needs tiles to be recolored.
+         *
+         * @param val Maximum size of the convolved tiles kept in memory, in bytes.
+         *            0 disables the intensity cache.
+         * @return updated builder object
+         */
+        public Builder intensityCacheSize(int val) {
+            intensityCacheSize = val;
+            if (intensityCacheSize < 0) {
+                throw new IllegalArgumentException("Intensity cache size must not be negative");
+            }
+            return this;
+        }
+
+        /**
+         * Setter for disk cache in builder
+         * Rendered tiles evicted from memory are kept in files in the directory, which should
+         * only be used by this heatmap: files left in it are deleted once tiles are written.
+         *
+         * @param directory Directory to keep tiles in, such as a subdirectory of
+         *                  Context.getCacheDir(), or null to disable the disk cache.
+         * @param maxSize   Maximum size of the files, in bytes.
+         * @return updated builder object
+         */
+        public Builder diskCache(File directory, long maxSize) {
+            if (directory != null && maxSize <= 0) {
+                throw new IllegalArgumentException("Disk cache size must be positive");
+            }
+            diskCacheDirectory = directory;
+            diskCacheSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Setter for prefetching in builder
+         * Tiles around the camera are rendered into the tile cache ahead of the map requesting
+         * them, when prefetch is called.
+         *
+         * @param threads Maximum number of threads rendering tiles ahead, or 0 to disable
+         *                prefetching. Needs the memory or disk tile cache.
+         * @return updated builder object
+         */
+        public Builder prefetchThreads(int threads) {
+            if (threads < 0) {
+                throw new IllegalArgumentException("Prefetch threads must not be negative");
+            }
+            prefetchThreads = threads;
+            return this;
+        }
+
+        /**
+         * Setter for update strategy in builder
+         *
+         * @param val How max intensities follow points being added and removed.
+         * @return updated builder object
+         */
+        public Builder updateStrategy(UpdateStrategy val) {
+            if (val == null) {
+                throw new IllegalArgumentException("Update strategy must not be null");
+            }
+            updateStrategy = val;
+            return this;
+        }
+
+        /**
+         * Setter for aggregation in builder
+         *
+         * @param val How the intensities of points near each pixel are combined.
+         * @return updated builder object
+         */
+        public Builder aggregation(Aggregation val) {
+            if (val == null) {
+                throw new IllegalArgumentException("Aggregation must not be null");
+            }
+            aggregation = val;
+            return this;
+        }
+
+        /**
+         * Setter for density pyramid in builder
+         * The intensities of points are summed per tile pixel for every zoom level up to
+         * maxZoom, so that tiles at those zoom levels are rendered from the sums rather than
+         * from every point they cover. This uses memory for up to one sum per point and zoom
+         * level. The sums are computed again when the data is set, and updated when points are
+         * added or removed. Only used when the aggregation is SUM.
+         *
+         * @param maxZoom Highest zoom level to render from the sums, up to 10, or -1 for none.
+         * @return updated builder object
+         */
+        public Builder densityMaxZoom(int maxZoom) {
+            if (maxZoom < -1 || maxZoom > DensityPyramid.MAX_ZOOM) {
+                throw new IllegalArgumentException("Density max zoom must be from -1 to "
+                        + DensityPyramid.MAX_ZOOM);
+            }
+            densityMaxZoom = maxZoom;
+            return this;
+        }
+
         /**
          * Call when all desired options have been set.
          * Note: you must set data using data or weightedData before this!
@@ -258,6 +669,13 @@ public class HeatmapTileProvider implements TileProvider {
                 throw new IllegalStateException("No input data: you must use either .data or " +
                         ".weightedData before building");
             }
+            if (tileSize / sampling < MIN_TILE_SIZE) {
+                throw new IllegalStateException("Sampling leaves fewer than " + MIN_TILE_SIZE
+                        + " pixels to compute");
+            }
+            if (prefetchThreads > 0 && tileCacheSize == 0 && diskCacheDirectory == null) {
+                throw new IllegalStateException("Prefetching needs a tile cache to render into");
+            }
 
             return new HeatmapTileProvider(this);
         }
@@ -270,9 +688,21 @@ public class HeatmapTileProvider implements TileProvider {
         mRadius = builder.radius;
         mGradient = builder.gradient;
         mOpacity = builder.opacity;
+        mFloatPrecision = builder.floatPrecision;
+        mTileSize = builder.tileSize;
+        mSampling = builder.sampling;
+        mTileFormat = builder.tileFormat;
+        mUpdateStrategy = builder.updateStrategy;
+        mAggregation = builder.aggregation;
+        mDensityMaxZoom = builder.aggregation == Aggregation.SUM ? builder.densityMaxZoom : -1;
+        mTileCache = new TileCache(builder.tileCacheSize, builder.intensityCacheSize,
+                builder.diskCacheDirectory, builder.diskCacheSize);
+        mPrefetcher = builder.prefetchThreads > 0
+                ? new TilePrefetcher(this, builder.prefetchThreads, MAX_ZOOM_LEVEL - 1)
+                : null;
 
         // Compute kernel density function (sd = 1/3rd of radius)
-        mKernel = generateKernel(mRadius, mRadius / 3.0);
+        mKernel = generateKernel(mRadius);
 
         // Generate color map
         setGradient(mGradient);
@@ -293,14 +723,27 @@ public class HeatmapTileProvider implements TileProvider {
      *             changing the radius.
      */
     public void setWeightedData(Collection<WeightedLatLng> data) {
-        // Change point set
-        mData = data;
-
         // Check point set is OK
-        if (mData.isEmpty()) {
+        if (data.isEmpty()) {
             throw new IllegalArgumentException("No input points.");
         }
 
+        mDataLock.writeLock().lock();
+        try {
+            setWeightedDataLocked(data);
+        } finally {
+            mDataLock.writeLock().unlock();
+        }
+        invalidateData();
+    }
+
+    private void setWeightedDataLocked(Collection<WeightedLatLng> data) {
+        // Change point set
+        mData = data;
+        mOwnsData = false;
+        mDensity = null;
+        mMaxPointIntensityStale = true;
+
         // Because quadtree bounds are final once the quadtree is created, we cannot add
         // points outside of those bounds to the quadtree after creation.
         // As quadtree creation is actually quite lightweight/fast as compared to other functions
@@ -308,17 +751,202 @@ public class HeatmapTileProvider implements TileProvider {
 
         // Make the quad tree
         mBounds = getBounds(mData);
+        buildTree(mBounds);
 
-        mTree = new PointQuadTree<WeightedLatLng>(mBounds);
+        // Calculate reasonable maximum intensity for color scale (user can also specify)
+        // Get max intensities
+        mPyramid = buildPyramid(mRadius);
+        mMaxIntensity = getMaxIntensities(mRadius);
+    }
+
+    private void buildTree(Bounds bounds) {
+        mTreeBounds = bounds;
+        mTree = new PointQuadTree<WeightedLatLng>(bounds);
 
         // Add points to quad tree
         for (WeightedLatLng l : mData) {
             mTree.add(l);
         }
+    }
 
-        // Calculate reasonable maximum intensity for color scale (user can also specify)
-        // Get max intensities
-        mMaxIntensity = getMaxIntensities(mRadius);
+    /**
+     * Adds points to the heatmap, without processing the rest of the data again. Only the tiles
+     * near the points are rendered again, unless the update strategy renormalizes the max
+     * intensities and they change.
+     * Max intensities are estimated from buckets of the size they had when the data was set,
+     * until the data or radius is set again.
+     *
+     * @param points Points to add. Points are removed by identity, so keep them to remove them.
+     *               A WeightedLatLng object already in the heatmap is not added again.
+     */
+    public void addWeightedPoints(Collection<WeightedLatLng> points) {
+        updateWeightedPoints(new ArrayList<WeightedLatLng>(), points);
+    }
+
+    /**
+     * Removes points added with the data or addWeightedPoints from the heatmap, without processing
+     * the rest of the data again. The data's bounds are not shrunk.
+     *
+     * @param points The same WeightedLatLng objects that were added.
+     */
+    public void removeWeightedPoints(Collection<WeightedLatLng> points) {
+        updateWeightedPoints(points, new ArrayList<WeightedLatLng>());
+    }
+
+    /**
+     * Removes and adds points together, invalidating tiles once.
+     */
+    void updateWeightedPoints(Collection<WeightedLatLng> removed, Collection<WeightedLatLng> added) {
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+        mDataLock.writeLock().lock();
+        try {
+            if (!mOwnsData) {
+                mData = new LinkedHashSet<WeightedLatLng>(mData);
+                mOwnsData = true;
+            }
+            // The density pyramid is updated along with the other structures, unless it has not
+            // been built since the data was set.
+            DensityPyramid density = mDensity;
+            // Only points actually removed or added are indexed, so a point added twice counts
+            // once. WeightedLatLng does not override equals, so points are matched by identity.
+            List<WeightedLatLng> changed = new ArrayList<WeightedLatLng>();
+            for (WeightedLatLng point : removed) {
+                if (mData.remove(point) && mTree.remove(point)) {
+                    changed.add(point);
+                    mPyramid.remove(point);
+                    if (point.getIntensity() >= mMaxPointIntensity) {
+                        mMaxPointIntensityStale = true;
+                    }
+                    if (density != null) {
+                        density.remove(point);
+                    }
+                }
+            }
+            int removedCount = changed.size();
+            for (WeightedLatLng point : added) {
+                if (mData.add(point)) {
+                    changed.add(point);
+                }
+            }
+            if (changed.isEmpty()) {
+                return;
+            }
+            List<WeightedLatLng> newPoints = changed.subList(removedCount, changed.size());
+            if (!newPoints.isEmpty()) {
+                mBounds = extendBounds(mBounds, newPoints);
+                if (!contains(mTreeBounds, mBounds)) {
+                    // Quad tree bounds are final, so grow them by half on each side to leave room
+                    // for more points.
+                    double margin = Math.max(mBounds.maxX - mBounds.minX,
+                            mBounds.maxY - mBounds.minY) / 2;
+                    buildTree(new Bounds(mBounds.minX - margin, mBounds.maxX + margin,
+                            mBounds.minY - margin, mBounds.maxY + margin));
+                } else {
+                    for (WeightedLatLng point : newPoints) {
+                        mTree.add(point);
+                    }
+                }
+                for (WeightedLatLng point : newPoints) {
+                    mPyramid.add(point);
+                    mMaxPointIntensity = Math.max(mMaxPointIntensity, point.getIntensity());
+                    if (density != null) {
+                        density.add(point);
+                    }
+                }
+            }
+
+            long[] tileKeys = getTileKeys(changed);
+            double[] maxIntensity = mUpdateStrategy == UpdateStrategy.RENORMALIZE
+                    ? getMaxIntensities(mRadius) : mMaxIntensity;
+            boolean renormalized = !Arrays.equals(maxIntensity, mMaxIntensity);
+            mMaxIntensity = maxIntensity;
+            if (tileKeys == null) {
+                invalidateData();
+            } else {
+                mTileCache.invalidate(tileKeys);
+                if (renormalized) {
+                    invalidateTiles();
+                }
+            }
+        } finally {
+            mDataLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Setter for update strategy
+     *
+     * @param strategy How max intensities follow points being added and removed.
+     */
+    public void setUpdateStrategy(UpdateStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Update strategy must not be null");
+        }
+        mUpdateStrategy = strategy;
+    }
+
+    /**
+     * Gets the keys of the tiles, at every zoom level, that any of the points is drawn on.
+     *
+     * @return sorted keys from TileCache.getKey, or null if there are more than
+     * MAX_INVALIDATED_TILES
+     */
+    private long[] getTileKeys(Collection<WeightedLatLng> points) {
+        int kernelRadius = mKernel.length / 2;
+        int computeDim = mTileSize / mSampling;
+        long[] keys = new long[64];
+        int size = 0;
+        for (WeightedLatLng point : points) {
+            Point p = point.getPoint();
+            for (int zoom = 0; zoom < MAX_ZOOM_LEVEL; zoom++) {
+                int tiles = 1 << zoom;
+                // As in getTile
+                double tileWidth = WORLD_WIDTH / Math.pow(2, zoom);
+                double padding = tileWidth / computeDim * kernelRadius;
+
+                // Tiles whose padded bounds contain the point
+                int minX = (int) Math.ceil((p.x - padding) / tileWidth) - 1;
+                int maxX = (int) Math.floor((p.x + padding) / tileWidth);
+                int minY = Math.max(0, (int) Math.ceil((p.y - padding) / tileWidth) - 1);
+                int maxY = Math.min(tiles - 1, (int) Math.floor((p.y + padding) / tileWidth));
+                for (int x = minX; x <= maxX; x++) {
+                    // Tiles wrap around the world
+                    int wrappedX = (x % tiles + tiles) % tiles;
+                    for (int y = minY; y <= maxY; y++) {
+                        if (size == keys.length) {
+                            // Points share most tiles at low zoom levels
+                            size = sortUnique(keys, size);
+                            if (size > MAX_INVALIDATED_TILES / 2) {
+                                return null;
+                            }
+                            if (size > keys.length / 2) {
+                                keys = Arrays.copyOf(keys, 2 * keys.length);
+                            }
+                        }
+                        keys[size++] = TileCache.getKey(wrappedX, y, zoom);
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(keys, sortUnique(keys, size));
+    }
+
+    /**
+     * Sorts the first size keys, and moves the distinct ones to the start.
+     *
+     * @return the number of distinct keys
+     */
+    private static int sortUnique(long[] keys, int size) {
+        Arrays.sort(keys, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || keys[i] != keys[unique - 1]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        return unique;
     }
 
     /**
@@ -358,6 +986,24 @@ public class HeatmapTileProvider implements TileProvider {
      * @return image in Tile format
      */
     public Tile getTile(int x, int y, int zoom) {
+        // Read the versions before anything they cover, so a tile is never cached as newer than
+        // it is
+        int version = mVersion;
+        int dataVersion = mDataVersion;
+        long regionCount = mTileCache.getRegionCount();
+        Tile cached = mTileCache.get(x, y, zoom, version);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Only the colors have changed since the tile was convolved
+        int[] colorMap = mColorMap;
+        QuantizedGrid quantized = mTileCache.getGrid(x, y, zoom, dataVersion);
+        if (quantized != null) {
+            int[] colors = getTileGrid(mKernel).colorize(quantized, colorMap, mMaxIntensity[zoom]);
+            return cacheTile(x, y, zoom, version, regionCount, colors, colorMap);
+        }
+
         // Convert tile coordinates and zoom into Point/Bounds format
         // Know that at zoom level 0, there is one tile: (0, 0) (arbitrary width 512)
         // Each zoom level multiplies number of tiles by 2
@@ -368,18 +1014,18 @@ public class HeatmapTileProvider implements TileProvider {
         // In terms of world width units
         double tileWidth = WORLD_WIDTH / Math.pow(2, zoom);
 
-        // how much padding to include in search
-        // is to tileWidth as mRadius (padding in terms of pixels) is to TILE_DIM
-        // In terms of world width units
-        double padding = tileWidth * mRadius / TILE_DIM;
+        // Tiles are computed at a fraction of their size, with a kernel scaled to match
+        double[] kernel = mKernel;
+        int computeDim = mTileSize / mSampling;
 
-        // padded tile width
+        // bucket width - divided by number of buckets
         // In terms of world width units
-        double tileWidthPadded = tileWidth + 2 * padding;
+        double bucketWidth = tileWidth / computeDim;
 
-        // padded bucket width - divided by number of buckets
+        // how much padding to include in search
+        // the radius of the kernel, in buckets
         // In terms of world width units
-        double bucketWidth = tileWidthPadded / (TILE_DIM + mRadius * 2);
+        double padding = bucketWidth * (kernel.length / 2);
 
         // Make bounds: minX, maxX, minY, maxY
         double minX = x * tileWidth - padding;
@@ -394,67 +1040,173 @@ public class HeatmapTileProvider implements TileProvider {
         // Note: Tile must remain square, so cant optimise by editing bounds
         double xOffset = 0;
         Collection<WeightedLatLng> wrappedPoints = new ArrayList<WeightedLatLng>();
-        if (minX < 0) {
-            // Need to consider "negative" points
-            // (minX to 0) ->  (512+minX to 512) ie +512
-            // add 512 to search bounds and subtract 512 from actual points
-            Bounds overlapBounds = new Bounds(minX + WORLD_WIDTH, WORLD_WIDTH, minY, maxY);
-            xOffset = -WORLD_WIDTH;
-            wrappedPoints = mTree.search(overlapBounds);
-        } else if (maxX > WORLD_WIDTH) {
-            // Cant both be true as then tile covers whole world
-            // Need to consider "overflow" points
-            // (512 to maxX) -> (0 to maxX-512) ie -512
-            // subtract 512 from search bounds and add 512 to actual points
-            Bounds overlapBounds = new Bounds(0, maxX - WORLD_WIDTH, minY, maxY);
-            xOffset = WORLD_WIDTH;
-            wrappedPoints = mTree.search(overlapBounds);
-        }
-
-        // Main tile bounds to search
-        Bounds tileBounds = new Bounds(minX, maxX, minY, maxY);
-
-        // If outside of *padded* quadtree bounds, return blank tile
-        // This is comparing our bounds to the padded bounds of all points in the quadtree
-        // ie tiles that don't touch the heatmap at all
-        Bounds paddedBounds = new Bounds(mBounds.minX - padding, mBounds.maxX + padding,
-                mBounds.minY - padding, mBounds.maxY + padding);
-        if (!tileBounds.intersects(paddedBounds)) {
-            return TileProvider.NO_TILE;
-        }
-
-        // Search for all points within tile bounds
-        Collection<WeightedLatLng> points = mTree.search(tileBounds);
-
-        // If no points, return blank tile
-        if (points.isEmpty()) {
-            return TileProvider.NO_TILE;
-        }
-
-        // Quantize points
-        double[][] intensity = new double[TILE_DIM + mRadius * 2][TILE_DIM + mRadius * 2];
-        for (WeightedLatLng w : points) {
-            Point p = w.getPoint();
-            int bucketX = (int) ((p.x - minX) / bucketWidth);
-            int bucketY = (int) ((p.y - minY) / bucketWidth);
-            intensity[bucketX][bucketY] += w.getIntensity();
-        }
-        // Quantize wraparound points (taking xOffset into account)
-        for (WeightedLatLng w : wrappedPoints) {
-            Point p = w.getPoint();
-            int bucketX = (int) ((p.x + xOffset - minX) / bucketWidth);
-            int bucketY = (int) ((p.y - minY) / bucketWidth);
-            intensity[bucketX][bucketY] += w.getIntensity();
+        Collection<WeightedLatLng> points = wrappedPoints;
+        boolean filled = false;
+        TileGrid grid = getTileGrid(kernel);
+        mDataLock.readLock().lock();
+        try {
+            // Main tile bounds to search
+            Bounds tileBounds = new Bounds(minX, maxX, minY, maxY);
+
+            // If outside of *padded* quadtree bounds, return blank tile
+            // This is comparing our bounds to the padded bounds of all points in the quadtree
+            // ie tiles that don't touch the heatmap at all
+            Bounds paddedBounds = new Bounds(mBounds.minX - padding, mBounds.maxX + padding,
+                    mBounds.minY - padding, mBounds.maxY + padding);
+            if (!tileBounds.intersects(paddedBounds)) {
+                return TileProvider.NO_TILE;
+            }
+
+            if (zoom <= mDensityMaxZoom) {
+                // Low zoom tiles cover most points, so are filled from their summed pixels instead.
+                // Points added and removed update the pyramid in place, so fill it under the lock.
+                filled = getDensityPyramid(computeDim).fill(grid, x, y, zoom, kernel.length / 2);
+                if (!filled) {
+                    // If no pixels, return blank tile
+                    return TileProvider.NO_TILE;
+                }
+            } else {
+                if (minX < 0) {
+                    // Need to consider "negative" points
+                    // (minX to 0) ->  (512+minX to 512) ie +512
+                    // add 512 to search bounds and subtract 512 from actual points
+                    Bounds overlapBounds = new Bounds(minX + WORLD_WIDTH, WORLD_WIDTH, minY, maxY);
+                    xOffset = -WORLD_WIDTH;
+                    wrappedPoints = mTree.search(overlapBounds);
+                } else if (maxX > WORLD_WIDTH) {
+                    // Cant both be true as then tile covers whole world
+                    // Need to consider "overflow" points
+                    // (512 to maxX) -> (0 to maxX-512) ie -512
+                    // subtract 512 from search bounds and add 512 to actual points
+                    Bounds overlapBounds = new Bounds(0, maxX - WORLD_WIDTH, minY, maxY);
+                    xOffset = WORLD_WIDTH;
+                    wrappedPoints = mTree.search(overlapBounds);
+                }
+
+                // Search for all points within tile bounds
+                points = mTree.search(tileBounds);
+            }
+        } finally {
+            mDataLock.readLock().unlock();
+        }
+
+        if (!filled) {
+            // If no points, return blank tile
+            if (points.isEmpty()) {
+                return TileProvider.NO_TILE;
+            }
+
+            // Quantize points
+            for (WeightedLatLng w : points) {
+                Point p = w.getPoint();
+                int bucketX = (int) ((p.x - minX) / bucketWidth);
+                int bucketY = (int) ((p.y - minY) / bucketWidth);
+                grid.add(bucketX, bucketY, w.getIntensity());
+            }
+            // Quantize wraparound points (taking xOffset into account)
+            for (WeightedLatLng w : wrappedPoints) {
+                Point p = w.getPoint();
+                int bucketX = (int) ((p.x + xOffset - minX) / bucketWidth);
+                int bucketY = (int) ((p.y - minY) / bucketWidth);
+                grid.add(bucketX, bucketY, w.getIntensity());
+            }
         }
 
         // Convolve it ("smoothen" it out)
-        double[][] convolved = convolve(intensity, mKernel);
+        // Splatting costs a kernel's area per point, while convolving costs up to a kernel's
+        // width per bucket of the tile, so sparse tiles are splatted instead
+        int pointCount = points.size() + wrappedPoints.size();
+        if (!filled && pointCount * kernel.length < computeDim * computeDim / 2) {
+            grid.splat(kernel);
+        } else {
+            grid.convolve(kernel);
+        }
+        if (mTileCache.hasGrids()) {
+            mTileCache.putGrid(x, y, zoom, dataVersion, regionCount, grid.quantize());
+        }
+
+        // Color it into a tile
+        int[] colors = grid.colorize(colorMap, mMaxIntensity[zoom]);
+        return cacheTile(x, y, zoom, version, regionCount, colors, colorMap);
+    }
+
+    /**
+     * Gets the density pyramid, building it if the data has been set since it was last built.
+     * Call with the data lock held for reading.
+     *
+     * @param computeDim width and height tiles are computed at
+     */
+    private DensityPyramid getDensityPyramid(int computeDim) {
+        DensityPyramid density = mDensity;
+        if (density == null) {
+            synchronized (mDensityBuildLock) {
+                density = mDensity;
+                if (density == null) {
+                    density = new DensityPyramid(mData, mDensityMaxZoom, computeDim);
+                    mDensity = density;
+                }
+            }
+        }
+        return density;
+    }
+
+    /**
+     * Encodes colors into a tile, and caches it.
+     *
+     * @param colors   colors of the tile, row by row
+     * @param colorMap color map the colors were taken from
+     * @return the tile
+     */
+    private Tile cacheTile(int x, int y, int zoom, int version, long regionCount, int[] colors,
+                           int[] colorMap) {
+        TileEncoder encoder = mTileEncoders.get();
+        if (encoder == null || !encoder.matches(mTileFormat, mTileSize)) {
+            encoder = new TileEncoder(mTileFormat, mTileSize);
+            mTileEncoders.set(encoder);
+        }
+        long start = System.nanoTime();
+        byte[] data = encoder.encode(colors, colorMap);
+        long encodeNanos = System.nanoTime() - start;
+
+        Tile tile = new Tile(mTileSize, mTileSize, data);
+        mTileCache.put(x, y, zoom, version, regionCount, tile);
+        OnTileEncodedListener listener = mOnTileEncodedListener;
+        if (listener != null) {
+            listener.onTileEncoded(x, y, zoom, encodeNanos, data.length);
+        }
+        return tile;
+    }
 
-        // Color it into a bitmap
-        Bitmap bitmap = colorize(convolved, mColorMap, mMaxIntensity[zoom]);
+    /**
+     * Renders the tiles around the camera into the tile cache, in the background, if prefetching
+     * was enabled in the builder. Tiles not yet rendered for the previous camera position are
+     * dropped. Call from the map's OnCameraChangeListener.
+     *
+     * @param position      position of the camera
+     * @param visibleBounds bounds of the visible region, from
+     *                      GoogleMap.getProjection().getVisibleRegion().latLngBounds
+     */
+    public void prefetch(CameraPosition position, LatLngBounds visibleBounds) {
+        if (mPrefetcher != null) {
+            mPrefetcher.prefetch(visibleBounds, (int) position.zoom);
+        }
+    }
 
-        // Convert bitmap to tile and return
-        return convertBitmap(bitmap);
+    /**
+     * Drops the tiles waiting to be prefetched.
+     */
+    public void cancelPrefetch() {
+        if (mPrefetcher != null) {
+            mPrefetcher.cancel();
+        }
+    }
+
+    /**
+     * Sets a listener for the encoding of each tile, or null to remove it.
+     * It is called on the threads requesting tiles.
+     */
+    public void setOnTileEncodedListener(OnTileEncodedListener listener) {
+        mOnTileEncodedListener = listener;
     }
 
     /**
@@ -465,7 +1217,17 @@ public class HeatmapTileProvider implements TileProvider {
      */
     public void setGradient(Gradient gradient) {
         mGradient = gradient;
-        mColorMap = gradient.generateColorMap(mOpacity);
+        int[] colorMap = gradient.generateColorMap(mOpacity);
+        if (mTileFormat == TileFormat.PALETTE_PNG && colorMap.length > MAX_PALETTE_COLORS) {
+            // Sample the color map evenly, keeping its first and last colors
+            int[] reduced = new int[MAX_PALETTE_COLORS];
+            for (int i = 0; i < MAX_PALETTE_COLORS; i++) {
+                reduced[i] = colorMap[(int) ((long) i * (colorMap.length - 1) / (MAX_PALETTE_COLORS - 1))];
+            }
+            colorMap = reduced;
+        }
+        mColorMap = colorMap;
+        invalidateTiles();
     }
 
     /**
@@ -475,11 +1237,21 @@ public class HeatmapTileProvider implements TileProvider {
      * @param radius Radius to set
      */
     public void setRadius(int radius) {
-        mRadius = radius;
-        // need to recompute kernel
-        mKernel = generateKernel(mRadius, mRadius / 3.0);
-        // need to recalculate max intensity
-        mMaxIntensity = getMaxIntensities(mRadius);
+        if (radius == mRadius) {
+            return;
+        }
+        mDataLock.writeLock().lock();
+        try {
+            mRadius = radius;
+            // need to recompute kernel
+            mKernel = generateKernel(mRadius);
+            // need to recalculate max intensity
+            mPyramid = buildPyramid(mRadius);
+            mMaxIntensity = getMaxIntensities(mRadius);
+        } finally {
+            mDataLock.writeLock().unlock();
+        }
+        invalidateData();
     }
 
     /**
@@ -489,11 +1261,49 @@ public class HeatmapTileProvider implements TileProvider {
      * @param opacity opacity to set
      */
     public void setOpacity(double opacity) {
+        if (opacity == mOpacity) {
+            return;
+        }
         mOpacity = opacity;
         // need to recompute kernel color map
         setGradient(mGradient);
     }
 
+    /**
+     * Makes tiles rendered so far stale, after the data or settings have changed.
+     */
+    private void invalidateTiles() {
+        mVersion++;
+        mTileCache.invalidate();
+    }
+
+    /**
+     * Makes tiles convolved so far stale, after the data or radius have changed.
+     */
+    private void invalidateData() {
+        mDataVersion++;
+        mTileCache.invalidateGrids();
+        invalidateTiles();
+    }
+
+    /**
+     * Gets this thread's scratch grid, replacing it if the radius has changed since it was made.
+     *
+     * @param kernel kernel the tile will be convolved with
+     * @return a cleared grid
+     */
+    private TileGrid getTileGrid(double[] kernel) {
+        int radius = kernel.length / 2;
+        TileGrid grid = mTileGrids.get();
+        int computeDim = mTileSize / mSampling;
+        if (grid == null
+                || !grid.matches(computeDim, radius, mFloatPrecision, mSampling, mAggregation)) {
+            grid = new TileGrid(computeDim, radius, mFloatPrecision, mSampling, mAggregation);
+            mTileGrids.set(grid);
+        }
+        return grid;
+    }
+
     /**
      * Gets array of maximum intensity values to use with the heatmap for each zoom level
      * This is the value that the highest color on the color map corresponds to
@@ -505,38 +1315,82 @@ public class HeatmapTileProvider implements TileProvider {
         // Can go from zoom level 3 to zoom level 22
         double[] maxIntensityArray = new double[MAX_ZOOM_LEVEL];
 
+        if (mAggregation != Aggregation.SUM) {
+            // Means and maxes never exceed the largest intensity, whatever the zoom level
+            if (mMaxPointIntensityStale) {
+                mMaxPointIntensityStale = false;
+                mMaxPointIntensity = 0;
+                for (WeightedLatLng l : mData) {
+                    mMaxPointIntensity = Math.max(mMaxPointIntensity, l.getIntensity());
+                }
+            }
+            Arrays.fill(maxIntensityArray, mMaxPointIntensity);
+            return maxIntensityArray;
+        }
+
         // Calculate max intensity for each zoom level
+        int finestZoom = DEFAULT_MAX_ZOOM - 1;
         for (int i = DEFAULT_MIN_ZOOM; i < DEFAULT_MAX_ZOOM; i++) {
-            // Each zoom level multiplies viewable size by 2
-            maxIntensityArray[i] = getMaxValue(mData, mBounds, radius,
-                    (int) (SCREEN_SIZE * Math.pow(2, i - 3)));
-            if (i == DEFAULT_MIN_ZOOM) {
-                for (int j = 0; j < i; j++) maxIntensityArray[j] = maxIntensityArray[i];
-            }
+            maxIntensityArray[i] = mPyramid.getMaxIntensity(finestZoom - i);
+        }
+        for (int i = 0; i < DEFAULT_MIN_ZOOM; i++) {
+            maxIntensityArray[i] = maxIntensityArray[DEFAULT_MIN_ZOOM];
         }
         for (int i = DEFAULT_MAX_ZOOM; i < MAX_ZOOM_LEVEL; i++) {
             maxIntensityArray[i] = maxIntensityArray[DEFAULT_MAX_ZOOM - 1];
         }
 
+        // The estimates are for tiles computed at the default size. Convolved intensities scale
+        // with the area of the kernel in pixels, which shrinks with the size tiles are computed at.
+        double scale = sum(mKernel) / sum(generateKernel(radius, radius / 3.0));
+        scale *= scale;
+        for (int i = 0; i < MAX_ZOOM_LEVEL; i++) {
+            maxIntensityArray[i] *= scale;
+        }
+
         return maxIntensityArray;
     }
 
     /**
-     * helper function - convert a bitmap into a tile
+     * Buckets the data for estimating max intensities.
      *
-     * @param bitmap bitmap to convert into a tile
-     * @return the tile
+     * @param radius radius of the heatmap
+     * @return pyramid of bucket sums, for zoom levels DEFAULT_MIN_ZOOM to DEFAULT_MAX_ZOOM
      */
-    private static Tile convertBitmap(Bitmap bitmap) {
-        // Convert it into byte array (required for tile creation)
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        byte[] bitmapdata = stream.toByteArray();
-        return new Tile(TILE_DIM, TILE_DIM, bitmapdata);
+    private IntensityPyramid buildPyramid(int radius) {
+        // Have diameter sized buckets, as if the entire heatmap were on the screen at the highest
+        // zoom level calculated. Each lower zoom level halves the number of buckets.
+        int finestZoom = DEFAULT_MAX_ZOOM - 1;
+        int finestBuckets = (SCREEN_SIZE << (finestZoom - 3)) / (2 * radius);
+        return new IntensityPyramid(mData, mBounds, finestBuckets,
+                DEFAULT_MAX_ZOOM - DEFAULT_MIN_ZOOM);
     }
 
     /* Utility functions below */
 
+    /**
+     * @return bounds enclosing both the bounds and the points
+     */
+    private static Bounds extendBounds(Bounds bounds, Collection<WeightedLatLng> points) {
+        double minX = bounds.minX;
+        double maxX = bounds.maxX;
+        double minY = bounds.minY;
+        double maxY = bounds.maxY;
+        for (WeightedLatLng l : points) {
+            Point p = l.getPoint();
+            minX = Math.min(minX, p.x);
+            maxX = Math.max(maxX, p.x);
+            minY = Math.min(minY, p.y);
+            maxY = Math.max(maxY, p.y);
+        }
+        return new Bounds(minX, maxX, minY, maxY);
+    }
+
+    private static boolean contains(Bounds outer, Bounds inner) {
+        return outer.minX <= inner.minX && inner.maxX <= outer.maxX
+                && outer.minY <= inner.minY && inner.maxY <= outer.maxY;
+    }
+
     /**
      * Helper function for quadtree creation
      *
@@ -569,6 +1423,27 @@ public class HeatmapTileProvider implements TileProvider {
         return new Bounds(minX, maxX, minY, maxY);
     }
 
+    /**
+     * Generates the kernel for the radius, scaled to the size tiles are computed at.
+     *
+     * @param radius radius of the heatmap, in pixels of tiles of the default size
+     * @return generated Gaussian kernel
+     */
+    private double[] generateKernel(int radius) {
+        int computeDim = mTileSize / mSampling;
+        int computeRadius = Math.max(1,
+                (int) Math.round((double) radius * computeDim / DEFAULT_TILE_SIZE));
+        return generateKernel(computeRadius, computeRadius / 3.0);
+    }
+
+    private static double sum(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
     /**
      * Generates 1D Gaussian kernel density function, as a double array of size radius * 2  + 1
      * Normalised with central value of 1.
@@ -587,6 +1462,7 @@ public class HeatmapTileProvider implements TileProvider {
 
     /**
      * Applies a 2D Gaussian convolution to the input grid, returning a 2D grid cropped of padding.
+     * Tiles are convolved with {@link TileGrid} directly; this is for grids indexed [x][y].
      *
      * @param grid   Raw input grid to convolve: dimension (dim + 2 * radius) x (dim + 2 * radius)
      *               ie dim * dim with padding of size radius
@@ -595,179 +1471,24 @@ public class HeatmapTileProvider implements TileProvider {
      */
     static double[][] convolve(double[][] grid, double[] kernel) {
         // Calculate radius size
-        int radius = (int) Math.floor((double) kernel.length / 2.0);
-        // Padded dimension
-        int dimOld = grid.length;
+        int radius = kernel.length / 2;
         // Calculate final (non padded) dimension
-        int dim = dimOld - 2 * radius;
-
-        // Upper and lower limits of non padded (inclusive)
-        int lowerLimit = radius;
-        int upperLimit = radius + dim - 1;
-
-        // Convolve horizontally
-        double[][] intermediate = new double[dimOld][dimOld];
-
-        // Need to convolve every point (including those outside of non-padded area)
-        // but only need to add to points within non-padded area
-        int x, y, x2, xUpperLimit, initial;
-        double val;
-        for (x = 0; x < dimOld; x++) {
-            for (y = 0; y < dimOld; y++) {
-                // for each point (x, y)
-                val = grid[x][y];
-                // only bother if something there
-                if (val != 0) {
-                    // need to "apply" convolution from that point to every point in
-                    // (max(lowerLimit, x - radius), y) to (min(upperLimit, x + radius), y)
-                    xUpperLimit = ((upperLimit < x + radius) ? upperLimit : x + radius) + 1;
-                    // Replace Math.max
-                    initial = (lowerLimit > x - radius) ? lowerLimit : x - radius;
-                    for (x2 = initial; x2 < xUpperLimit; x2++) {
-                        // multiplier for x2 = x - radius is kernel[0]
-                        // x2 = x + radius is kernel[radius * 2]
-                        // so multiplier for x2 in general is kernel[x2 - (x - radius)]
-                        intermediate[x2][y] += val * kernel[x2 - (x - radius)];
-                    }
-                }
+        int dim = grid.length - 2 * radius;
+
+        TileGrid tileGrid = new TileGrid(dim, radius, false, 1, Aggregation.SUM);
+        for (int x = 0; x < grid.length; x++) {
+            for (int y = 0; y < grid.length; y++) {
+                tileGrid.add(x, y, grid[x][y]);
             }
         }
+        tileGrid.convolve(kernel);
 
-        // Convolve vertically
         double[][] outputGrid = new double[dim][dim];
-
-        // Similarly, need to convolve every point, but only add to points within non-padded area
-        // However, we are adding to a smaller grid here (previously, was to a grid of same size)
-        int y2, yUpperLimit;
-
-        // Don't care about convolving parts in horizontal padding - wont impact inner
-        for (x = lowerLimit; x < upperLimit + 1; x++) {
-            for (y = 0; y < dimOld; y++) {
-                // for each point (x, y)
-                val = intermediate[x][y];
-                // only bother if something there
-                if (val != 0) {
-                    // need to "apply" convolution from that point to every point in
-                    // (x, max(lowerLimit, y - radius) to (x, min(upperLimit, y + radius))
-                    // Don't care about
-                    yUpperLimit = ((upperLimit < y + radius) ? upperLimit : y + radius) + 1;
-                    // replace math.max
-                    initial = (lowerLimit > y - radius) ? lowerLimit : y - radius;
-                    for (y2 = initial; y2 < yUpperLimit; y2++) {
-                        // Similar logic to above
-                        // subtract, as adding to a smaller grid
-                        outputGrid[x - radius][y2 - radius] += val * kernel[y2 - (y - radius)];
-                    }
-                }
+        for (int x = 0; x < dim; x++) {
+            for (int y = 0; y < dim; y++) {
+                outputGrid[x][y] = tileGrid.getOutput(x, y);
             }
         }
-
         return outputGrid;
     }
-
-    /**
-     * Converts a grid of intensity values to a colored Bitmap, using a given color map
-     *
-     * @param grid     the input grid (assumed to be square)
-     * @param colorMap color map (created by generateColorMap)
-     * @param max      Maximum intensity value: maps to 100% on gradient
-     * @return the colorized grid in Bitmap form, with same dimensions as grid
-     */
-    static Bitmap colorize(double[][] grid, int[] colorMap, double max) {
-        // Maximum color value
-        int maxColor = colorMap[colorMap.length - 1];
-        // Multiplier to "scale" intensity values with, to map to appropriate color
-        double colorMapScaling = (colorMap.length - 1) / max;
-        // Dimension of the input grid (and dimension of output bitmap)
-        int dim = grid.length;
-
-        int i, j, index, col;
-        double val;
-        // Array of colors
-        int colors[] = new int[dim * dim];
-        for (i = 0; i < dim; i++) {
-            for (j = 0; j < dim; j++) {
-                // [x][y]
-                // need to enter each row of x coordinates sequentially (x first)
-                // -> [j][i]
-                val = grid[j][i];
-                index = i * dim + j;
-                col = (int) (val * colorMapScaling);
-
-                if (val != 0) {
-                    // Make it more resilient: cant go outside colorMap
-                    if (col < colorMap.length) colors[index] = colorMap[col];
-                    else colors[index] = maxColor;
-                } else {
-                    colors[index] = Color.TRANSPARENT;
-                }
-            }
-        }
-
-        // Now turn these colors into a bitmap
-        Bitmap tile = Bitmap.createBitmap(dim, dim, Bitmap.Config.ARGB_8888);
-        // (int[] pixels, int offset, int stride, int x, int y, int width, int height)
-        tile.setPixels(colors, 0, dim, 0, 0, dim, dim);
-        return tile;
-    }
-
-    /**
-     * Calculate a reasonable maximum intensity value to map to maximum color intensity
-     *
-     * @param points    Collection of LatLngs to put into buckets
-     * @param bounds    Bucket boundaries
-     * @param radius    radius of convolution
-     * @param screenDim larger dimension of screen in pixels (for scale)
-     * @return Approximate max value
-     */
-    static double getMaxValue(Collection<WeightedLatLng> points, Bounds bounds, int radius,
-                              int screenDim) {
-        // Approximate scale as if entire heatmap is on the screen
-        // ie scale dimensions to larger of width or height (screenDim)
-        double minX = bounds.minX;
-        double maxX = bounds.maxX;
-        double minY = bounds.minY;
-        double maxY = bounds.maxY;
-        double boundsDim = (maxX - minX > maxY - minY) ? maxX - minX : maxY - minY;
-
-        // Number of buckets: have diameter sized buckets
-        int nBuckets = (int) (screenDim / (2 * radius) + 0.5);
-        // Scaling factor to convert width in terms of point distance, to which bucket
-        double scale = nBuckets / boundsDim;
-
-        // Make buckets
-        // Use a sparse array - use LongSparseArray just in case
-        LongSparseArray<LongSparseArray<Double>> buckets = new LongSparseArray<LongSparseArray<Double>>();
-        //double[][] buckets = new double[nBuckets][nBuckets];
-
-        // Assign into buckets + find max value as we go along
-        double x, y;
-        double max = 0;
-        for (WeightedLatLng l : points) {
-            x = l.getPoint().x;
-            y = l.getPoint().y;
-
-            int xBucket = (int) ((x - minX) * scale);
-            int yBucket = (int) ((y - minY) * scale);
-
-            // Check if x bucket exists, if not make it
-            LongSparseArray<Double> column = buckets.get(xBucket);
-            if (column == null) {
-                column = new LongSparseArray<Double>();
-                buckets.put(xBucket, column);
-            }
-            // Check if there is already a y value there
-            Double value = column.get(yBucket);
-            if (value == null) {
-                value = 0.0;
-            }
-            value += l.getIntensity();
-            // Yes, do need to update it, despite it being a Double.
-            column.put(yBucket, value);
-
-            if (value > max) max = value;
-        }
-
-        return max;
-    }
 }
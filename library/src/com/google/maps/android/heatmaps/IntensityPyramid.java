@@ -0,0 +1,387 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Sums of point intensities over square buckets covering some bounds, at several resolutions.
+ * Level 0 is the finest, and each level has half as many buckets on each side as the one below.
+ * <p/>
+ * Points are only bucketed once, at the finest level. Buckets are keyed by the Morton code of
+ * their indices, so that a bucket's key shifted right by two bits is the key of the bucket
+ * containing it on the next level. Sorted keys therefore keep each 2 x 2 block together, and each
+ * coarser level is derived by summing runs of keys, all in primitive arrays.
+ * <p/>
+ * Points can then be added and removed one at a time. The first change moves each level into a
+ * hash table, so changes take constant time, and buckets left without points are dropped. Buckets
+ * keep the size they were given by the bounds, and points outside the bounds get buckets of their
+ * own.
+ */
+class IntensityPyramid {
+    private static final int INDEX_BITS = 31;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    /**
+     * Most buckets along a side of level 0, so that keys and point indices fit in a long together.
+     */
+    static final int MAX_BUCKETS = 1 << 16;
+
+    /**
+     * Bucket indices of points far outside the bounds are clamped to this, either way.
+     */
+    private static final int MAX_BUCKET_INDEX = 1 << 30;
+
+    private final double mMinX;
+    private final double mMinY;
+
+    /**
+     * Buckets per world unit, at level 0.
+     */
+    private final double mScale;
+
+    /**
+     * Sorted bucket keys of each level, until points are added or removed.
+     */
+    private long[][] mKeys;
+
+    /**
+     * Summed intensity of each bucket, in the order of mKeys.
+     */
+    private double[][] mSums;
+
+    /**
+     * Number of points in each bucket, in the order of mKeys.
+     */
+    private int[][] mCounts;
+
+    /**
+     * Buckets of each level, once points have been added or removed.
+     */
+    private BucketTable[] mTables;
+
+    /**
+     * Largest sum of each level.
+     */
+    private final double[] mMaxIntensities;
+
+    /**
+     * Whether the largest bucket of each level shrank, so the largest sum must be found again.
+     */
+    private final boolean[] mMaxStale;
+
+    /**
+     * @param points        the points to bucket. Should be non-empty.
+     * @param bounds        the bounds of the points.
+     * @param finestBuckets number of buckets along the larger side of the bounds, at level 0.
+     * @param levels        number of levels.
+     */
+    IntensityPyramid(Collection<WeightedLatLng> points, Bounds bounds, int finestBuckets, int levels) {
+        if (finestBuckets < 1 || finestBuckets >= MAX_BUCKETS) {
+            throw new IllegalArgumentException("Need 0 < finestBuckets < " + MAX_BUCKETS);
+        }
+        mKeys = new long[levels][];
+        mSums = new double[levels][];
+        mCounts = new int[levels][];
+        mMaxIntensities = new double[levels];
+        mMaxStale = new boolean[levels];
+
+        double boundsDim = Math.max(bounds.maxX - bounds.minX, bounds.maxY - bounds.minY);
+        mMinX = bounds.minX;
+        mMinY = bounds.minY;
+        mScale = finestBuckets / boundsDim;
+
+        // Bucket every point at the finest level. Each point's key is packed with its index, so
+        // that a single sort of primitives groups points by bucket.
+        double[] intensities = new double[points.size()];
+        long[] packed = new long[points.size()];
+        int i = 0;
+        for (WeightedLatLng l : points) {
+            long key = getKey(l.getPoint());
+            packed[i] = (key << INDEX_BITS) | i;
+            intensities[i] = l.getIntensity();
+            i++;
+        }
+        Arrays.sort(packed);
+        long[] keys = new long[packed.length];
+        double[] sums = new double[packed.length];
+        int[] counts = new int[packed.length];
+        int size = 0;
+        for (i = 0; i < packed.length; i++) {
+            long key = packed[i] >>> INDEX_BITS;
+            if (size == 0 || key != keys[size - 1]) {
+                keys[size++] = key;
+            }
+            sums[size - 1] += intensities[(int) (packed[i] & INDEX_MASK)];
+            counts[size - 1]++;
+        }
+        setLevel(0, Arrays.copyOf(keys, size), Arrays.copyOf(sums, size), Arrays.copyOf(counts, size));
+
+        // Sum 2 x 2 blocks into each coarser level.
+        for (int level = 1; level < levels; level++) {
+            long[] childKeys = mKeys[level - 1];
+            double[] childSums = mSums[level - 1];
+            int[] childCounts = mCounts[level - 1];
+            keys = new long[childKeys.length];
+            sums = new double[childKeys.length];
+            counts = new int[childKeys.length];
+            size = 0;
+            for (i = 0; i < childKeys.length; i++) {
+                long key = childKeys[i] >>> 2;
+                if (size == 0 || key != keys[size - 1]) {
+                    keys[size++] = key;
+                }
+                sums[size - 1] += childSums[i];
+                counts[size - 1] += childCounts[i];
+            }
+            setLevel(level, Arrays.copyOf(keys, size), Arrays.copyOf(sums, size),
+                    Arrays.copyOf(counts, size));
+        }
+    }
+
+    private void setLevel(int level, long[] keys, double[] sums, int[] counts) {
+        mKeys[level] = keys;
+        mSums[level] = sums;
+        mCounts[level] = counts;
+        double max = 0;
+        for (double sum : sums) {
+            if (sum > max) max = sum;
+        }
+        mMaxIntensities[level] = max;
+    }
+
+    /**
+     * @return the largest summed intensity of a bucket on the given level.
+     */
+    double getMaxIntensity(int level) {
+        if (mMaxStale[level]) {
+            mMaxStale[level] = false;
+            mMaxIntensities[level] = mTables[level].getMaxSum();
+        }
+        return mMaxIntensities[level];
+    }
+
+    /**
+     * Adds the point's intensity to the buckets containing it.
+     */
+    void add(WeightedLatLng point) {
+        update(getKey(point.getPoint()), point.getIntensity(), 1);
+    }
+
+    /**
+     * Removes the intensity of a point added before from the buckets containing it.
+     */
+    void remove(WeightedLatLng point) {
+        update(getKey(point.getPoint()), -point.getIntensity(), -1);
+    }
+
+    private void update(long key, double intensity, int count) {
+        if (mTables == null) {
+            mTables = new BucketTable[mKeys.length];
+            for (int level = 0; level < mKeys.length; level++) {
+                mTables[level] = new BucketTable(mKeys[level], mSums[level], mCounts[level]);
+            }
+            mKeys = null;
+            mSums = null;
+            mCounts = null;
+        }
+        for (int level = 0; level < mTables.length; level++, key >>>= 2) {
+            double sum = mTables[level].update(key, intensity, count);
+            if (intensity > 0 && sum > mMaxIntensities[level]) {
+                mMaxIntensities[level] = sum;
+            } else if (intensity < 0 && sum - intensity >= mMaxIntensities[level]) {
+                // The largest bucket shrank, and may no longer be the largest.
+                mMaxStale[level] = true;
+            }
+        }
+    }
+
+    /**
+     * @return the key of the level 0 bucket containing the point.
+     */
+    private long getKey(Point p) {
+        return getKey(getBucket(p.x - mMinX), getBucket(p.y - mMinY));
+    }
+
+    private int getBucket(double offset) {
+        double bucket = Math.floor(offset * mScale);
+        return (int) Math.max(-MAX_BUCKET_INDEX, Math.min(MAX_BUCKET_INDEX, bucket));
+    }
+
+    /**
+     * Interleaves the bits of a bucket's x and y indices into its key.
+     */
+    static long getKey(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    /**
+     * Spreads the low 32 bits of value over the even bits of the result.
+     */
+    private static long spread(long value) {
+        value &= 0xffffffffL;
+        value = (value | (value << 16)) & 0x0000ffff0000ffffL;
+        value = (value | (value << 8)) & 0x00ff00ff00ff00ffL;
+        value = (value | (value << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        value = (value | (value << 2)) & 0x3333333333333333L;
+        value = (value | (value << 1)) & 0x5555555555555555L;
+        return value;
+    }
+
+    /**
+     * Open addressing hash table from bucket keys to their sums and point counts, in parallel
+     * arrays. Slots with a count of zero are empty. DensityPyramid keeps its pixels in these too.
+     */
+    static class BucketTable {
+        private long[] mKeys;
+        private double[] mSums;
+        private int[] mCounts;
+        private int mSize;
+
+        BucketTable(long[] keys, double[] sums, int[] counts) {
+            allocate(Math.max(16, Integer.highestOneBit(Math.max(1, keys.length)) * 4));
+            for (int i = 0; i < keys.length; i++) {
+                int slot = find(keys[i]);
+                mKeys[slot] = keys[i];
+                mSums[slot] = sums[i];
+                mCounts[slot] = counts[i];
+            }
+            mSize = keys.length;
+        }
+
+        private void allocate(int capacity) {
+            mKeys = new long[capacity];
+            mSums = new double[capacity];
+            mCounts = new int[capacity];
+        }
+
+        /**
+         * Changes the bucket's sum and count, adding the bucket if it is missing, and dropping it
+         * if it is left without points.
+         *
+         * @return the bucket's new sum.
+         */
+        double update(long key, double intensity, int count) {
+            int slot = find(key);
+            if (mCounts[slot] == 0) {
+                if (count <= 0) {
+                    // Not in the table
+                    return 0;
+                }
+                mKeys[slot] = key;
+                mSums[slot] = 0;
+                mSize++;
+            }
+            mCounts[slot] += count;
+            mSums[slot] += intensity;
+            double sum = mSums[slot];
+            if (mCounts[slot] <= 0) {
+                delete(slot);
+                mSize--;
+                sum = 0;
+            } else if (mSize * 4 > mKeys.length * 3) {
+                grow();
+            }
+            return sum;
+        }
+
+        /**
+         * @return the slot holding key, or -1 if it is missing.
+         */
+        int indexOf(long key) {
+            int slot = find(key);
+            return mCounts[slot] != 0 ? slot : -1;
+        }
+
+        /**
+         * @return the sum of the bucket in a slot returned by indexOf.
+         */
+        double getSum(int slot) {
+            return mSums[slot];
+        }
+
+        /**
+         * @return the slot holding key, or the empty slot where it would go.
+         */
+        private int find(long key) {
+            int mask = mKeys.length - 1;
+            int slot = hash(key) & mask;
+            while (mCounts[slot] != 0 && mKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Empties the slot, moving later entries of its run back so they can still be found.
+         */
+        private void delete(int slot) {
+            int mask = mKeys.length - 1;
+            mCounts[slot] = 0;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (mCounts[next] == 0) {
+                    return;
+                }
+                int home = hash(mKeys[next]) & mask;
+                // Move the entry back unless its home slot lies cyclically in (slot, next].
+                boolean stays = slot <= next
+                        ? slot < home && home <= next
+                        : slot < home || home <= next;
+                if (!stays) {
+                    mKeys[slot] = mKeys[next];
+                    mSums[slot] = mSums[next];
+                    mCounts[slot] = mCounts[next];
+                    mCounts[next] = 0;
+                    slot = next;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] keys = mKeys;
+            double[] sums = mSums;
+            int[] counts = mCounts;
+            allocate(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (counts[i] != 0) {
+                    int slot = find(keys[i]);
+                    mKeys[slot] = keys[i];
+                    mSums[slot] = sums[i];
+                    mCounts[slot] = counts[i];
+                }
+            }
+        }
+
+        private double getMaxSum() {
+            double max = 0;
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mCounts[i] != 0 && mSums[i] > max) max = mSums[i];
+            }
+            return max;
+        }
+
+        private static int hash(long key) {
+            return (int) ((key * 0x9e3779b97f4a7c15L) >>> 32);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import android.graphics.Color;
+
+import java.util.Arrays;
+
+/**
+ * A convolved tile kept for recoloring, so that changing the gradient or opacity does not need
+ * the points to be searched and convolved again.
+ * <p/>
+ * Only the rectangle reached by data is kept, as 16-bit fractions of the largest value in the
+ * tile. Values which were not zero are never rounded down to zero, so the same pixels stay
+ * transparent.
+ */
+class QuantizedGrid {
+    private static final int LEVELS = 0xffff;
+
+    private final int mDim;
+    private final int mMinX;
+    private final int mMinY;
+    private final int mWidth;
+    private final int mHeight;
+    private final char[] mValues;
+
+    /**
+     * Value of one quantization level.
+     */
+    private final double mStep;
+
+    /**
+     * @param dim    width and height of the tile.
+     * @param minX   first column of the kept rectangle.
+     * @param minY   first row of the kept rectangle.
+     * @param width  width of the kept rectangle.
+     * @param values quantized values of the kept rectangle, row by row.
+     * @param step   value of one quantization level.
+     */
+    QuantizedGrid(int dim, int minX, int minY, int width, char[] values, double step) {
+        mDim = dim;
+        mMinX = minX;
+        mMinY = minY;
+        mWidth = width;
+        mHeight = width == 0 ? 0 : values.length / width;
+        mValues = values;
+        mStep = step;
+    }
+
+    /**
+     * @return the value in levels of step, rounded up to one level if it is positive.
+     */
+    static char quantize(double value, double step) {
+        return value > 0 ? (char) Math.max(1, Math.round(value / step)) : 0;
+    }
+
+    /**
+     * @return the value of one quantization level, for values of at most max.
+     */
+    static double getStep(double max) {
+        return max / LEVELS;
+    }
+
+    /*
+     * Rectangle of the tile kept, inclusive.
+     */
+
+    int getMinX() {
+        return mMinX;
+    }
+
+    int getMaxX() {
+        return mMinX + mWidth - 1;
+    }
+
+    int getMinY() {
+        return mMinY;
+    }
+
+    int getMaxY() {
+        return mMinY + mHeight - 1;
+    }
+
+    /**
+     * @return the size of the grid in memory, in bytes.
+     */
+    int getByteCount() {
+        return mValues.length * 2;
+    }
+
+    /**
+     * @return the value at (x, y), to within a 65535th of the tile's largest value.
+     */
+    double get(int x, int y) {
+        x -= mMinX;
+        y -= mMinY;
+        if (x < 0 || x >= mWidth || y < 0 || y >= mHeight) {
+            return 0;
+        }
+        return mValues[y * mWidth + x] * mStep;
+    }
+
+    /**
+     * Colors the grid into colors, which must have room for dim x dim colors.
+     *
+     * @param colorMap color map (created by generateColorMap)
+     * @param max      Maximum intensity value: maps to 100% on gradient
+     */
+    void colorize(int[] colors, int[] colorMap, double max) {
+        Arrays.fill(colors, 0, mDim * mDim, Color.TRANSPARENT);
+        int maxColor = colorMap[colorMap.length - 1];
+        double colorMapScaling = mStep * (colorMap.length - 1) / max;
+        for (int y = 0; y < mHeight; y++) {
+            int index = (y + mMinY) * mDim + mMinX;
+            for (int x = 0; x < mWidth; x++, index++) {
+                char value = mValues[y * mWidth + x];
+                if (value != 0) {
+                    int col = (int) (value * colorMapScaling);
+                    colors[index] = col < colorMap.length ? colorMap[col] : maxColor;
+                }
+            }
+        }
+    }
+}
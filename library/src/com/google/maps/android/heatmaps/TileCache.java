@@ -0,0 +1,410 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import android.support.v4.util.LruCache;
+
+import com.google.android.gms.maps.model.Tile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Two-level cache of encoded heatmap tiles: an in-memory LRU cache, optionally backed by a larger
+ * LRU cache of files in a directory. Also keeps an LRU cache of convolved tiles, as
+ * {@link QuantizedGrid}s, so tiles can be recolored without convolving them again.
+ * <p/>
+ * Tiles are cached with the version of the provider's settings they were rendered with, and are
+ * only returned for that version. Convolved tiles only depend on the data and radius, so are
+ * cached with a separate version. Invalidating drops the memory caches; files of older versions
+ * are left to be overwritten or evicted, so nothing is deleted on the caller's thread.
+ * <p/>
+ * Regions of tiles can also be invalidated, after points are added or removed. Tiles are cached
+ * with the number of regions invalidated before they were rendered, so that tiles rendered from
+ * the old points are not cached after their region was invalidated. Tiles are checked and inserted
+ * under the same lock that regions are invalidated under, so a check cannot pass just before a
+ * region is dropped and the tile then be inserted after it.
+ * <p/>
+ * Only files indexed by this cache are ever read. The directory is emptied before the first file
+ * is written, as anything in it was left by an earlier cache.
+ */
+class TileCache {
+    /**
+     * Packed keys support zoom levels, x and y up to 2^28.
+     */
+    private static final int COORD_BITS = 28;
+
+    private static final String SUFFIX = ".tile";
+
+    /**
+     * Number of the latest invalidated regions remembered. Tiles rendered before older regions
+     * were invalidated are not cached at all.
+     */
+    private static final int RECENT_REGIONS = 4;
+
+    private final LruCache<Long, CachedTile> mMemoryCache;
+    private final LruCache<Long, CachedGrid> mGridCache;
+
+    private final File mDirectory;
+    private final LruCache<Long, DiskEntry> mDiskIndex;
+    private boolean mDirectoryCleared;
+
+    private long mRegionCount;
+    private final LinkedList<long[]> mRecentRegions = new LinkedList<long[]>();
+
+    /**
+     * @param memoryBytes most bytes of tile data kept in memory, or 0 for none.
+     * @param gridBytes   most bytes of convolved tiles kept in memory, or 0 for none.
+     * @param directory   directory to keep files in, or null for no disk cache.
+     * @param diskBytes   most bytes of files kept in the directory.
+     */
+    TileCache(int memoryBytes, int gridBytes, File directory, long diskBytes) {
+        // A tile read from disk goes through memory, so keep the memory cache, if only just.
+        if (memoryBytes > 0 || directory != null) {
+            mMemoryCache = new LruCache<Long, CachedTile>(Math.max(1, memoryBytes)) {
+                @Override
+                protected int sizeOf(Long key, CachedTile value) {
+                    return value.mTile.data.length;
+                }
+            };
+        } else {
+            mMemoryCache = null;
+        }
+        if (gridBytes > 0) {
+            mGridCache = new LruCache<Long, CachedGrid>(gridBytes) {
+                @Override
+                protected int sizeOf(Long key, CachedGrid value) {
+                    return value.mGrid.getByteCount() + 1;
+                }
+            };
+        } else {
+            mGridCache = null;
+        }
+        mDirectory = directory;
+        if (directory == null) {
+            mDiskIndex = null;
+        } else {
+            // LruCache sizes are ints, so count kilobytes.
+            int diskKilobytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, diskBytes / 1024));
+            mDiskIndex = new LruCache<Long, DiskEntry>(diskKilobytes) {
+                @Override
+                protected int sizeOf(Long key, DiskEntry value) {
+                    return value.mKilobytes;
+                }
+
+                @Override
+                protected void entryRemoved(boolean evicted, Long key, DiskEntry oldValue, DiskEntry newValue) {
+                    // Replaced entries share their file with the new entry.
+                    if (newValue == null) {
+                        getFile(key).delete();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * @return the tile rendered with the given version, or null if it is not cached.
+     */
+    Tile get(int x, int y, int zoom, int version) {
+        if (mMemoryCache == null) {
+            return null;
+        }
+        long key = getKey(x, y, zoom);
+        CachedTile cached = mMemoryCache.get(key);
+        if (cached != null && cached.mVersion == version) {
+            return cached.mTile;
+        }
+        if (mDiskIndex == null) {
+            return null;
+        }
+        DiskEntry entry = mDiskIndex.get(key);
+        if (entry == null || entry.mVersion != version) {
+            return null;
+        }
+        Tile tile = read(getFile(key), version);
+        if (tile != null) {
+            synchronized (this) {
+                // Only keep the tile if its file was not invalidated or replaced while read
+                if (mDiskIndex.get(key) == entry) {
+                    mMemoryCache.put(key, new CachedTile(version, tile));
+                }
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Caches a tile rendered with the given version.
+     *
+     * @param regionCount number of regions invalidated before the tile was rendered.
+     */
+    void put(int x, int y, int zoom, int version, long regionCount, Tile tile) {
+        if (mMemoryCache == null) {
+            return;
+        }
+        long key = getKey(x, y, zoom);
+        synchronized (this) {
+            if (!isCurrent(key, regionCount)) {
+                return;
+            }
+            mMemoryCache.put(key, new CachedTile(version, tile));
+        }
+        if (mDiskIndex == null) {
+            return;
+        }
+        clearDirectory();
+        File file = getFile(key);
+        File temp = new File(mDirectory, file.getName() + "." + Thread.currentThread().getId());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(version);
+                out.writeInt(tile.width);
+                out.writeInt(tile.height);
+                out.writeInt(tile.data.length);
+                out.write(tile.data);
+            } finally {
+                out.close();
+            }
+            // Renaming is atomic, so concurrent readers see either the old file or the new one.
+            if (temp.renameTo(file)) {
+                synchronized (this) {
+                    if (isCurrent(key, regionCount)) {
+                        mDiskIndex.put(key, new DiskEntry(version, tile.data.length / 1024 + 1));
+                    } else {
+                        // The region was invalidated while the file was written, which may have
+                        // replaced a newer tile's file, so drop the tile entirely.
+                        mMemoryCache.remove(key);
+                        mDiskIndex.remove(key);
+                        file.delete();
+                    }
+                }
+                return;
+            }
+        } catch (IOException e) {
+            // The tile is still cached in memory.
+        }
+        temp.delete();
+    }
+
+    /**
+     * @return the convolved tile for the given version of the data, or null if it is not cached.
+     */
+    QuantizedGrid getGrid(int x, int y, int zoom, int dataVersion) {
+        if (mGridCache == null) {
+            return null;
+        }
+        CachedGrid cached = mGridCache.get(getKey(x, y, zoom));
+        return cached != null && cached.mVersion == dataVersion ? cached.mGrid : null;
+    }
+
+    /**
+     * Caches a convolved tile for the given version of the data.
+     *
+     * @param regionCount number of regions invalidated before the tile was convolved.
+     */
+    void putGrid(int x, int y, int zoom, int dataVersion, long regionCount, QuantizedGrid grid) {
+        if (mGridCache == null) {
+            return;
+        }
+        long key = getKey(x, y, zoom);
+        synchronized (this) {
+            if (isCurrent(key, regionCount)) {
+                mGridCache.put(key, new CachedGrid(dataVersion, grid));
+            }
+        }
+    }
+
+    /**
+     * @return whether convolved tiles are kept.
+     */
+    boolean hasGrids() {
+        return mGridCache != null;
+    }
+
+    /**
+     * Frees the memory held by tiles of earlier versions. Call after changing the version.
+     */
+    void invalidate() {
+        if (mMemoryCache != null) {
+            mMemoryCache.evictAll();
+        }
+    }
+
+    /**
+     * Frees the memory held by convolved tiles of earlier versions of the data. Call after
+     * changing the data version.
+     */
+    void invalidateGrids() {
+        if (mGridCache != null) {
+            mGridCache.evictAll();
+        }
+    }
+
+    /**
+     * @return the number of regions invalidated so far. Read before rendering a tile, and pass
+     * to put and putGrid.
+     */
+    synchronized long getRegionCount() {
+        return mRegionCount;
+    }
+
+    /**
+     * Drops the tiles with the given keys, from memory and disk, after the points they cover have
+     * changed.
+     *
+     * @param keys sorted keys of the tiles, from getKey. Must not be changed afterwards.
+     */
+    synchronized void invalidate(long[] keys) {
+        mRegionCount++;
+        mRecentRegions.addLast(keys);
+        if (mRecentRegions.size() > RECENT_REGIONS) {
+            mRecentRegions.removeFirst();
+        }
+        for (long key : keys) {
+            if (mMemoryCache != null) {
+                mMemoryCache.remove(key);
+            }
+            if (mGridCache != null) {
+                mGridCache.remove(key);
+            }
+            if (mDiskIndex != null) {
+                mDiskIndex.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return whether no region invalidated since regionCount contains the key. Call holding the
+     * lock, together with inserting the tile.
+     */
+    private boolean isCurrent(long key, long regionCount) {
+        long missed = mRegionCount - regionCount;
+        if (missed > mRecentRegions.size()) {
+            return false;
+        }
+        Iterator<long[]> regions = mRecentRegions.descendingIterator();
+        for (long i = 0; i < missed; i++) {
+            if (Arrays.binarySearch(regions.next(), key) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes files left in the directory by an earlier cache, the first time it is called.
+     */
+    private synchronized void clearDirectory() {
+        if (mDirectoryCleared) {
+            return;
+        }
+        mDirectoryCleared = true;
+        mDirectory.mkdirs();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().contains(SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the tile in the file, or null if it cannot be read or has another version.
+     */
+    private static Tile read(File file, int version) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != version) {
+                    return null;
+                }
+                int width = in.readInt();
+                int height = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                return new Tile(width, height, data);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private File getFile(long key) {
+        return new File(mDirectory, getZoom(key) + "_" + getX(key) + "_" + getY(key) + SUFFIX);
+    }
+
+    static long getKey(int x, int y, int zoom) {
+        return ((long) zoom << (2 * COORD_BITS)) | ((long) x << COORD_BITS) | y;
+    }
+
+    private static int getZoom(long key) {
+        return (int) (key >>> (2 * COORD_BITS));
+    }
+
+    private static int getX(long key) {
+        return (int) ((key >>> COORD_BITS) & ((1 << COORD_BITS) - 1));
+    }
+
+    private static int getY(long key) {
+        return (int) (key & ((1 << COORD_BITS) - 1));
+    }
+
+    private static class CachedTile {
+        private final int mVersion;
+        private final Tile mTile;
+
+        private CachedTile(int version, Tile tile) {
+            mVersion = version;
+            mTile = tile;
+        }
+    }
+
+    private static class CachedGrid {
+        private final int mVersion;
+        private final QuantizedGrid mGrid;
+
+        private CachedGrid(int version, QuantizedGrid grid) {
+            mVersion = version;
+            mGrid = grid;
+        }
+    }
+
+    private static class DiskEntry {
+        private final int mVersion;
+        private final int mKilobytes;
+
+        private DiskEntry(int version, int kilobytes) {
+            mVersion = version;
+            mKilobytes = kilobytes;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes the colors of tiles into image data, meant to be kept and reused by one thread.
+ * <p/>
+ * Formats going through Bitmap.compress reuse one mutable Bitmap. The fast and palette PNG
+ * formats are written directly from the colors, without any Bitmap: rows are not filtered, and
+ * are deflated at the fastest level. All formats reuse their output streams and buffers, so the
+ * returned data is the only large allocation per tile.
+ */
+class TileEncoder {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int COLOR_TYPE_PALETTE = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    private final HeatmapTileProvider.TileFormat mFormat;
+    private final int mDim;
+
+    private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+    private Bitmap mBitmap;
+
+    // Buffers of the PNG formats.
+    private ChunkData mChunkData;
+    private Deflater mDeflater;
+    private CRC32 mCrc;
+    private byte[] mRaw;
+    private byte[] mBuffer;
+    private int[] mPaletteTable;
+
+    /**
+     * @param dim width and height of the tiles.
+     */
+    TileEncoder(HeatmapTileProvider.TileFormat format, int dim) {
+        mFormat = format;
+        mDim = dim;
+        if (format == HeatmapTileProvider.TileFormat.FAST_PNG
+                || format == HeatmapTileProvider.TileFormat.PALETTE_PNG) {
+            mChunkData = new ChunkData();
+            mDeflater = new Deflater(Deflater.BEST_SPEED);
+            mCrc = new CRC32();
+            int bytesPerPixel = format == HeatmapTileProvider.TileFormat.PALETTE_PNG ? 1 : 4;
+            mRaw = new byte[dim * (1 + dim * bytesPerPixel)];
+            mBuffer = new byte[8192];
+        }
+    }
+
+    /**
+     * @return whether this encoder can encode tiles with the given options.
+     */
+    boolean matches(HeatmapTileProvider.TileFormat format, int dim) {
+        return mFormat == format && mDim == dim;
+    }
+
+    /**
+     * @param colors   colors of the tile, row by row.
+     * @param colorMap color map the colors were taken from. For the palette format, it must have
+     *                 at most 255 colors besides transparent.
+     * @return the encoded image.
+     */
+    byte[] encode(int[] colors, int[] colorMap) {
+        mOutput.reset();
+        switch (mFormat) {
+            case FAST_PNG:
+                writePng(colors, null);
+                break;
+            case PALETTE_PNG:
+                writePng(colors, colorMap);
+                break;
+            case WEBP:
+                compress(colors, Bitmap.CompressFormat.WEBP);
+                break;
+            default:
+                compress(colors, Bitmap.CompressFormat.PNG);
+                break;
+        }
+        return mOutput.toByteArray();
+    }
+
+    private void compress(int[] colors, Bitmap.CompressFormat format) {
+        if (mBitmap == null) {
+            mBitmap = Bitmap.createBitmap(mDim, mDim, Bitmap.Config.ARGB_8888);
+        }
+        mBitmap.setPixels(colors, 0, mDim, 0, 0, mDim, mDim);
+        mBitmap.compress(format, 100, mOutput);
+    }
+
+    /**
+     * Writes a PNG, in RGBA, or with the colors of colorMap as the palette if it is not null.
+     */
+    private void writePng(int[] colors, int[] colorMap) {
+        mOutput.write(PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+
+        mChunkData.reset();
+        writeInt(mChunkData, mDim);
+        writeInt(mChunkData, mDim);
+        mChunkData.write(8);
+        mChunkData.write(colorMap == null ? COLOR_TYPE_RGBA : COLOR_TYPE_PALETTE);
+        mChunkData.write(0);
+        mChunkData.write(0);
+        mChunkData.write(0);
+        writeChunk("IHDR");
+
+        int length;
+        if (colorMap == null) {
+            length = fillRgba(colors);
+        } else {
+            int[] palette = buildPalette(colorMap);
+            mChunkData.reset();
+            for (int color : palette) {
+                mChunkData.write(Color.red(color));
+                mChunkData.write(Color.green(color));
+                mChunkData.write(Color.blue(color));
+            }
+            writeChunk("PLTE");
+            mChunkData.reset();
+            for (int color : palette) {
+                mChunkData.write(Color.alpha(color));
+            }
+            writeChunk("tRNS");
+            length = fillIndices(colors);
+        }
+
+        mChunkData.reset();
+        mDeflater.reset();
+        mDeflater.setInput(mRaw, 0, length);
+        mDeflater.finish();
+        while (!mDeflater.finished()) {
+            int deflated = mDeflater.deflate(mBuffer);
+            mChunkData.write(mBuffer, 0, deflated);
+        }
+        writeChunk("IDAT");
+
+        mChunkData.reset();
+        writeChunk("IEND");
+    }
+
+    /**
+     * Fills mRaw with unfiltered RGBA rows.
+     *
+     * @return the number of bytes filled.
+     */
+    private int fillRgba(int[] colors) {
+        int i = 0;
+        for (int y = 0; y < mDim; y++) {
+            mRaw[i++] = 0;
+            for (int index = y * mDim; index < (y + 1) * mDim; index++) {
+                int color = colors[index];
+                mRaw[i++] = (byte) (color >> 16);
+                mRaw[i++] = (byte) (color >> 8);
+                mRaw[i++] = (byte) color;
+                mRaw[i++] = (byte) (color >>> 24);
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Fills mRaw with unfiltered rows of palette indices, from the table built by buildPalette.
+     *
+     * @return the number of bytes filled.
+     */
+    private int fillIndices(int[] colors) {
+        int mask = mPaletteTable.length / 2 - 1;
+        int i = 0;
+        for (int y = 0; y < mDim; y++) {
+            mRaw[i++] = 0;
+            for (int index = y * mDim; index < (y + 1) * mDim; index++) {
+                int color = colors[index];
+                int slot = hash(color) & mask;
+                // Colors missing from the palette are left transparent.
+                int paletteIndex = 0;
+                while (mPaletteTable[2 * slot + 1] >= 0) {
+                    if (mPaletteTable[2 * slot] == color) {
+                        paletteIndex = mPaletteTable[2 * slot + 1];
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                mRaw[i++] = (byte) paletteIndex;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Builds the palette, transparent first and then the distinct colors of colorMap, and a hash
+     * table from colors to their index, as pairs of ints.
+     */
+    private int[] buildPalette(int[] colorMap) {
+        if (mPaletteTable == null) {
+            mPaletteTable = new int[4 * MAX_PALETTE_SIZE];
+        }
+        Arrays.fill(mPaletteTable, -1);
+        int mask = mPaletteTable.length / 2 - 1;
+        int[] palette = new int[MAX_PALETTE_SIZE];
+        int size = 0;
+        palette[size++] = Color.TRANSPARENT;
+        mPaletteTable[2 * (hash(Color.TRANSPARENT) & mask)] = Color.TRANSPARENT;
+        mPaletteTable[2 * (hash(Color.TRANSPARENT) & mask) + 1] = 0;
+        for (int color : colorMap) {
+            int slot = hash(color) & mask;
+            while (mPaletteTable[2 * slot + 1] >= 0 && mPaletteTable[2 * slot] != color) {
+                slot = (slot + 1) & mask;
+            }
+            if (mPaletteTable[2 * slot + 1] < 0) {
+                if (size == MAX_PALETTE_SIZE) {
+                    throw new IllegalArgumentException("Too many colors for a palette");
+                }
+                mPaletteTable[2 * slot] = color;
+                mPaletteTable[2 * slot + 1] = size;
+                palette[size++] = color;
+            }
+        }
+        return Arrays.copyOf(palette, size);
+    }
+
+    private static int hash(int color) {
+        return (color * 0x9e3779b9) >>> 16;
+    }
+
+    /**
+     * Writes a chunk of the given type, with mChunkData as its data.
+     */
+    private void writeChunk(String type) {
+        byte[] typeBytes = {(byte) type.charAt(0), (byte) type.charAt(1),
+                (byte) type.charAt(2), (byte) type.charAt(3)};
+        writeInt(mOutput, mChunkData.size());
+        mOutput.write(typeBytes, 0, 4);
+        mCrc.reset();
+        mCrc.update(typeBytes);
+        mOutput.write(mChunkData.getBuffer(), 0, mChunkData.size());
+        mCrc.update(mChunkData.getBuffer(), 0, mChunkData.size());
+        writeInt(mOutput, (int) mCrc.getValue());
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * A stream whose buffer can be read without copying it.
+     */
+    private static class ChunkData extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,678 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import android.graphics.Color;
+
+import java.util.Arrays;
+
+/**
+ * Scratch arrays for rendering one tile at a time, meant to be kept and reused by one thread.
+ * <p/>
+ * Grids are flattened row by row (index y * width + x), so rows can be passed straight to a
+ * Bitmap. Intensities are added into a grid padded by the kernel radius on each side, which is
+ * convolved with a separable Gaussian kernel into an unpadded output grid, and colorized.
+ * Convolution skips rows without data, and only covers the columns between the leftmost and
+ * rightmost data. Sparse tiles may instead be splatted, adding the whole 2D kernel around each
+ * bucket with data, which skips the horizontal pass and the empty columns between buckets. After
+ * colorizing, only the parts that were written are cleared again.
+ * <p/>
+ * Buckets either sum the points in them, which is smoothed into a density, or also count them, so
+ * the smoothed sum can be divided by the smoothed count into a mean, or keep their largest
+ * intensity, which is spread by taking the largest intensity scaled by the kernel instead of the
+ * sum. The Gaussian kernel is the product of its rows and columns, so both are separable.
+ * <p/>
+ * Either double or float precision is used, chosen when the grid is created. Tiles may also be
+ * computed at a fraction of their resolution, and upsampled with bilinear interpolation of the
+ * convolved intensities when colorizing.
+ */
+class TileGrid {
+    private final int mDim;
+    private final int mRadius;
+    private final int mPaddedDim;
+    private final boolean mFloatPrecision;
+
+    /**
+     * Factor the output is upsampled by when colorizing.
+     */
+    private final int mSampling;
+
+    private final HeatmapTileProvider.Aggregation mAggregation;
+
+    /**
+     * Padded input, mPaddedDim x mPaddedDim.
+     */
+    private double[] mGrid;
+    private float[] mFloatGrid;
+
+    /**
+     * Horizontally convolved input, mPaddedDim rows of mDim columns.
+     */
+    private double[] mIntermediate;
+    private float[] mFloatIntermediate;
+
+    /**
+     * Convolved output, mDim x mDim.
+     */
+    private double[] mOutput;
+    private float[] mFloatOutput;
+
+    /**
+     * Point counts, convolved as the intensities are, when taking means.
+     */
+    private double[] mCounts;
+    private float[] mFloatCounts;
+    private double[] mCountIntermediate;
+    private float[] mFloatCountIntermediate;
+    private double[] mCountOutput;
+    private float[] mFloatCountOutput;
+
+    private final int[] mColors;
+
+    /**
+     * Whether each row of the padded input has data.
+     */
+    private final boolean[] mRows;
+
+    /**
+     * Extent of the data in the padded input. Empty when min > max.
+     */
+    private int mMinX;
+    private int mMaxX;
+    private int mMinY;
+    private int mMaxY;
+
+    /**
+     * @param dim            width and height of the output, in pixels.
+     * @param radius         radius of the kernel, which pads the input on each side.
+     * @param floatPrecision whether to use floats rather than doubles, halving memory use.
+     * @param sampling       factor the output is upsampled by when colorizing.
+     * @param aggregation    how points in the same bucket are combined.
+     */
+    TileGrid(int dim, int radius, boolean floatPrecision, int sampling,
+             HeatmapTileProvider.Aggregation aggregation) {
+        mDim = dim;
+        mRadius = radius;
+        mPaddedDim = dim + 2 * radius;
+        mFloatPrecision = floatPrecision;
+        mSampling = sampling;
+        mAggregation = aggregation;
+        boolean mean = aggregation == HeatmapTileProvider.Aggregation.MEAN;
+        if (floatPrecision) {
+            mFloatGrid = new float[mPaddedDim * mPaddedDim];
+            mFloatIntermediate = new float[mPaddedDim * mDim];
+            mFloatOutput = new float[mDim * mDim];
+            if (mean) {
+                mFloatCounts = new float[mPaddedDim * mPaddedDim];
+                mFloatCountIntermediate = new float[mPaddedDim * mDim];
+                mFloatCountOutput = new float[mDim * mDim];
+            }
+        } else {
+            mGrid = new double[mPaddedDim * mPaddedDim];
+            mIntermediate = new double[mPaddedDim * mDim];
+            mOutput = new double[mDim * mDim];
+            if (mean) {
+                mCounts = new double[mPaddedDim * mPaddedDim];
+                mCountIntermediate = new double[mPaddedDim * mDim];
+                mCountOutput = new double[mDim * mDim];
+            }
+        }
+        mColors = new int[mDim * sampling * mDim * sampling];
+        mRows = new boolean[mPaddedDim];
+        resetExtent();
+    }
+
+    /**
+     * @return whether this grid can render tiles with the given options.
+     */
+    boolean matches(int dim, int radius, boolean floatPrecision, int sampling,
+                    HeatmapTileProvider.Aggregation aggregation) {
+        return mDim == dim && mRadius == radius && mFloatPrecision == floatPrecision
+                && mSampling == sampling && mAggregation == aggregation;
+    }
+
+    int getDim() {
+        return mDim;
+    }
+
+    int getPaddedDim() {
+        return mPaddedDim;
+    }
+
+    /**
+     * Adds intensity to a bucket of the padded input. Buckets outside the grid are ignored, as
+     * are intensities of zero unless taking means, and negative intensities when taking maxes.
+     */
+    void add(int x, int y, double intensity) {
+        if (x < 0 || x >= mPaddedDim || y < 0 || y >= mPaddedDim) {
+            return;
+        }
+        // Points of no intensity still count towards means
+        if (intensity == 0 && mAggregation != HeatmapTileProvider.Aggregation.MEAN) {
+            return;
+        }
+        int index = y * mPaddedDim + x;
+        switch (mAggregation) {
+            case MAX:
+                if (intensity < 0) {
+                    return;
+                }
+                if (mFloatPrecision) {
+                    mFloatGrid[index] = Math.max(mFloatGrid[index], (float) intensity);
+                } else {
+                    mGrid[index] = Math.max(mGrid[index], intensity);
+                }
+                break;
+            case MEAN:
+                if (mFloatPrecision) {
+                    mFloatCounts[index]++;
+                } else {
+                    mCounts[index]++;
+                }
+                // Fall through to sum the intensities
+            default:
+                if (mFloatPrecision) {
+                    mFloatGrid[index] += (float) intensity;
+                } else {
+                    mGrid[index] += intensity;
+                }
+        }
+        mRows[y] = true;
+        if (x < mMinX) mMinX = x;
+        if (x > mMaxX) mMaxX = x;
+        if (y < mMinY) mMinY = y;
+        if (y > mMaxY) mMaxY = y;
+    }
+
+    /**
+     * @return whether nothing has been added since the grid was last cleared.
+     */
+    boolean isEmpty() {
+        return mMinX > mMaxX;
+    }
+
+    /**
+     * Convolves the input with a kernel of size radius * 2 + 1, horizontally then vertically.
+     */
+    void convolve(double[] kernel) {
+        if (isEmpty()) {
+            return;
+        }
+        boolean max = mAggregation == HeatmapTileProvider.Aggregation.MAX;
+        if (mFloatPrecision) {
+            float[] floatKernel = toFloat(kernel);
+            convolveFloat(mFloatGrid, mFloatIntermediate, mFloatOutput, floatKernel, max);
+            if (mAggregation == HeatmapTileProvider.Aggregation.MEAN) {
+                convolveFloat(mFloatCounts, mFloatCountIntermediate, mFloatCountOutput,
+                        floatKernel, false);
+                divideByCounts();
+            }
+        } else {
+            convolveDouble(mGrid, mIntermediate, mOutput, kernel, max);
+            if (mAggregation == HeatmapTileProvider.Aggregation.MEAN) {
+                convolveDouble(mCounts, mCountIntermediate, mCountOutput, kernel, false);
+                divideByCounts();
+            }
+        }
+    }
+
+    private static float[] toFloat(double[] kernel) {
+        float[] floatKernel = new float[kernel.length];
+        for (int i = 0; i < kernel.length; i++) {
+            floatKernel[i] = (float) kernel[i];
+        }
+        return floatKernel;
+    }
+
+    /**
+     * @param max whether to take the largest intensity scaled by the kernel, rather than the sum.
+     */
+    private void convolveDouble(double[] grid, double[] intermediate, double[] output,
+                                double[] kernel, boolean max) {
+        int radius = mRadius;
+        int upperLimit = radius + mDim - 1;
+
+        // Convolve horizontally, into the columns within the non-padded area.
+        for (int y = mMinY; y <= mMaxY; y++) {
+            if (!mRows[y]) continue;
+            int row = y * mPaddedDim;
+            int intermediateRow = y * mDim - radius;
+            for (int x = mMinX; x <= mMaxX; x++) {
+                double val = grid[row + x];
+                if (val == 0) continue;
+                int initial = Math.max(radius, x - radius);
+                int limit = Math.min(upperLimit, x + radius);
+                int offset = radius - x;
+                if (max) {
+                    for (int x2 = initial; x2 <= limit; x2++) {
+                        int index = intermediateRow + x2;
+                        intermediate[index] = Math.max(intermediate[index],
+                                val * kernel[x2 + offset]);
+                    }
+                } else {
+                    for (int x2 = initial; x2 <= limit; x2++) {
+                        intermediate[intermediateRow + x2] += val * kernel[x2 + offset];
+                    }
+                }
+            }
+        }
+
+        // Convolve vertically, a whole row of columns with data at a time.
+        int minColumn = getMinColumn();
+        int maxColumn = getMaxColumn();
+        for (int y = mMinY; y <= mMaxY; y++) {
+            if (!mRows[y]) continue;
+            int intermediateRow = y * mDim;
+            int initial = Math.max(radius, y - radius);
+            int limit = Math.min(upperLimit, y + radius);
+            for (int y2 = initial; y2 <= limit; y2++) {
+                double k = kernel[y2 - y + radius];
+                int outputRow = (y2 - radius) * mDim;
+                if (max) {
+                    for (int x = minColumn; x <= maxColumn; x++) {
+                        output[outputRow + x] = Math.max(output[outputRow + x],
+                                k * intermediate[intermediateRow + x]);
+                    }
+                } else {
+                    for (int x = minColumn; x <= maxColumn; x++) {
+                        output[outputRow + x] += k * intermediate[intermediateRow + x];
+                    }
+                }
+            }
+        }
+    }
+
+    private void convolveFloat(float[] grid, float[] intermediate, float[] output,
+                               float[] kernel, boolean max) {
+        int radius = mRadius;
+        int upperLimit = radius + mDim - 1;
+
+        for (int y = mMinY; y <= mMaxY; y++) {
+            if (!mRows[y]) continue;
+            int row = y * mPaddedDim;
+            int intermediateRow = y * mDim - radius;
+            for (int x = mMinX; x <= mMaxX; x++) {
+                float val = grid[row + x];
+                if (val == 0) continue;
+                int initial = Math.max(radius, x - radius);
+                int limit = Math.min(upperLimit, x + radius);
+                int offset = radius - x;
+                if (max) {
+                    for (int x2 = initial; x2 <= limit; x2++) {
+                        int index = intermediateRow + x2;
+                        intermediate[index] = Math.max(intermediate[index],
+                                val * kernel[x2 + offset]);
+                    }
+                } else {
+                    for (int x2 = initial; x2 <= limit; x2++) {
+                        intermediate[intermediateRow + x2] += val * kernel[x2 + offset];
+                    }
+                }
+            }
+        }
+
+        int minColumn = getMinColumn();
+        int maxColumn = getMaxColumn();
+        for (int y = mMinY; y <= mMaxY; y++) {
+            if (!mRows[y]) continue;
+            int intermediateRow = y * mDim;
+            int initial = Math.max(radius, y - radius);
+            int limit = Math.min(upperLimit, y + radius);
+            for (int y2 = initial; y2 <= limit; y2++) {
+                float k = kernel[y2 - y + radius];
+                int outputRow = (y2 - radius) * mDim;
+                if (max) {
+                    for (int x = minColumn; x <= maxColumn; x++) {
+                        output[outputRow + x] = Math.max(output[outputRow + x],
+                                k * intermediate[intermediateRow + x]);
+                    }
+                } else {
+                    for (int x = minColumn; x <= maxColumn; x++) {
+                        output[outputRow + x] += k * intermediate[intermediateRow + x];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the 2D kernel, the outer product of the given one with itself, around each bucket of
+     * the padded input into the output, or takes the largest when taking maxes. Gives the same
+     * output as convolve, but takes time proportional to the number of buckets with data rather
+     * than to the area they span, so is faster for a few scattered points.
+     */
+    void splat(double[] kernel) {
+        if (isEmpty()) {
+            return;
+        }
+        boolean max = mAggregation == HeatmapTileProvider.Aggregation.MAX;
+        if (mFloatPrecision) {
+            float[] floatKernel = toFloat(kernel);
+            splatFloat(mFloatGrid, mFloatOutput, floatKernel, max);
+            if (mAggregation == HeatmapTileProvider.Aggregation.MEAN) {
+                splatFloat(mFloatCounts, mFloatCountOutput, floatKernel, false);
+                divideByCounts();
+            }
+        } else {
+            splatDouble(mGrid, mOutput, kernel, max);
+            if (mAggregation == HeatmapTileProvider.Aggregation.MEAN) {
+                splatDouble(mCounts, mCountOutput, kernel, false);
+                divideByCounts();
+            }
+        }
+    }
+
+    /**
+     * @param max whether to take the largest intensity scaled by the kernel, rather than the sum.
+     */
+    private void splatDouble(double[] grid, double[] output, double[] kernel, boolean max) {
+        // A bucket at padded (x, y) reaches output columns x - 2 * radius to x, and likewise rows
+        int diameter = 2 * mRadius;
+        for (int y = mMinY; y <= mMaxY; y++) {
+            if (!mRows[y]) continue;
+            int row = y * mPaddedDim;
+            int initialY = Math.max(0, y - diameter);
+            int limitY = Math.min(mDim - 1, y);
+            for (int x = mMinX; x <= mMaxX; x++) {
+                double val = grid[row + x];
+                if (val == 0) continue;
+                int initialX = Math.max(0, x - diameter);
+                int limitX = Math.min(mDim - 1, x);
+                int offset = diameter - x;
+                for (int y2 = initialY; y2 <= limitY; y2++) {
+                    double rowVal = val * kernel[y2 - y + diameter];
+                    int outputRow = y2 * mDim;
+                    if (max) {
+                        for (int x2 = initialX; x2 <= limitX; x2++) {
+                            output[outputRow + x2] = Math.max(output[outputRow + x2],
+                                    rowVal * kernel[x2 + offset]);
+                        }
+                    } else {
+                        for (int x2 = initialX; x2 <= limitX; x2++) {
+                            output[outputRow + x2] += rowVal * kernel[x2 + offset];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void splatFloat(float[] grid, float[] output, float[] kernel, boolean max) {
+        int diameter = 2 * mRadius;
+        for (int y = mMinY; y <= mMaxY; y++) {
+            if (!mRows[y]) continue;
+            int row = y * mPaddedDim;
+            int initialY = Math.max(0, y - diameter);
+            int limitY = Math.min(mDim - 1, y);
+            for (int x = mMinX; x <= mMaxX; x++) {
+                float val = grid[row + x];
+                if (val == 0) continue;
+                int initialX = Math.max(0, x - diameter);
+                int limitX = Math.min(mDim - 1, x);
+                int offset = diameter - x;
+                for (int y2 = initialY; y2 <= limitY; y2++) {
+                    float rowVal = val * kernel[y2 - y + diameter];
+                    int outputRow = y2 * mDim;
+                    if (max) {
+                        for (int x2 = initialX; x2 <= limitX; x2++) {
+                            output[outputRow + x2] = Math.max(output[outputRow + x2],
+                                    rowVal * kernel[x2 + offset]);
+                        }
+                    } else {
+                        for (int x2 = initialX; x2 <= limitX; x2++) {
+                            output[outputRow + x2] += rowVal * kernel[x2 + offset];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Divides the convolved intensities by the convolved counts, giving weighted means.
+     */
+    private void divideByCounts() {
+        int minColumn = getMinColumn();
+        int maxColumn = getMaxColumn();
+        for (int y = getMinOutputRow(); y <= getMaxOutputRow(); y++) {
+            for (int index = y * mDim + minColumn; index <= y * mDim + maxColumn; index++) {
+                if (mFloatPrecision) {
+                    float count = mFloatCountOutput[index];
+                    if (count > 0) {
+                        mFloatOutput[index] /= count;
+                    }
+                } else {
+                    double count = mCountOutput[index];
+                    if (count > 0) {
+                        mOutput[index] /= count;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the output value at (x, y), once convolved.
+     */
+    double getOutput(int x, int y) {
+        return mFloatPrecision ? mFloatOutput[y * mDim + x] : mOutput[y * mDim + x];
+    }
+
+    /**
+     * @return the convolved output, quantized to keep for recoloring.
+     */
+    QuantizedGrid quantize() {
+        if (isEmpty()) {
+            return new QuantizedGrid(mDim, 0, 0, 0, new char[0], 0);
+        }
+        int minColumn = getMinColumn();
+        int maxColumn = getMaxColumn();
+        int minRow = getMinOutputRow();
+        int maxRow = getMaxOutputRow();
+        int width = maxColumn - minColumn + 1;
+
+        double max = 0;
+        for (int y = minRow; y <= maxRow; y++) {
+            for (int index = y * mDim + minColumn; index <= y * mDim + maxColumn; index++) {
+                max = Math.max(max, mFloatPrecision ? mFloatOutput[index] : mOutput[index]);
+            }
+        }
+        double step = QuantizedGrid.getStep(max);
+        char[] values = new char[width * (maxRow - minRow + 1)];
+        if (max > 0) {
+            int i = 0;
+            for (int y = minRow; y <= maxRow; y++) {
+                for (int index = y * mDim + minColumn; index <= y * mDim + maxColumn; index++) {
+                    values[i++] = QuantizedGrid.quantize(
+                            mFloatPrecision ? mFloatOutput[index] : mOutput[index], step);
+                }
+            }
+        }
+        return new QuantizedGrid(mDim, minColumn, minRow, width, values, step);
+    }
+
+    /**
+     * Colors a grid kept from an earlier tile, using this grid's color buffer.
+     *
+     * @return the colors, row by row. Only valid until the grid is next used.
+     */
+    int[] colorize(QuantizedGrid grid, int[] colorMap, double max) {
+        if (mSampling == 1) {
+            grid.colorize(mColors, colorMap, max);
+        } else {
+            colorizeUpsampled(grid, colorMap, max, grid.getMinX(), grid.getMaxX(),
+                    grid.getMinY(), grid.getMaxY());
+        }
+        return mColors;
+    }
+
+    /**
+     * Colors the convolved output, and clears the grid for the next tile.
+     *
+     * @param colorMap color map (created by generateColorMap)
+     * @param max      Maximum intensity value: maps to 100% on gradient
+     * @return the colors, row by row. Only valid until the grid is next used.
+     */
+    int[] colorize(int[] colorMap, double max) {
+        if (mSampling != 1) {
+            if (isEmpty()) {
+                Arrays.fill(mColors, Color.TRANSPARENT);
+            } else {
+                colorizeUpsampled(null, colorMap, max, getMinColumn(), getMaxColumn(),
+                        getMinOutputRow(), getMaxOutputRow());
+            }
+            clear();
+            return mColors;
+        }
+        Arrays.fill(mColors, Color.TRANSPARENT);
+        if (!isEmpty()) {
+            int maxColor = colorMap[colorMap.length - 1];
+            double colorMapScaling = (colorMap.length - 1) / max;
+            int minColumn = getMinColumn();
+            int maxColumn = getMaxColumn();
+            for (int y = getMinOutputRow(); y <= getMaxOutputRow(); y++) {
+                for (int index = y * mDim + minColumn; index <= y * mDim + maxColumn; index++) {
+                    double val = mFloatPrecision ? mFloatOutput[index] : mOutput[index];
+                    if (val != 0) {
+                        int col = (int) (val * colorMapScaling);
+                        // Make it more resilient: cant go outside colorMap
+                        mColors[index] = col < colorMap.length ? colorMap[col] : maxColor;
+                    }
+                }
+            }
+        }
+        clear();
+        return mColors;
+    }
+
+    /**
+     * Colors the output, or a grid kept from an earlier tile, upsampled by mSampling. Only the
+     * pixels near the given rectangle of the output are interpolated, as the rest is empty.
+     *
+     * @param grid the grid to color, or null for the output
+     */
+    private void colorizeUpsampled(QuantizedGrid grid, int[] colorMap, double max,
+                                   int minX, int maxX, int minY, int maxY) {
+        Arrays.fill(mColors, Color.TRANSPARENT);
+        int maxColor = colorMap[colorMap.length - 1];
+        double colorMapScaling = (colorMap.length - 1) / max;
+        int dim = mDim * mSampling;
+        int endX = Math.min(dim, (maxX + 2) * mSampling);
+        int endY = Math.min(dim, (maxY + 2) * mSampling);
+        for (int y = Math.max(0, (minY - 1) * mSampling); y < endY; y++) {
+            // Position in the output, with pixel centers at whole numbers
+            double sourceY = (y + 0.5) / mSampling - 0.5;
+            int y0 = (int) Math.floor(sourceY);
+            double fy = sourceY - y0;
+            int y1 = Math.min(mDim - 1, y0 + 1);
+            y0 = Math.max(0, y0);
+            for (int x = Math.max(0, (minX - 1) * mSampling); x < endX; x++) {
+                double sourceX = (x + 0.5) / mSampling - 0.5;
+                int x0 = (int) Math.floor(sourceX);
+                double fx = sourceX - x0;
+                int x1 = Math.min(mDim - 1, x0 + 1);
+                x0 = Math.max(0, x0);
+                double val = (1 - fy) * ((1 - fx) * sample(grid, x0, y0) + fx * sample(grid, x1, y0))
+                        + fy * ((1 - fx) * sample(grid, x0, y1) + fx * sample(grid, x1, y1));
+                if (val != 0) {
+                    int col = (int) (val * colorMapScaling);
+                    mColors[y * dim + x] = col < colorMap.length ? colorMap[col] : maxColor;
+                }
+            }
+        }
+    }
+
+    private double sample(QuantizedGrid grid, int x, int y) {
+        return grid != null ? grid.get(x, y) : getOutput(x, y);
+    }
+
+    /**
+     * Clears what was written since the grid was last cleared.
+     */
+    void clear() {
+        if (isEmpty()) {
+            return;
+        }
+        int minColumn = getMinColumn();
+        int maxColumn = getMaxColumn();
+        for (int y = mMinY; y <= mMaxY; y++) {
+            if (!mRows[y]) continue;
+            mRows[y] = false;
+            if (mFloatPrecision) {
+                Arrays.fill(mFloatGrid, y * mPaddedDim + mMinX, y * mPaddedDim + mMaxX + 1, 0);
+                Arrays.fill(mFloatIntermediate, y * mDim + minColumn, y * mDim + maxColumn + 1, 0);
+                if (mFloatCounts != null) {
+                    Arrays.fill(mFloatCounts, y * mPaddedDim + mMinX,
+                            y * mPaddedDim + mMaxX + 1, 0);
+                    Arrays.fill(mFloatCountIntermediate, y * mDim + minColumn,
+                            y * mDim + maxColumn + 1, 0);
+                }
+            } else {
+                Arrays.fill(mGrid, y * mPaddedDim + mMinX, y * mPaddedDim + mMaxX + 1, 0);
+                Arrays.fill(mIntermediate, y * mDim + minColumn, y * mDim + maxColumn + 1, 0);
+                if (mCounts != null) {
+                    Arrays.fill(mCounts, y * mPaddedDim + mMinX, y * mPaddedDim + mMaxX + 1, 0);
+                    Arrays.fill(mCountIntermediate, y * mDim + minColumn,
+                            y * mDim + maxColumn + 1, 0);
+                }
+            }
+        }
+        for (int y = getMinOutputRow(); y <= getMaxOutputRow(); y++) {
+            if (mFloatPrecision) {
+                Arrays.fill(mFloatOutput, y * mDim + minColumn, y * mDim + maxColumn + 1, 0);
+                if (mFloatCountOutput != null) {
+                    Arrays.fill(mFloatCountOutput, y * mDim + minColumn,
+                            y * mDim + maxColumn + 1, 0);
+                }
+            } else {
+                Arrays.fill(mOutput, y * mDim + minColumn, y * mDim + maxColumn + 1, 0);
+                if (mCountOutput != null) {
+                    Arrays.fill(mCountOutput, y * mDim + minColumn, y * mDim + maxColumn + 1, 0);
+                }
+            }
+        }
+        resetExtent();
+    }
+
+    private void resetExtent() {
+        mMinX = mPaddedDim;
+        mMaxX = -1;
+        mMinY = mPaddedDim;
+        mMaxY = -1;
+    }
+
+    /*
+     * Output columns and rows reached by the data: the data's extent, grown by the radius, and
+     * shifted by the padding.
+     */
+
+    private int getMinColumn() {
+        return Math.max(0, mMinX - 2 * mRadius);
+    }
+
+    private int getMaxColumn() {
+        return Math.min(mDim - 1, mMaxX);
+    }
+
+    private int getMinOutputRow() {
+        return Math.max(0, mMinY - 2 * mRadius);
+    }
+
+    private int getMaxOutputRow() {
+        return Math.min(mDim - 1, mMaxY);
+    }
+}
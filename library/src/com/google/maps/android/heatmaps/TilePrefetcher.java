@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.TileProvider;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the tiles around the camera ahead of the map requesting them, so they are cached by the
+ * time it does.
+ * <p/>
+ * The visible tiles are rendered first, nearest the center first, then a ring of one tile around
+ * them, then the tiles covering them at the zoom level above and below. Moving the camera drops
+ * the tiles not yet started.
+ */
+class TilePrefetcher {
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    // Order in which kinds of tiles are rendered.
+    private static final int PRIORITY_VISIBLE = 0;
+    private static final int PRIORITY_RING = 1;
+    private static final int PRIORITY_PARENT = 2;
+    private static final int PRIORITY_CHILD = 3;
+
+    private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
+
+    private final TileProvider mProvider;
+    private final int mMaxZoom;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Incremented whenever the camera moves, so tasks from before can tell they are stale.
+     */
+    private volatile int mGeneration;
+
+    /**
+     * @param provider provider to request the tiles from, which caches them.
+     * @param threads  maximum number of threads rendering tiles at once.
+     * @param maxZoom  highest zoom level tiles are rendered at.
+     */
+    TilePrefetcher(TileProvider provider, int threads, int maxZoom) {
+        mProvider = provider;
+        mMaxZoom = maxZoom;
+        // Tasks are queued by priority once all threads are busy. They are queued sorted, so the
+        // tasks run straight away by new threads are the first ones too.
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HeatmapTilePrefetcher");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Drops the tiles waiting to be rendered, and queues the tiles around the visible region.
+     *
+     * @param visibleBounds bounds of the visible region of the map.
+     * @param zoom          zoom level of the tiles the map shows.
+     */
+    void prefetch(LatLngBounds visibleBounds, int zoom) {
+        int generation = ++mGeneration;
+        mExecutor.getQueue().clear();
+        for (Task task : getTasks(visibleBounds, Math.min(zoom, mMaxZoom), generation)) {
+            mExecutor.execute(task);
+        }
+    }
+
+    /**
+     * Drops the tiles waiting to be rendered.
+     */
+    void cancel() {
+        mGeneration++;
+        mExecutor.getQueue().clear();
+    }
+
+    /**
+     * @return the tiles to render for the visible region, in the order to render them.
+     */
+    List<Task> getTasks(LatLngBounds visibleBounds, int zoom, int generation) {
+        Point sw = PROJECTION.toPoint(visibleBounds.southwest);
+        Point ne = PROJECTION.toPoint(visibleBounds.northeast);
+        double maxX = ne.x;
+        if (sw.x > maxX) {
+            // Crosses the antimeridian
+            maxX += 1;
+        }
+        // Y increases to the south
+        double minY = ne.y;
+        double maxY = sw.y;
+        double centerX = (sw.x + maxX) / 2;
+        double centerY = (minY + maxY) / 2;
+
+        List<Task> tasks = new ArrayList<Task>();
+        Set<Long> added = new HashSet<Long>();
+        int tiles = 1 << zoom;
+        int minTileX = (int) Math.floor(sw.x * tiles);
+        int maxTileX = (int) Math.floor(maxX * tiles);
+        int minTileY = clamp((int) Math.floor(minY * tiles), tiles);
+        int maxTileY = clamp((int) Math.floor(maxY * tiles), tiles);
+        addTiles(tasks, added, zoom, minTileX, maxTileX, minTileY, maxTileY, PRIORITY_VISIBLE,
+                centerX, centerY, generation);
+        addTiles(tasks, added, zoom, minTileX - 1, maxTileX + 1, minTileY - 1, maxTileY + 1,
+                PRIORITY_RING, centerX, centerY, generation);
+        if (zoom > 0) {
+            addTiles(tasks, added, zoom - 1, floorDiv(minTileX, 2), floorDiv(maxTileX, 2),
+                    minTileY / 2, maxTileY / 2, PRIORITY_PARENT, centerX, centerY, generation);
+        }
+        if (zoom < mMaxZoom) {
+            addTiles(tasks, added, zoom + 1, minTileX * 2, maxTileX * 2 + 1,
+                    minTileY * 2, maxTileY * 2 + 1, PRIORITY_CHILD, centerX, centerY, generation);
+        }
+        Collections.sort(tasks);
+        return tasks;
+    }
+
+    /**
+     * Adds the tiles in the range not already added, wrapping x around the world and clamping y
+     * to it.
+     */
+    private void addTiles(List<Task> tasks, Set<Long> added, int zoom,
+                          int minX, int maxX, int minY, int maxY, int priority,
+                          double centerX, double centerY, int generation) {
+        int tiles = 1 << zoom;
+        if (maxX - minX + 1 > tiles) {
+            minX = (int) Math.floor(centerX * tiles) - tiles / 2;
+            maxX = minX + tiles - 1;
+        }
+        minY = clamp(minY, tiles);
+        maxY = clamp(maxY, tiles);
+        for (int x = minX; x <= maxX; x++) {
+            int wrappedX = x - floorDiv(x, tiles) * tiles;
+            for (int y = minY; y <= maxY; y++) {
+                if (added.add(TileCache.getKey(wrappedX, y, zoom))) {
+                    double dx = (x + 0.5) / tiles - centerX;
+                    double dy = (y + 0.5) / tiles - centerY;
+                    tasks.add(new Task(wrappedX, y, zoom, priority, dx * dx + dy * dy,
+                            generation));
+                }
+            }
+        }
+    }
+
+    private static int clamp(int tile, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, tile));
+    }
+
+    private static int floorDiv(int a, int b) {
+        return (int) Math.floor((double) a / b);
+    }
+
+    /**
+     * A tile to render.
+     */
+    class Task implements Runnable, Comparable<Task> {
+        final int mX;
+        final int mY;
+        final int mZoom;
+        final int mPriority;
+
+        /**
+         * Squared distance from the center of the visible region, in world units.
+         */
+        private final double mDistance;
+
+        private final int mGeneration;
+
+        Task(int x, int y, int zoom, int priority, double distance, int generation) {
+            mX = x;
+            mY = y;
+            mZoom = zoom;
+            mPriority = priority;
+            mDistance = distance;
+            mGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+            if (mGeneration == TilePrefetcher.this.mGeneration) {
+                mProvider.getTile(mX, mY, mZoom);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return Double.compare(mDistance, other.mDistance);
+        }
+    }
+}
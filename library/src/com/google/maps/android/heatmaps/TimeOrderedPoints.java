@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Points ordered by time, in segments of bounded size, so that the points in a time range can be
+ * found, and points added and expired, in time proportional to their number.
+ * <p/>
+ * Segments cover consecutive, non-overlapping time ranges. Points are usually appended in time
+ * order to the last segment; points arriving out of order are inserted into the segment covering
+ * their time, which is split when it is full.
+ */
+class TimeOrderedPoints {
+    static final int SEGMENT_SIZE = 1024;
+
+    private final List<Segment> mSegments = new ArrayList<Segment>();
+    private int mSize;
+
+    /**
+     * @return the number of points.
+     */
+    int size() {
+        return mSize;
+    }
+
+    void add(TimedWeightedLatLng point) {
+        long time = point.getTime();
+        int index = mSegments.size() - 1;
+        if (index < 0 || time >= mSegments.get(index).getMaxTime()) {
+            // Appended in time order
+            if (index < 0 || mSegments.get(index).mSize == SEGMENT_SIZE) {
+                mSegments.add(new Segment());
+                index++;
+            }
+        } else {
+            // The first segment ending after the point, where the point goes after any points of
+            // the same time
+            index = findSegment(time, true);
+        }
+        Segment segment = mSegments.get(index);
+        if (segment.mSize == SEGMENT_SIZE) {
+            mSegments.add(index + 1, segment.split());
+            if (time >= mSegments.get(index + 1).getMinTime()) {
+                segment = mSegments.get(index + 1);
+            }
+        }
+        segment.insert(point);
+        mSize++;
+    }
+
+    /**
+     * Adds the points with times from start, inclusive, to end, exclusive, in time order.
+     */
+    void collect(long start, long end, Collection<WeightedLatLng> out) {
+        if (start >= end) {
+            return;
+        }
+        for (int i = findSegment(start, false); i < mSegments.size(); i++) {
+            Segment segment = mSegments.get(i);
+            if (segment.getMinTime() >= end) {
+                break;
+            }
+            for (int j = segment.lowerBound(start); j < segment.mSize && segment.mTimes[j] < end; j++) {
+                out.add(segment.mPoints[j]);
+            }
+        }
+    }
+
+    /**
+     * Removes the points with times before the given time.
+     */
+    void removeBefore(long time) {
+        int removed = 0;
+        while (!mSegments.isEmpty()) {
+            Segment segment = mSegments.get(0);
+            if (segment.getMaxTime() < time) {
+                removed += segment.mSize;
+                mSegments.remove(0);
+            } else {
+                removed += segment.removeBefore(time);
+                break;
+            }
+        }
+        mSize -= removed;
+    }
+
+    /**
+     * @param after whether to find the segment for points after those of the given time, rather
+     *              than the first segment with any point of that time or later.
+     * @return index of the first segment ending at or after time, or after time if after is set,
+     * or the last segment if there is none.
+     */
+    private int findSegment(long time, boolean after) {
+        int low = 0;
+        int high = mSegments.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long maxTime = mSegments.get(mid).getMaxTime();
+            if (after ? maxTime <= time : maxTime < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Points sorted by time, in parallel arrays.
+     */
+    private static class Segment {
+        private final TimedWeightedLatLng[] mPoints = new TimedWeightedLatLng[SEGMENT_SIZE];
+        private final long[] mTimes = new long[SEGMENT_SIZE];
+        private int mSize;
+
+        private long getMinTime() {
+            return mTimes[0];
+        }
+
+        private long getMaxTime() {
+            return mTimes[mSize - 1];
+        }
+
+        /**
+         * @return index of the first point at or after time.
+         */
+        private int lowerBound(long time) {
+            return bound(time, false);
+        }
+
+        private int bound(long time, boolean after) {
+            int low = 0;
+            int high = mSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (after ? mTimes[mid] <= time : mTimes[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Inserts the point after any points of the same time. The segment must not be full.
+         */
+        private void insert(TimedWeightedLatLng point) {
+            int index = bound(point.getTime(), true);
+            System.arraycopy(mPoints, index, mPoints, index + 1, mSize - index);
+            System.arraycopy(mTimes, index, mTimes, index + 1, mSize - index);
+            mPoints[index] = point;
+            mTimes[index] = point.getTime();
+            mSize++;
+        }
+
+        /**
+         * Moves the later half of the points to a new segment.
+         */
+        private Segment split() {
+            Segment later = new Segment();
+            int half = mSize / 2;
+            later.mSize = mSize - half;
+            System.arraycopy(mPoints, half, later.mPoints, 0, later.mSize);
+            System.arraycopy(mTimes, half, later.mTimes, 0, later.mSize);
+            Arrays.fill(mPoints, half, mSize, null);
+            mSize = half;
+            return later;
+        }
+
+        /**
+         * @return the number of points removed.
+         */
+        private int removeBefore(long time) {
+            int removed = lowerBound(time);
+            System.arraycopy(mPoints, removed, mPoints, 0, mSize - removed);
+            System.arraycopy(mTimes, removed, mTimes, 0, mSize - removed);
+            Arrays.fill(mPoints, mSize - removed, mSize, null);
+            mSize -= removed;
+            return removed;
+        }
+    }
+}
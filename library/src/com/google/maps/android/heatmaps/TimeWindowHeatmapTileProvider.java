@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Heatmap of the points within a window of time, such as the last 15 minutes.
+ * <p/>
+ * Points are kept in time order, so moving the window only finds the points entering and leaving
+ * it, and adds them to or removes them from a {@link HeatmapTileProvider}, which updates its
+ * bucketed intensities and the tiles near them. The cost of each move is proportional to the
+ * number of points that changed, not to the number of points.
+ */
+public class TimeWindowHeatmapTileProvider implements TileProvider {
+
+    private final HeatmapTileProvider.Builder mBuilder;
+
+    /**
+     * Heatmap of the points in the window, or null until the window first has any points
+     */
+    private volatile HeatmapTileProvider mProvider;
+
+    private final TimeOrderedPoints mPoints = new TimeOrderedPoints();
+
+    /**
+     * Start of the window, inclusive
+     */
+    private long mStart;
+
+    /**
+     * End of the window, exclusive
+     */
+    private long mEnd;
+
+    /**
+     * Constructor
+     *
+     * @param builder Options of the heatmap, such as its radius and gradient. Any data set on the
+     *                builder is replaced by the points in the window.
+     * @param start   Start of the window, inclusive
+     * @param end     End of the window, exclusive
+     */
+    public TimeWindowHeatmapTileProvider(HeatmapTileProvider.Builder builder, long start, long end) {
+        if (start > end) {
+            throw new IllegalArgumentException("Window must not end before it starts");
+        }
+        mBuilder = builder;
+        mStart = start;
+        mEnd = end;
+    }
+
+    /**
+     * Adds points, in any order, though adding them in time order is fastest.
+     *
+     * @param points Points to add
+     */
+    public synchronized void addPoints(Collection<TimedWeightedLatLng> points) {
+        List<WeightedLatLng> entering = new ArrayList<WeightedLatLng>();
+        for (TimedWeightedLatLng point : points) {
+            mPoints.add(point);
+            if (point.getTime() >= mStart && point.getTime() < mEnd) {
+                entering.add(point);
+            }
+        }
+        update(new ArrayList<WeightedLatLng>(), entering);
+    }
+
+    /**
+     * Forgets the points before the given time, which can then no longer be shown.
+     *
+     * @param time Time before which points are removed
+     */
+    public synchronized void removePointsBefore(long time) {
+        List<WeightedLatLng> leaving = new ArrayList<WeightedLatLng>();
+        mPoints.collect(mStart, Math.min(mEnd, time), leaving);
+        mPoints.removeBefore(time);
+        update(leaving, new ArrayList<WeightedLatLng>());
+    }
+
+    /**
+     * Moves the window. Only tiles near the points entering or leaving the window are rendered
+     * again, unless the max intensities change and the builder's update strategy renormalizes.
+     *
+     * @param start Start of the window, inclusive
+     * @param end   End of the window, exclusive
+     */
+    public synchronized void setWindow(long start, long end) {
+        if (start > end) {
+            throw new IllegalArgumentException("Window must not end before it starts");
+        }
+        List<WeightedLatLng> leaving = new ArrayList<WeightedLatLng>();
+        List<WeightedLatLng> entering = new ArrayList<WeightedLatLng>();
+        if (start >= mEnd || end <= mStart) {
+            // The windows do not overlap
+            mPoints.collect(mStart, mEnd, leaving);
+            mPoints.collect(start, end, entering);
+        } else {
+            mPoints.collect(mStart, start, leaving);
+            mPoints.collect(end, mEnd, leaving);
+            mPoints.collect(start, mStart, entering);
+            mPoints.collect(mEnd, end, entering);
+        }
+        mStart = start;
+        mEnd = end;
+        update(leaving, entering);
+    }
+
+    /**
+     * @return the start of the window, inclusive
+     */
+    public synchronized long getStart() {
+        return mStart;
+    }
+
+    /**
+     * @return the end of the window, exclusive
+     */
+    public synchronized long getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * @return the heatmap of the points in the window, for changing its settings, or null if the
+     * window has not had any points yet
+     */
+    public HeatmapTileProvider getHeatmapTileProvider() {
+        return mProvider;
+    }
+
+    private void update(List<WeightedLatLng> leaving, List<WeightedLatLng> entering) {
+        if (mProvider == null) {
+            // The heatmap needs points to be built
+            if (!entering.isEmpty()) {
+                mProvider = mBuilder.weightedData(entering).build();
+            }
+            return;
+        }
+        mProvider.updateWeightedPoints(leaving, entering);
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        HeatmapTileProvider provider = mProvider;
+        return provider == null ? NO_TILE : provider.getTile(x, y, zoom);
+    }
+}
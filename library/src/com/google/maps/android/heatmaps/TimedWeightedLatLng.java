@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * A WeightedLatLng with the time of the event it records, for a
+ * {@link TimeWindowHeatmapTileProvider}.
+ */
+public class TimedWeightedLatLng extends WeightedLatLng {
+
+    /**
+     * Time of the event, such as milliseconds since the epoch
+     */
+    private final long mTime;
+
+    /**
+     * Constructor
+     *
+     * @param latLng    LatLng to add to wrapper
+     * @param intensity Intensity to use: should be greater than 0
+     *                  Default value is 1.
+     *                  This represents the "importance" or "value" of this particular point
+     *                  Higher intensity values map to higher colours.
+     *                  Intensity is additive: having two points of intensity 1 at the same
+     *                  location is identical to having one of intensity 2.
+     * @param time      Time of the event, in any unit, as long as all points use the same one
+     */
+    public TimedWeightedLatLng(LatLng latLng, double intensity, long time) {
+        super(latLng, intensity);
+        mTime = time;
+    }
+
+    /**
+     * Constructor that uses default value for intensity
+     *
+     * @param latLng LatLng to add to wrapper
+     * @param time   Time of the event
+     */
+    public TimedWeightedLatLng(LatLng latLng, long time) {
+        this(latLng, DEFAULT_INTENSITY, time);
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+}
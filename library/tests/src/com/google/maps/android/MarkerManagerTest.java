@@ -0,0 +1,27 @@
+package com.google.maps.android;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.quadtree.PointQuadTree;
+
+import junit.framework.TestCase;
+
+public class MarkerManagerTest extends TestCase {
+
+    public void testCulledMarkerNearPole() {
+        PointQuadTree<MarkerManager.CulledMarker> index =
+                new PointQuadTree<MarkerManager.CulledMarker>(0, 1, 0, 1);
+        MarkerManager.CulledMarker north =
+                new MarkerManager.CulledMarker(new MarkerOptions().position(new LatLng(89, 10)));
+        MarkerManager.CulledMarker south =
+                new MarkerManager.CulledMarker(new MarkerOptions().position(new LatLng(-89, 10)));
+        assertEquals(0.0, north.getPoint().y);
+        assertEquals(1.0, south.getPoint().y);
+
+        index.add(north);
+        index.add(south);
+        assertTrue(index.search(new Bounds(0, 1, 0, 0.1)).contains(north));
+        assertTrue(index.search(new Bounds(0, 1, 0.9, 1)).contains(south));
+    }
+}
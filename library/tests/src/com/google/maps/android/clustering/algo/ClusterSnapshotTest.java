@@ -0,0 +1,141 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ExpandableCluster;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ClusterSnapshotTest extends TestCase {
+
+    private List<TestItem> mItems;
+
+    public void setUp() {
+        mItems = new ArrayList<TestItem>();
+        mItems.add(new TestItem(10, 10));
+        mItems.add(new TestItem(-30, 100));
+        mItems.add(new TestItem(10.0001, 10.0001));
+        mItems.add(new TestItem(-30.0001, 100.0001));
+        mItems.add(new TestItem(50, -120));
+    }
+
+    public void testRoundTrip() throws IOException {
+        SnapshotAlgorithm<TestItem> algorithm = SnapshotAlgorithm.read(mItems, new ByteArrayInputStream(write(0, 21)));
+
+        Set<? extends Cluster<TestItem>> clusters = algorithm.getClusters(0);
+        assertEquals(3, clusters.size());
+        Set<TestItem> seen = new HashSet<TestItem>();
+        for (Cluster<TestItem> cluster : clusters) {
+            assertEquals(cluster.getSize(), cluster.getItems().size());
+            seen.addAll(cluster.getItems());
+            if (cluster.getSize() == 2) {
+                TestItem first = cluster.getItems().iterator().next();
+                assertEquals(first.getPosition().latitude, cluster.getPosition().latitude, 1e-3);
+            }
+        }
+        assertEquals(new HashSet<TestItem>(mItems), seen);
+
+        // Every item is on its own at high zoom levels, including those past the snapshot's range.
+        assertEquals(5, algorithm.getClusters(21).size());
+        assertEquals(5, algorithm.getClusters(30).size());
+    }
+
+    public void testExpansion() throws IOException {
+        SnapshotAlgorithm<TestItem> algorithm = new SnapshotAlgorithm<TestItem>(mItems, ByteBuffer.wrap(write(0, 21)));
+        for (Cluster<TestItem> cluster : algorithm.getClusters(0)) {
+            ExpandableCluster<TestItem> expandable = (ExpandableCluster<TestItem>) cluster;
+            LatLngBounds bounds = expandable.getBounds();
+            for (TestItem item : cluster.getItems()) {
+                assertTrue(bounds.contains(item.getPosition()));
+            }
+            if (cluster.getSize() == 2) {
+                int expansionZoom = expandable.getExpansionZoom();
+                assertTrue(expansionZoom > 0);
+                TestItem item = cluster.getItems().iterator().next();
+                assertEquals(2, findCluster(algorithm, expansionZoom - 1, item).getSize());
+                assertEquals(1, findCluster(algorithm, expansionZoom, item).getSize());
+            }
+        }
+    }
+
+    public void testZoomRange() throws IOException {
+        SnapshotAlgorithm<TestItem> algorithm = new SnapshotAlgorithm<TestItem>(mItems, ByteBuffer.wrap(write(3, 5)));
+        // Lower zoom levels are clustered like the lowest level in the snapshot.
+        assertEquals(3, algorithm.getClusters(0).size());
+        assertEquals(3, algorithm.getClusters(3).size());
+    }
+
+    public void testItemCountMismatch() throws IOException {
+        byte[] snapshot = write(0, 5);
+        try {
+            new SnapshotAlgorithm<TestItem>(mItems.subList(0, 4), ByteBuffer.wrap(snapshot));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testUnmodifiable() throws IOException {
+        SnapshotAlgorithm<TestItem> algorithm = new SnapshotAlgorithm<TestItem>(mItems, ByteBuffer.wrap(write(0, 5)));
+        try {
+            algorithm.addItem(new TestItem(0, 0));
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        // Clearing, as ClusterManager.clearItems does, leaves the snapshot's items in place.
+        algorithm.clearItems();
+        assertEquals(mItems.size(), algorithm.getItems().size());
+    }
+
+    public void testWriteFromArrays() throws IOException {
+        double[] latitudes = new double[mItems.size()];
+        double[] longitudes = new double[mItems.size()];
+        for (int i = 0; i < mItems.size(); i++) {
+            latitudes[i] = mItems.get(i).getPosition().latitude;
+            longitudes[i] = mItems.get(i).getPosition().longitude;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClusterSnapshotWriter.write(latitudes, longitudes, 0, 21, out);
+        assertTrue(Arrays.equals(write(0, 21), out.toByteArray()));
+    }
+
+    private static Cluster<TestItem> findCluster(SnapshotAlgorithm<TestItem> algorithm, int zoom, TestItem item) {
+        for (Cluster<TestItem> cluster : algorithm.getClusters(zoom)) {
+            if (cluster.getItems().contains(item)) {
+                return cluster;
+            }
+        }
+        return null;
+    }
+
+    private byte[] write(int minZoom, int maxZoom) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClusterSnapshotWriter.write(mItems, minZoom, maxZoom, out);
+        return out.toByteArray();
+    }
+
+    private static class TestItem implements ClusterItem {
+        private final LatLng mPosition;
+
+        private TestItem(double lat, double lng) {
+            mPosition = new LatLng(lat, lng);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+    }
+}
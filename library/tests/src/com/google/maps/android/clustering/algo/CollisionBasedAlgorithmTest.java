@@ -0,0 +1,125 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CollisionBasedAlgorithmTest extends TestCase {
+    private static final int ZOOM = 10;
+
+    /**
+     * Width of the world in dp at ZOOM.
+     */
+    private static final double WORLD_WIDTH = 256 * Math.pow(2, ZOOM);
+
+    public void testHorizontalOverlap() {
+        CollisionBasedAlgorithm<TestItem> algorithm = new CollisionBasedAlgorithm<TestItem>();
+        algorithm.addItem(new TestItem(0, 0));
+        algorithm.addItem(new TestItem(0, toDegrees(20)));
+        algorithm.addItem(new TestItem(0, toDegrees(60)));
+        assertEquals(Arrays.asList(1, 2), getSizes(algorithm, ZOOM));
+        // Further in, the icons no longer touch.
+        assertEquals(Arrays.asList(1, 1, 1), getSizes(algorithm, ZOOM + 1));
+    }
+
+    public void testVerticalOverlap() {
+        // Icons are taller than they are wide, and anchored at their bottom.
+        CollisionBasedAlgorithm<TestItem> algorithm = new CollisionBasedAlgorithm<TestItem>();
+        algorithm.addItem(new TestItem(0, 0));
+        algorithm.addItem(new TestItem(toDegrees(30), 0));
+        assertEquals(Arrays.asList(2), getSizes(algorithm, ZOOM));
+
+        algorithm.clearItems();
+        algorithm.addItem(new TestItem(0, 0));
+        algorithm.addItem(new TestItem(toDegrees(50), 0));
+        assertEquals(Arrays.asList(1, 1), getSizes(algorithm, ZOOM));
+    }
+
+    public void testIconSizeProvider() {
+        // Wide, flat icons make for more rows of cells than columns.
+        CollisionBasedAlgorithm<TestItem> algorithm = new CollisionBasedAlgorithm<TestItem>(
+                new CollisionBasedAlgorithm.IconSizeProvider<TestItem>() {
+                    @Override
+                    public int getIconWidth(TestItem item) {
+                        return 200;
+                    }
+
+                    @Override
+                    public int getIconHeight(TestItem item) {
+                        return 10;
+                    }
+                });
+        for (int i = 0; i < 10; i++) {
+            // Rows of items 150dp apart, which touch, 20dp above each other, which do not.
+            algorithm.addItem(new TestItem(toDegrees(20 * i), 0));
+            algorithm.addItem(new TestItem(toDegrees(20 * i), toDegrees(150)));
+        }
+        assertEquals(Collections.nCopies(10, 2), getSizes(algorithm, ZOOM));
+    }
+
+    public void testNearestCluster() {
+        CollisionBasedAlgorithm<TestItem> algorithm = new CollisionBasedAlgorithm<TestItem>();
+        TestItem near = new TestItem(0, toDegrees(30));
+        algorithm.addItem(new TestItem(0, 0));
+        algorithm.addItem(near);
+        // Overlaps both icons, but is closer to the second.
+        TestItem between = new TestItem(0, toDegrees(18));
+        algorithm.addItem(between);
+
+        for (Cluster<TestItem> cluster : algorithm.getClusters(ZOOM)) {
+            if (cluster.getSize() == 2) {
+                assertTrue(cluster.getItems().contains(near));
+                assertTrue(cluster.getItems().contains(between));
+                return;
+            }
+        }
+        fail("No cluster of two items");
+    }
+
+    public void testCellBorder() {
+        // Cells are as wide as the default icon, so these items are anchored in adjacent cells.
+        double border = Math.ceil(WORLD_WIDTH / 2 / CollisionBasedAlgorithm.DEFAULT_ICON_WIDTH)
+                * CollisionBasedAlgorithm.DEFAULT_ICON_WIDTH - WORLD_WIDTH / 2;
+        CollisionBasedAlgorithm<TestItem> algorithm = new CollisionBasedAlgorithm<TestItem>();
+        algorithm.addItem(new TestItem(0, toDegrees(border - 5)));
+        algorithm.addItem(new TestItem(0, toDegrees(border + 5)));
+        assertEquals(Arrays.asList(2), getSizes(algorithm, ZOOM));
+    }
+
+    /**
+     * @return the degrees of longitude covering dp at ZOOM, which near the equator are also the
+     * degrees of latitude.
+     */
+    private static double toDegrees(double dp) {
+        return dp / WORLD_WIDTH * 360;
+    }
+
+    private static List<Integer> getSizes(CollisionBasedAlgorithm<TestItem> algorithm, int zoom) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (Cluster<TestItem> cluster : algorithm.getClusters(zoom)) {
+            sizes.add(cluster.getSize());
+        }
+        Collections.sort(sizes);
+        return sizes;
+    }
+
+    private static class TestItem implements ClusterItem {
+        private final LatLng mPosition;
+
+        private TestItem(double lat, double lng) {
+            mPosition = new LatLng(lat, lng);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+    }
+}
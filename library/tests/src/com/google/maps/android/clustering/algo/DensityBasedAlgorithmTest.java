@@ -0,0 +1,109 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class DensityBasedAlgorithmTest extends TestCase {
+    private static final int ZOOM = 10;
+    private static final int RADIUS = 50;
+
+    /**
+     * The neighbourhood radius at ZOOM, in degrees of longitude.
+     */
+    private static final double RADIUS_DEGREES = RADIUS / Math.pow(2, ZOOM) / 256 * 360;
+
+    public void testSeparatedGroups() {
+        DensityBasedAlgorithm<TestItem> algorithm = new DensityBasedAlgorithm<TestItem>(RADIUS, 3, 1);
+        for (int i = 0; i < 5; i++) {
+            algorithm.addItem(new TestItem(10, 10 + i * 0.001));
+            algorithm.addItem(new TestItem(10, 20 + i * 0.001));
+        }
+        assertEquals(Arrays.asList(5, 5), getSizes(algorithm, ZOOM));
+    }
+
+    public void testChain() {
+        // Each item only reaches the items on either side, yet they all join one cluster.
+        DensityBasedAlgorithm<TestItem> algorithm = new DensityBasedAlgorithm<TestItem>(RADIUS, 3, 1);
+        for (int i = 0; i < 30; i++) {
+            algorithm.addItem(new TestItem(0, i * RADIUS_DEGREES * 0.6));
+        }
+        assertEquals(Arrays.asList(30), getSizes(algorithm, ZOOM));
+        // Further out, the items are too close together to tell the chain from a blob.
+        assertEquals(Arrays.asList(30), getSizes(algorithm, ZOOM - 3));
+        // Further in, no item has enough neighbours.
+        assertEquals(Collections.nCopies(30, 1), getSizes(algorithm, ZOOM + 1));
+    }
+
+    public void testNoise() {
+        DensityBasedAlgorithm<TestItem> algorithm = new DensityBasedAlgorithm<TestItem>(RADIUS, 3, 1);
+        for (int i = 0; i < 5; i++) {
+            algorithm.addItem(new TestItem(10, 10 + i * 0.001));
+        }
+        algorithm.addItem(new TestItem(-10, 10));
+        algorithm.addItem(new TestItem(10, -10));
+        assertEquals(Arrays.asList(1, 1, 5), getSizes(algorithm, ZOOM));
+    }
+
+    public void testCellBorder() {
+        // Pairs of items straddling cell borders, one and two cells apart, just within and just
+        // beyond the radius.
+        double cellWidth = RADIUS_DEGREES / Math.sqrt(2);
+        double border = Math.ceil(180 / cellWidth) * cellWidth - 180;
+        assertPair(border - 0.3 * RADIUS_DEGREES, border + 0.3 * RADIUS_DEGREES, true);
+        assertPair(border - 0.1 * cellWidth, border - 0.1 * cellWidth + 0.95 * RADIUS_DEGREES, true);
+        assertPair(border - 0.1 * cellWidth, border - 0.1 * cellWidth + 1.05 * RADIUS_DEGREES, false);
+    }
+
+    private static void assertPair(double longitude, double otherLongitude, boolean joined) {
+        DensityBasedAlgorithm<TestItem> algorithm = new DensityBasedAlgorithm<TestItem>(RADIUS, 2, 1);
+        algorithm.addItem(new TestItem(0, longitude));
+        algorithm.addItem(new TestItem(0, otherLongitude));
+        assertEquals(joined ? Arrays.asList(2) : Arrays.asList(1, 1), getSizes(algorithm, ZOOM));
+    }
+
+    public void testThreads() {
+        Random random = new Random(3);
+        DensityBasedAlgorithm<TestItem> single = new DensityBasedAlgorithm<TestItem>(RADIUS, 5, 1);
+        DensityBasedAlgorithm<TestItem> threaded = new DensityBasedAlgorithm<TestItem>(RADIUS, 5, 4);
+        for (int i = 0; i < 12000; i++) {
+            TestItem item = new TestItem(random.nextDouble() * 40, random.nextDouble() * 40);
+            single.addItem(item);
+            threaded.addItem(item);
+        }
+        // The threads are kept for the second zoom level.
+        for (int zoom = 7; zoom <= 8; zoom++) {
+            assertEquals(getSizes(single, zoom), getSizes(threaded, zoom));
+        }
+    }
+
+    private static List<Integer> getSizes(DensityBasedAlgorithm<TestItem> algorithm, int zoom) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (Cluster<TestItem> cluster : algorithm.getClusters(zoom)) {
+            sizes.add(cluster.getSize());
+        }
+        Collections.sort(sizes);
+        return sizes;
+    }
+
+    private static class TestItem implements ClusterItem {
+        private final LatLng mPosition;
+
+        private TestItem(double lat, double lng) {
+            mPosition = new LatLng(lat, lng);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ExpandableCluster;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class GridPyramidAlgorithmTest extends TestCase {
+
+    private GridPyramidAlgorithm<TestItem> mAlgorithm;
+
+    public void setUp() {
+        mAlgorithm = new GridPyramidAlgorithm<TestItem>();
+        mAlgorithm.addItems(Arrays.asList(
+                new TestItem(10, 10), new TestItem(10.001, 10.002), new TestItem(-30, 100)));
+    }
+
+    public void testExpansionZoom() {
+        ExpandableCluster<TestItem> pair = findCluster(0, 2);
+        int expansionZoom = pair.getExpansionZoom();
+        assertTrue(expansionZoom > 0);
+        assertNotNull(findCluster(expansionZoom - 1, 2));
+        assertNull(findCluster(expansionZoom, 2));
+
+        // A single item never splits.
+        assertEquals(21, findCluster(0, 1).getExpansionZoom());
+    }
+
+    public void testBounds() {
+        LatLngBounds bounds = findCluster(0, 2).getBounds();
+        assertEquals(10, bounds.southwest.latitude, 1e-4);
+        assertEquals(10, bounds.southwest.longitude, 1e-4);
+        assertEquals(10.001, bounds.northeast.latitude, 1e-4);
+        assertEquals(10.002, bounds.northeast.longitude, 1e-4);
+    }
+
+    public void testRemove() {
+        mAlgorithm.removeItem(new TestItem(10, 10));
+        assertEquals(2, mAlgorithm.getClusters(0).size());
+        assertNull(findCluster(0, 2));
+    }
+
+    public void testItemsAfterChanges() {
+        ExpandableCluster<TestItem> pair = findCluster(0, 2);
+        // Clusters look up their items when first asked, so see changes made before then.
+        mAlgorithm.removeItem(new TestItem(10.001, 10.002));
+        assertEquals(1, pair.getItems().size());
+        assertEquals(21, pair.getExpansionZoom());
+
+        mAlgorithm.removeItem(new TestItem(10, 10));
+        ExpandableCluster<TestItem> single = findCluster(0, 1);
+        assertEquals(-30, single.getItems().iterator().next().getPosition().latitude, 1e-9);
+        // Once looked up, the items stay those of that time.
+        mAlgorithm.addItem(new TestItem(-30.001, 100));
+        assertEquals(1, single.getItems().size());
+        assertEquals(2, findCluster(0, 2).getItems().size());
+    }
+
+    private ExpandableCluster<TestItem> findCluster(int zoom, int size) {
+        for (Cluster<TestItem> cluster : mAlgorithm.getClusters(zoom)) {
+            if (cluster.getSize() == size) {
+                return (ExpandableCluster<TestItem>) cluster;
+            }
+        }
+        return null;
+    }
+
+    private static class TestItem implements ClusterItem {
+        private final LatLng mPosition;
+
+        private TestItem(double lat, double lng) {
+            mPosition = new LatLng(lat, lng);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TestItem && ((TestItem) o).mPosition.latitude == mPosition.latitude
+                    && ((TestItem) o).mPosition.longitude == mPosition.longitude;
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.valueOf(mPosition.latitude).hashCode() * 31 + Double.valueOf(mPosition.longitude).hashCode();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Set;
+
+public class ItemStoreTest extends TestCase {
+
+    private ItemStore<TestItem> mStore;
+
+    public void setUp() {
+        mStore = new ItemStore<TestItem>();
+    }
+
+    public void testAdd() {
+        TestItem item = new TestItem(0, 0);
+        int version = mStore.getVersion();
+        assertTrue(mStore.add(item));
+        assertEquals(1, mStore.size());
+        assertEquals(0, mStore.indexOf(item));
+        assertEquals(0.5, mStore.getX(0), 1e-9);
+        assertEquals(0.5, mStore.getY(0), 1e-9);
+        assertTrue(mStore.getVersion() != version);
+
+        // Adding the same item again changes nothing.
+        version = mStore.getVersion();
+        assertFalse(mStore.add(item));
+        assertEquals(1, mStore.size());
+        assertEquals(version, mStore.getVersion());
+    }
+
+    public void testRemoveMovesLastItem() {
+        TestItem a = new TestItem(0, 0);
+        TestItem b = new TestItem(10, 10);
+        TestItem c = new TestItem(20, 20);
+        mStore.addAll(Arrays.asList(a, b, c));
+
+        assertTrue(mStore.remove(a));
+        assertFalse(mStore.remove(a));
+        assertEquals(2, mStore.size());
+        assertEquals(-1, mStore.indexOf(a));
+        assertEquals(0, mStore.indexOf(c));
+        assertEquals(c, mStore.get(0));
+        assertEquals(b, mStore.get(1));
+
+        ItemStore<TestItem> expected = new ItemStore<TestItem>();
+        expected.add(c);
+        assertEquals(expected.getX(0), mStore.getX(0), 1e-9);
+        assertEquals(expected.getY(0), mStore.getY(0), 1e-9);
+    }
+
+    public void testClear() {
+        mStore.addAll(Arrays.asList(new TestItem(0, 0), new TestItem(10, 10)));
+        mStore.clear();
+        assertEquals(0, mStore.size());
+        assertTrue(mStore.getItems().isEmpty());
+    }
+
+    public void testAdoptStore() {
+        GridBasedAlgorithm<TestItem> grid = new GridBasedAlgorithm<TestItem>();
+        grid.addItems(Arrays.asList(new TestItem(0, 0), new TestItem(0, 0.0001), new TestItem(40, 40)));
+
+        GridPyramidAlgorithm<TestItem> pyramid = new GridPyramidAlgorithm<TestItem>();
+        pyramid.addItem(new TestItem(-40, -40));
+        pyramid.setItemStore(grid.getItemStore());
+        assertEquals(3, pyramid.getItems().size());
+        Set<? extends Cluster<TestItem>> clusters = pyramid.getClusters(10);
+        assertEquals(2, clusters.size());
+
+        // Items added through either algorithm are seen by both.
+        grid.addItem(new TestItem(-40, -40));
+        assertEquals(3, pyramid.getClusters(10).size());
+    }
+
+    private static class TestItem implements ClusterItem {
+        private final LatLng mPosition;
+
+        private TestItem(double lat, double lng) {
+            mPosition = new LatLng(lat, lng);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class KMeansAlgorithmTest extends TestCase {
+    private static final double[][] BLOBS = {{10, 10}, {-20, 40}, {30, -60}};
+
+    public void testSeparatedBlobs() {
+        KMeansAlgorithm<TestItem> algorithm = new KMeansAlgorithm<TestItem>(3, 3);
+        List<TestItem> items = makeBlobs(new Random(7));
+        algorithm.addItems(items);
+
+        Set<? extends Cluster<TestItem>> clusters = algorithm.getClusters(5);
+        assertEquals(3, clusters.size());
+        for (Cluster<TestItem> cluster : clusters) {
+            assertEquals(items.size() / 3, cluster.getSize());
+            // Every item of a cluster comes from the blob the cluster sits on.
+            double[] blob = nearestBlob(cluster.getPosition());
+            for (TestItem item : cluster.getItems()) {
+                assertSame(blob, nearestBlob(item.getPosition()));
+            }
+            assertEquals(blob[0], cluster.getPosition().latitude, 0.5);
+            assertEquals(blob[1], cluster.getPosition().longitude, 0.5);
+        }
+    }
+
+    public void testDeterministic() {
+        KMeansAlgorithm<TestItem> algorithm = new KMeansAlgorithm<TestItem>(4, 16);
+        KMeansAlgorithm<TestItem> other = new KMeansAlgorithm<TestItem>(4, 16);
+        Random random = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            TestItem item = new TestItem(random.nextDouble() * 120 - 60, random.nextDouble() * 360 - 180);
+            algorithm.addItem(item);
+            other.addItem(item);
+        }
+        for (int zoom = 0; zoom < 4; zoom++) {
+            assertEquals(getPositions(algorithm, zoom), getPositions(other, zoom));
+            // Cached centers give the same clusters again.
+            assertEquals(getPositions(algorithm, zoom), getPositions(algorithm, zoom));
+        }
+    }
+
+    public void testMoreClustersThanItems() {
+        KMeansAlgorithm<TestItem> algorithm = new KMeansAlgorithm<TestItem>(8, 8);
+        algorithm.addItem(new TestItem(10, 10));
+        algorithm.addItem(new TestItem(-10, 30));
+        algorithm.addItem(new TestItem(40, -50));
+
+        Set<? extends Cluster<TestItem>> clusters = algorithm.getClusters(3);
+        assertEquals(3, clusters.size());
+        for (Cluster<TestItem> cluster : clusters) {
+            assertEquals(1, cluster.getSize());
+        }
+    }
+
+    public void testEmpty() {
+        KMeansAlgorithm<TestItem> algorithm = new KMeansAlgorithm<TestItem>();
+        assertTrue(algorithm.getClusters(5).isEmpty());
+
+        algorithm.addItem(new TestItem(10, 10));
+        algorithm.clearItems();
+        assertTrue(algorithm.getClusters(5).isEmpty());
+    }
+
+    private static List<TestItem> makeBlobs(Random random) {
+        List<TestItem> items = new ArrayList<TestItem>();
+        for (double[] blob : BLOBS) {
+            for (int i = 0; i < 50; i++) {
+                items.add(new TestItem(blob[0] + random.nextGaussian() * 0.2,
+                        blob[1] + random.nextGaussian() * 0.2));
+            }
+        }
+        return items;
+    }
+
+    private static double[] nearestBlob(LatLng position) {
+        double[] nearest = null;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for (double[] blob : BLOBS) {
+            double dLat = blob[0] - position.latitude;
+            double dLng = blob[1] - position.longitude;
+            double distance = dLat * dLat + dLng * dLng;
+            if (distance < nearestDistance) {
+                nearest = blob;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    private static Set<String> getPositions(KMeansAlgorithm<TestItem> algorithm, int zoom) {
+        Set<String> positions = new HashSet<String>();
+        for (Cluster<TestItem> cluster : algorithm.getClusters(zoom)) {
+            positions.add(cluster.getPosition().latitude + "," + cluster.getPosition().longitude);
+        }
+        return positions;
+    }
+
+    private static class TestItem implements ClusterItem {
+        private final LatLng mPosition;
+
+        private TestItem(double lat, double lng) {
+            mPosition = new LatLng(lat, lng);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.google.maps.android.clustering.algo;
+
+import junit.framework.TestCase;
+
+public class LongIntMapTest extends TestCase {
+
+    private LongIntMap mMap;
+
+    public void setUp() {
+        mMap = new LongIntMap();
+    }
+
+    public void testEmpty() {
+        assertEquals(0, mMap.size());
+        assertEquals(-1, mMap.get(0, -1));
+    }
+
+    public void testPutAndGet() {
+        mMap.put(0, 10);
+        mMap.put(Long.MAX_VALUE, 20);
+        mMap.put(1L << 40, 30);
+
+        assertEquals(3, mMap.size());
+        assertEquals(10, mMap.get(0, -1));
+        assertEquals(20, mMap.get(Long.MAX_VALUE, -1));
+        assertEquals(30, mMap.get(1L << 40, -1));
+        assertEquals(-1, mMap.get(1, -1));
+
+        mMap.put(0, 11);
+        assertEquals(3, mMap.size());
+        assertEquals(11, mMap.get(0, -1));
+    }
+
+    public void testIncrement() {
+        assertEquals(2, mMap.increment(5, 2));
+        assertEquals(5, mMap.increment(5, 3));
+        assertEquals(4, mMap.increment(5, -1));
+        assertEquals(1, mMap.size());
+    }
+
+    public void testGrow() {
+        for (int i = 0; i < 10000; i++) {
+            mMap.put(i * 4L, i);
+        }
+        assertEquals(10000, mMap.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, mMap.get(i * 4L, -1));
+            assertEquals(-1, mMap.get(i * 4L + 1, -1));
+        }
+    }
+
+    public void testRemove() {
+        for (int i = 0; i < 1000; i++) {
+            mMap.put(i * 7L, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            mMap.remove(i * 7L);
+        }
+        mMap.remove(1);
+        assertEquals(500, mMap.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, mMap.get(i * 7L, -1));
+        }
+    }
+
+    public void testIterate() {
+        for (int i = 0; i < 100; i++) {
+            mMap.put(i, i);
+        }
+        int count = 0;
+        long sum = 0;
+        for (int slot = 0; slot < mMap.capacity(); slot++) {
+            if (mMap.isOccupied(slot)) {
+                count++;
+                sum += mMap.keyAt(slot) + mMap.valueAt(slot);
+            }
+        }
+        assertEquals(100, count);
+        assertEquals(2 * 99 * 100 / 2, sum);
+    }
+
+    public void testClear() {
+        mMap.put(1, 1);
+        mMap.put(2, 2);
+        mMap.clear();
+        assertEquals(0, mMap.size());
+        assertEquals(-1, mMap.get(1, -1));
+    }
+}
@@ -0,0 +1,111 @@
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.heatmaps.HeatmapTileProvider.Aggregation;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DensityPyramidTest extends TestCase {
+    private static final int DIM = 16;
+    private static final int RADIUS = 3;
+    private static final int MAX_ZOOM = 3;
+
+    public void testCompact() {
+        Random random = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            int x = random.nextInt(1 << 20);
+            int y = random.nextInt(1 << 20);
+            long key = DensityPyramid.interleave(x, y);
+            assertEquals(x, DensityPyramid.compact(key));
+            assertEquals(y, DensityPyramid.compact(key >>> 1));
+        }
+    }
+
+    public void testMatchesBruteForce() {
+        Random random = new Random(11);
+        List<WeightedLatLng> data = new ArrayList<WeightedLatLng>();
+        for (int i = 0; i < 3000; i++) {
+            data.add(new WeightedLatLng(new LatLng(random.nextDouble() * 160 - 80,
+                    random.nextDouble() * 360 - 180), 1 + random.nextInt(3)));
+        }
+        // Clusters on the antimeridian and on tile corners
+        for (int i = 0; i < 200; i++) {
+            data.add(new WeightedLatLng(new LatLng(random.nextDouble() * 2 - 1,
+                    179 + random.nextDouble())));
+            data.add(new WeightedLatLng(new LatLng(random.nextDouble() * 2 - 1,
+                    random.nextDouble() * 2 - 1)));
+        }
+        assertMatches(new DensityPyramid(data, MAX_ZOOM, DIM), data);
+    }
+
+    public void testUpdates() {
+        Random random = new Random(13);
+        List<WeightedLatLng> data = new ArrayList<WeightedLatLng>();
+        for (int i = 0; i < 1000; i++) {
+            data.add(new WeightedLatLng(new LatLng(random.nextDouble() * 160 - 80,
+                    random.nextDouble() * 360 - 180), 1 + random.nextInt(3)));
+        }
+        DensityPyramid density = new DensityPyramid(data, MAX_ZOOM, DIM);
+        // Remove most points, so whole tiles and pixels empty, then add others, some on one pixel.
+        for (int i = 0; i < 800; i++) {
+            density.remove(data.remove(random.nextInt(data.size())));
+        }
+        for (int i = 0; i < 300; i++) {
+            LatLng latLng = i % 3 == 0 ? new LatLng(10, 20)
+                    : new LatLng(random.nextDouble() * 160 - 80, random.nextDouble() * 360 - 180);
+            WeightedLatLng point = new WeightedLatLng(latLng, 1 + random.nextInt(3));
+            data.add(point);
+            density.add(point);
+        }
+        assertMatches(density, data);
+    }
+
+    private static void assertMatches(DensityPyramid density, List<WeightedLatLng> data) {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            int tiles = 1 << zoom;
+            for (int x = 0; x < tiles; x++) {
+                for (int y = 0; y < tiles; y++) {
+                    TileGrid expected = new TileGrid(DIM, RADIUS, false, 1, Aggregation.SUM);
+                    boolean any = bruteForce(expected, data, x, y, zoom);
+                    TileGrid actual = new TileGrid(DIM, RADIUS, false, 1, Aggregation.SUM);
+                    assertEquals(any, density.fill(actual, x, y, zoom, RADIUS));
+                    expected.convolve(kernel);
+                    actual.convolve(kernel);
+                    for (int i = 0; i < DIM; i++) {
+                        for (int j = 0; j < DIM; j++) {
+                            assertEquals(expected.getOutput(i, j), actual.getOutput(i, j), 1e-9);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean bruteForce(TileGrid grid, List<WeightedLatLng> data,
+                                      int x, int y, int zoom) {
+        int worldPixels = DIM << zoom;
+        int paddedDim = DIM + 2 * RADIUS;
+        boolean any = false;
+        for (WeightedLatLng l : data) {
+            Point p = l.getPoint();
+            int pixelX = (int) Math.floor(p.x * worldPixels);
+            int pixelY = (int) Math.floor(p.y * worldPixels);
+            int gridY = pixelY - y * DIM + RADIUS;
+            // The world repeats along x, even at zoom 0 where a tile is its own neighbour
+            for (int wrap = -1; wrap <= 1; wrap++) {
+                int gridX = pixelX + wrap * worldPixels - x * DIM + RADIUS;
+                if (gridX >= 0 && gridX < paddedDim && gridY >= 0 && gridY < paddedDim) {
+                    grid.add(gridX, gridY, l.getIntensity());
+                    any = true;
+                }
+            }
+        }
+        return any;
+    }
+}
@@ -0,0 +1,95 @@
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.TileProvider;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class HeatmapTileProviderTest extends TestCase {
+
+    public void testConcurrentDensityUpdates() throws InterruptedException {
+        Random random = new Random(17);
+        final HeatmapTileProvider provider = new HeatmapTileProvider.Builder()
+                .weightedData(randomPoints(random, 2000))
+                .radius(10)
+                .tileSize(64)
+                .tileFormat(HeatmapTileProvider.TileFormat.FAST_PNG)
+                .tileCacheSize(0)
+                .densityMaxZoom(3)
+                .build();
+
+        // Renders tiles filled from the density pyramid while points are added and removed.
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread renderer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; !done.get(); i++) {
+                        int zoom = i % 4;
+                        int tiles = 1 << zoom;
+                        provider.getTile(i % tiles, (i / tiles) % tiles, zoom);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        renderer.start();
+        List<WeightedLatLng> added = new ArrayList<WeightedLatLng>();
+        for (int i = 0; i < 1000 && failure.get() == null; i++) {
+            List<WeightedLatLng> points = randomPoints(random, 10);
+            provider.addWeightedPoints(points);
+            added.addAll(points);
+            if (i % 2 == 1) {
+                List<WeightedLatLng> removed = new ArrayList<WeightedLatLng>(added.subList(0, 10));
+                added.subList(0, 10).clear();
+                provider.removeWeightedPoints(removed);
+            }
+            Thread.yield();
+        }
+        done.set(true);
+        renderer.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    public void testAddTwiceRemoveOnce() {
+        for (int densityMaxZoom = -1; densityMaxZoom <= 3; densityMaxZoom += 4) {
+            // The data starts with a point far from the tile.
+            List<WeightedLatLng> data = new ArrayList<WeightedLatLng>();
+            data.add(new WeightedLatLng(new LatLng(-60, -150)));
+            HeatmapTileProvider provider = new HeatmapTileProvider.Builder()
+                    .weightedData(data)
+                    .tileFormat(HeatmapTileProvider.TileFormat.FAST_PNG)
+                    .densityMaxZoom(densityMaxZoom)
+                    .build();
+
+            // Tile 6, 3 at zoom 3 holds the point.
+            WeightedLatLng point = new WeightedLatLng(new LatLng(40, 100));
+            provider.addWeightedPoints(Arrays.asList(point));
+            provider.addWeightedPoints(Arrays.asList(point, point));
+            assertNotSame(TileProvider.NO_TILE, provider.getTile(6, 3, 3));
+
+            provider.removeWeightedPoints(Arrays.asList(point));
+            assertSame(TileProvider.NO_TILE, provider.getTile(6, 3, 3));
+        }
+    }
+
+    private static List<WeightedLatLng> randomPoints(Random random, int count) {
+        List<WeightedLatLng> points = new ArrayList<WeightedLatLng>();
+        for (int i = 0; i < count; i++) {
+            points.add(new WeightedLatLng(new LatLng(random.nextDouble() * 160 - 80,
+                    random.nextDouble() * 360 - 180), 1 + random.nextInt(3)));
+        }
+        return points;
+    }
+}
@@ -0,0 +1,100 @@
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class IntensityPyramidTest extends TestCase {
+
+    public void testSingleBucket() {
+        List<WeightedLatLng> data = new ArrayList<WeightedLatLng>();
+        data.add(new WeightedLatLng(new LatLng(10, 10), 2));
+        data.add(new WeightedLatLng(new LatLng(10, 10), 3));
+        IntensityPyramid pyramid = new IntensityPyramid(data, HeatmapTileProvider.getBounds(data), 16, 3);
+        for (int level = 0; level < 3; level++) {
+            assertEquals(5.0, pyramid.getMaxIntensity(level));
+        }
+    }
+
+    public void testMatchesBruteForce() {
+        Random random = new Random(7);
+        List<WeightedLatLng> data = new ArrayList<WeightedLatLng>();
+        for (int i = 0; i < 5000; i++) {
+            // Cluster some of the points, so that buckets hold different sums.
+            double spread = i % 3 == 0 ? 1 : 20;
+            data.add(new WeightedLatLng(
+                    new LatLng(random.nextGaussian() * spread, random.nextGaussian() * spread),
+                    random.nextInt(5) + 1));
+        }
+        Bounds bounds = HeatmapTileProvider.getBounds(data);
+        int finestBuckets = 1000;
+        IntensityPyramid pyramid = new IntensityPyramid(data, bounds, finestBuckets, 6);
+        for (int level = 0; level < 6; level++) {
+            assertEquals(getMaxValue(data, bounds, finestBuckets, level), pyramid.getMaxIntensity(level), 1e-9);
+        }
+    }
+
+    public void testUpdates() {
+        Random random = new Random(8);
+        List<WeightedLatLng> data = new ArrayList<WeightedLatLng>();
+        for (int i = 0; i < 2000; i++) {
+            data.add(new WeightedLatLng(
+                    new LatLng(random.nextGaussian() * 5, random.nextGaussian() * 5),
+                    random.nextInt(5) + 1));
+        }
+        Bounds bounds = HeatmapTileProvider.getBounds(data);
+        int finestBuckets = 200;
+        IntensityPyramid pyramid = new IntensityPyramid(data, bounds, finestBuckets, 6);
+
+        // Add points, some outside the bounds, and remove some of the points.
+        for (int i = 0; i < 1000; i++) {
+            WeightedLatLng point = new WeightedLatLng(
+                    new LatLng(random.nextGaussian() * 10, random.nextGaussian() * 10),
+                    random.nextInt(5) + 1);
+            data.add(point);
+            pyramid.add(point);
+        }
+        for (int i = 0; i < 1500; i++) {
+            pyramid.remove(data.remove(random.nextInt(data.size())));
+        }
+        for (int level = 0; level < 6; level++) {
+            assertEquals(getMaxValue(data, bounds, finestBuckets, level), pyramid.getMaxIntensity(level), 1e-9);
+        }
+
+        // Emptied buckets are dropped.
+        for (WeightedLatLng point : data) {
+            pyramid.remove(point);
+        }
+        for (int level = 0; level < 6; level++) {
+            assertEquals(0.0, pyramid.getMaxIntensity(level));
+        }
+    }
+
+    /**
+     * Buckets every point at the given level with a map.
+     */
+    private static double getMaxValue(List<WeightedLatLng> data, Bounds bounds, int finestBuckets, int level) {
+        double scale = finestBuckets / Math.max(bounds.maxX - bounds.minX, bounds.maxY - bounds.minY);
+        Map<Long, Double> buckets = new HashMap<Long, Double>();
+        double max = 0;
+        for (WeightedLatLng l : data) {
+            Point p = l.getPoint();
+            long x = ((int) Math.floor((p.x - bounds.minX) * scale)) >> level;
+            long y = ((int) Math.floor((p.y - bounds.minY) * scale)) >> level;
+            Long key = (x << 32) | y;
+            Double value = buckets.get(key);
+            value = (value == null ? 0 : value) + l.getIntensity();
+            buckets.put(key, value);
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
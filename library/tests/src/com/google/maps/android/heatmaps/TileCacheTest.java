@@ -0,0 +1,160 @@
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.Tile;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TileCacheTest extends TestCase {
+    private File mDirectory;
+
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("tiles", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+    }
+
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    public void testVersion() {
+        TileCache cache = new TileCache(1024, 0, null, 0);
+        Tile tile = tile(10);
+        cache.put(1, 2, 3, 0, 0, tile);
+        assertSame(tile, cache.get(1, 2, 3, 0));
+        assertNull(cache.get(2, 1, 3, 0));
+        assertNull(cache.get(1, 2, 4, 0));
+        assertNull(cache.get(1, 2, 3, 1));
+
+        cache.invalidate();
+        assertNull(cache.get(1, 2, 3, 0));
+    }
+
+    public void testMemoryEviction() {
+        TileCache cache = new TileCache(100, 0, null, 0);
+        cache.put(0, 0, 1, 0, 0, tile(60));
+        cache.put(1, 0, 1, 0, 0, tile(60));
+        assertNull(cache.get(0, 0, 1, 0));
+        assertNotNull(cache.get(1, 0, 1, 0));
+    }
+
+    public void testDisk() throws IOException {
+        File leftover = new File(mDirectory, "5_5_5.tile");
+        FileOutputStream out = new FileOutputStream(leftover);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        TileCache cache = new TileCache(100, 0, mDirectory, 1024 * 1024);
+        assertNull(cache.get(0, 0, 1, 0));
+        Tile first = tile(60);
+        cache.put(0, 0, 1, 0, 0, first);
+        assertFalse(leftover.exists());
+        cache.put(1, 0, 1, 0, 0, tile(60));
+
+        // Evicted from memory, but read back from disk.
+        Tile read = cache.get(0, 0, 1, 0);
+        assertNotNull(read);
+        assertEquals(first.width, read.width);
+        assertEquals(first.height, read.height);
+        assertTrue(Arrays.equals(first.data, read.data));
+        assertNull(cache.get(0, 0, 1, 1));
+    }
+
+    public void testGrids() {
+        TileCache cache = new TileCache(0, 1024, null, 0);
+        assertNull(cache.get(0, 0, 1, 0));
+        QuantizedGrid grid = new QuantizedGrid(4, 0, 0, 2, new char[]{1, 2, 3, 4}, 1);
+        cache.putGrid(0, 0, 1, 0, 0, grid);
+        assertSame(grid, cache.getGrid(0, 0, 1, 0));
+        assertNull(cache.getGrid(0, 0, 1, 1));
+        cache.invalidateGrids();
+        assertNull(cache.getGrid(0, 0, 1, 0));
+    }
+
+    public void testRegions() {
+        TileCache cache = new TileCache(1024, 1024, null, 0);
+        long before = cache.getRegionCount();
+        cache.put(0, 0, 1, 0, before, tile(10));
+        cache.put(1, 0, 1, 0, before, tile(10));
+        cache.invalidate(new long[]{TileCache.getKey(0, 0, 1)});
+        assertNull(cache.get(0, 0, 1, 0));
+        assertNotNull(cache.get(1, 0, 1, 0));
+
+        // Tiles rendered before the region was invalidated are only cached outside it.
+        cache.put(0, 0, 1, 0, before, tile(10));
+        cache.putGrid(0, 0, 1, 0, before, new QuantizedGrid(4, 0, 0, 0, new char[0], 1));
+        cache.put(0, 1, 1, 0, before, tile(10));
+        assertNull(cache.get(0, 0, 1, 0));
+        assertNull(cache.getGrid(0, 0, 1, 0));
+        assertNotNull(cache.get(0, 1, 1, 0));
+        cache.put(0, 0, 1, 0, cache.getRegionCount(), tile(10));
+        assertNotNull(cache.get(0, 0, 1, 0));
+
+        // Tiles rendered before regions no longer remembered are not cached.
+        for (int i = 0; i < 10; i++) {
+            cache.invalidate(new long[0]);
+        }
+        cache.put(1, 1, 1, 0, before, tile(10));
+        assertNull(cache.get(1, 1, 1, 0));
+    }
+
+    public void testConcurrentInvalidation() throws InterruptedException {
+        final TileCache cache = new TileCache(1024, 1024, mDirectory, 1024 * 1024);
+        final long key = TileCache.getKey(0, 0, 1);
+        // The value of the points the tile is rendered from, as its first byte
+        final AtomicInteger data = new AtomicInteger();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread renderer = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    // As in HeatmapTileProvider.getTile, read the count before the points
+                    long regionCount = cache.getRegionCount();
+                    Tile tile = tile(10);
+                    tile.data[0] = (byte) data.get();
+                    cache.put(0, 0, 1, 0, regionCount, tile);
+                    cache.putGrid(0, 0, 1, 0, regionCount,
+                            new QuantizedGrid(4, 0, 0, 1, new char[]{1}, tile.data[0]));
+                }
+            }
+        };
+        renderer.start();
+        for (int i = 1; i <= 2000; i++) {
+            data.set(i);
+            cache.invalidate(new long[]{key});
+        }
+        done.set(true);
+        renderer.join();
+
+        // Whatever was cached last, it was not rendered from points that were since changed
+        Tile tile = cache.get(0, 0, 1, 0);
+        if (tile != null) {
+            assertEquals((byte) 2000, tile.data[0]);
+        }
+        QuantizedGrid grid = cache.getGrid(0, 0, 1, 0);
+        if (grid != null) {
+            assertEquals((double) (byte) 2000, grid.get(0, 0));
+        }
+    }
+
+    private static Tile tile(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        return new Tile(256, 256, data);
+    }
+}
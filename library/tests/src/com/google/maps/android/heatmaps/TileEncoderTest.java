@@ -0,0 +1,107 @@
+package com.google.maps.android.heatmaps;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class TileEncoderTest extends TestCase {
+    private static final int DIM = 16;
+
+    public void testFastPng() throws Exception {
+        int[] colors = colors();
+        TileEncoder encoder = new TileEncoder(HeatmapTileProvider.TileFormat.FAST_PNG, DIM);
+        // Encoders are reused, so encode twice.
+        encoder.encode(colors, null);
+        Map<String, byte[]> chunks = readChunks(encoder.encode(colors, null));
+
+        assertEquals(6, chunks.get("IHDR")[9]);
+        byte[] raw = inflate(chunks.get("IDAT"));
+        assertEquals(DIM * (1 + DIM * 4), raw.length);
+        for (int y = 0; y < DIM; y++) {
+            int row = y * (1 + DIM * 4);
+            assertEquals(0, raw[row]);
+            for (int x = 0; x < DIM; x++) {
+                int color = colors[y * DIM + x];
+                int i = row + 1 + x * 4;
+                int rgba = ((raw[i] & 0xff) << 24) | ((raw[i + 1] & 0xff) << 16)
+                        | ((raw[i + 2] & 0xff) << 8) | (raw[i + 3] & 0xff);
+                assertEquals((color << 8) | (color >>> 24), rgba);
+            }
+        }
+    }
+
+    public void testPalettePng() throws Exception {
+        int[] colorMap = {0x10ff0000, 0x8000ff00, 0xff0000ff};
+        int[] colors = new int[DIM * DIM];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = i % 4 == 3 ? 0 : colorMap[i % 4];
+        }
+        TileEncoder encoder = new TileEncoder(HeatmapTileProvider.TileFormat.PALETTE_PNG, DIM);
+        Map<String, byte[]> chunks = readChunks(encoder.encode(colors, colorMap));
+
+        assertEquals(3, chunks.get("IHDR")[9]);
+        byte[] palette = chunks.get("PLTE");
+        byte[] alphas = chunks.get("tRNS");
+        assertEquals(4 * 3, palette.length);
+        assertEquals(4, alphas.length);
+        byte[] raw = inflate(chunks.get("IDAT"));
+        for (int y = 0; y < DIM; y++) {
+            for (int x = 0; x < DIM; x++) {
+                int index = raw[y * (1 + DIM) + 1 + x] & 0xff;
+                int color = ((alphas[index] & 0xff) << 24) | ((palette[3 * index] & 0xff) << 16)
+                        | ((palette[3 * index + 1] & 0xff) << 8) | (palette[3 * index + 2] & 0xff);
+                assertEquals(colors[y * DIM + x], color);
+            }
+        }
+    }
+
+    private static int[] colors() {
+        int[] colors = new int[DIM * DIM];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = i * 0x01020304 + 0x10000000;
+        }
+        return colors;
+    }
+
+    /**
+     * Reads the chunks of a PNG, checking their CRCs.
+     */
+    private static Map<String, byte[]> readChunks(byte[] png) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+        assertEquals(0x89504e47, in.readInt());
+        assertEquals(0x0d0a1a0a, in.readInt());
+        Map<String, byte[]> chunks = new HashMap<String, byte[]>();
+        while (!chunks.containsKey("IEND")) {
+            byte[] data = new byte[in.readInt()];
+            byte[] type = new byte[4];
+            in.readFully(type);
+            in.readFully(data);
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(data);
+            assertEquals((int) crc.getValue(), in.readInt());
+            chunks.put(new String(type, "US-ASCII"), data);
+        }
+        assertEquals(-1, in.read());
+        return chunks;
+    }
+
+    private static byte[] inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!inflater.finished()) {
+            out.write(buffer, 0, inflater.inflate(buffer));
+        }
+        return out.toByteArray();
+    }
+}
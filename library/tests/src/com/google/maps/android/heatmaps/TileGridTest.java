@@ -0,0 +1,265 @@
+package com.google.maps.android.heatmaps;
+
+import com.google.maps.android.heatmaps.HeatmapTileProvider.Aggregation;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TileGridTest extends TestCase {
+    private static final int DIM = 32;
+    private static final int RADIUS = 4;
+
+    public void testMatchesNaiveConvolution() {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        double[][] input = randomInput(new Random(1));
+        TileGrid grid = new TileGrid(DIM, RADIUS, false, 1, Aggregation.SUM);
+        fill(grid, input);
+        grid.convolve(kernel);
+        assertOutput(naiveConvolve(input, kernel), grid, 1e-9);
+    }
+
+    public void testFloatPrecision() {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        double[][] input = randomInput(new Random(2));
+        TileGrid grid = new TileGrid(DIM, RADIUS, true, 1, Aggregation.SUM);
+        fill(grid, input);
+        grid.convolve(kernel);
+        assertOutput(naiveConvolve(input, kernel), grid, 1e-4);
+    }
+
+    public void testReuse() {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        int[] colorMap = {1, 2, 3, 4};
+        TileGrid grid = new TileGrid(DIM, RADIUS, false, 1, Aggregation.SUM);
+        Random random = new Random(3);
+        for (int i = 0; i < 3; i++) {
+            double[][] input = randomInput(random);
+            fill(grid, input);
+            grid.convolve(kernel);
+            assertOutput(naiveConvolve(input, kernel), grid, 1e-9);
+            grid.colorize(colorMap, 1);
+            assertTrue(grid.isEmpty());
+        }
+    }
+
+    public void testSplat() {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        Random random = new Random(6);
+        for (boolean floatPrecision : new boolean[]{false, true}) {
+            TileGrid grid = new TileGrid(DIM, RADIUS, floatPrecision, 1, Aggregation.SUM);
+            for (int i = 0; i < 3; i++) {
+                // Splatted and convolved tiles are cleared the same way, so can follow each other
+                double[][] input = randomInput(random);
+                fill(grid, input);
+                if (i % 2 == 0) {
+                    grid.splat(kernel);
+                } else {
+                    grid.convolve(kernel);
+                }
+                assertOutput(naiveConvolve(input, kernel), grid, floatPrecision ? 1e-4 : 1e-9);
+                grid.colorize(new int[]{1, 2, 3, 4}, 1);
+            }
+        }
+    }
+
+    public void testMean() {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        Random random = new Random(8);
+        int paddedDim = DIM + 2 * RADIUS;
+        double[][] sums = new double[paddedDim][paddedDim];
+        double[][] counts = new double[paddedDim][paddedDim];
+        for (boolean floatPrecision : new boolean[]{false, true}) {
+            // Reused, to check the grid is cleared after each tile
+            TileGrid grid = new TileGrid(DIM, RADIUS, floatPrecision, 1, Aggregation.MEAN);
+            for (boolean splat : new boolean[]{false, true}) {
+                for (int i = 0; i < 30; i++) {
+                    int x = random.nextInt(paddedDim);
+                    int y = random.nextInt(paddedDim);
+                    // Points of no intensity lower the mean
+                    double intensity = i % 5 == 0 ? 0 : random.nextDouble();
+                    grid.add(x, y, intensity);
+                    sums[x][y] += intensity;
+                    counts[x][y]++;
+                }
+                if (splat) {
+                    grid.splat(kernel);
+                } else {
+                    grid.convolve(kernel);
+                }
+                double[][] expected = naiveConvolve(sums, kernel);
+                double[][] weights = naiveConvolve(counts, kernel);
+                for (int x = 0; x < DIM; x++) {
+                    for (int y = 0; y < DIM; y++) {
+                        double mean = weights[x][y] > 0 ? expected[x][y] / weights[x][y] : 0;
+                        assertEquals(mean, grid.getOutput(x, y), floatPrecision ? 1e-4 : 1e-9);
+                    }
+                }
+                grid.colorize(new int[]{1, 2, 3, 4}, 1);
+                for (int x = 0; x < paddedDim; x++) {
+                    Arrays.fill(sums[x], 0);
+                    Arrays.fill(counts[x], 0);
+                }
+            }
+        }
+    }
+
+    public void testMax() {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        Random random = new Random(9);
+        for (boolean floatPrecision : new boolean[]{false, true}) {
+            // Reused, to check the grid is cleared after each tile
+            TileGrid grid = new TileGrid(DIM, RADIUS, floatPrecision, 1, Aggregation.MAX);
+            for (boolean splat : new boolean[]{false, true}) {
+                double[][] input = randomInput(random);
+                for (int x = 0; x < input.length; x++) {
+                    for (int y = 0; y < input.length; y++) {
+                        if (input[x][y] > 0) {
+                            // Only the larger intensity in a bucket counts
+                            grid.add(x, y, input[x][y] / 2);
+                            grid.add(x, y, input[x][y]);
+                        }
+                    }
+                }
+                if (splat) {
+                    grid.splat(kernel);
+                } else {
+                    grid.convolve(kernel);
+                }
+                for (int x = 0; x < DIM; x++) {
+                    for (int y = 0; y < DIM; y++) {
+                        double max = 0;
+                        for (int i = 0; i < kernel.length; i++) {
+                            for (int j = 0; j < kernel.length; j++) {
+                                max = Math.max(max, input[x + i][y + j] * kernel[i] * kernel[j]);
+                            }
+                        }
+                        assertEquals(max, grid.getOutput(x, y), floatPrecision ? 1e-6 : 1e-12);
+                    }
+                }
+                grid.colorize(new int[]{1, 2, 3, 4}, 1);
+            }
+        }
+    }
+
+    public void testQuantize() {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        double[][] input = randomInput(new Random(4));
+        double[][] expected = naiveConvolve(input, kernel);
+        TileGrid grid = new TileGrid(DIM, RADIUS, false, 1, Aggregation.SUM);
+        fill(grid, input);
+        grid.convolve(kernel);
+        QuantizedGrid quantized = grid.quantize();
+
+        double max = 0;
+        for (double[] column : expected) {
+            for (double value : column) {
+                max = Math.max(max, value);
+            }
+        }
+        for (int x = 0; x < DIM; x++) {
+            for (int y = 0; y < DIM; y++) {
+                assertEquals(expected[x][y], quantized.get(x, y), max / 65535);
+                // Pixels with any intensity keep some.
+                assertEquals(expected[x][y] > 0, quantized.get(x, y) > 0);
+            }
+        }
+
+        // Recoloring gives the same colors as colorizing, but for rounding.
+        int[] colorMap = new int[100];
+        for (int i = 0; i < colorMap.length; i++) {
+            colorMap[i] = i + 1;
+        }
+        int[] colors = grid.colorize(colorMap, max).clone();
+        int[] recolored = grid.colorize(quantized, colorMap, max);
+        for (int i = 0; i < colors.length; i++) {
+            assertEquals(colors[i], recolored[i], 1);
+        }
+    }
+
+    public void testUpsampling() {
+        double[] kernel = HeatmapTileProvider.generateKernel(RADIUS, RADIUS / 3.0);
+        double[][] input = randomInput(new Random(5));
+        double[][] expected = naiveConvolve(input, kernel);
+        TileGrid grid = new TileGrid(DIM, RADIUS, false, 2, Aggregation.SUM);
+        fill(grid, input);
+        grid.convolve(kernel);
+        QuantizedGrid quantized = grid.quantize();
+
+        int[] colorMap = new int[100];
+        for (int i = 0; i < colorMap.length; i++) {
+            colorMap[i] = i + 1;
+        }
+        double max = 1;
+        int[] colors = grid.colorize(colorMap, max).clone();
+        assertEquals(4 * DIM * DIM, colors.length);
+        int[] recolored = grid.colorize(quantized, colorMap, max);
+
+        // Each pixel is interpolated from the four nearest pixels of the output.
+        for (int y = 0; y < 2 * DIM; y++) {
+            double sourceY = Math.min(DIM - 1, Math.max(0, (y + 0.5) / 2 - 0.5));
+            int y0 = (int) sourceY;
+            int y1 = Math.min(DIM - 1, y0 + 1);
+            double fy = sourceY - y0;
+            for (int x = 0; x < 2 * DIM; x++) {
+                double sourceX = Math.min(DIM - 1, Math.max(0, (x + 0.5) / 2 - 0.5));
+                int x0 = (int) sourceX;
+                int x1 = Math.min(DIM - 1, x0 + 1);
+                double fx = sourceX - x0;
+                double value = (expected[x0][y0] * (1 - fx) + expected[x1][y0] * fx) * (1 - fy)
+                        + (expected[x0][y1] * (1 - fx) + expected[x1][y1] * fx) * fy;
+                int index = y * 2 * DIM + x;
+                if (value == 0) {
+                    assertEquals(0, colors[index]);
+                } else {
+                    int col = (int) (value * (colorMap.length - 1) / max);
+                    assertEquals(colorMap[Math.min(col, colorMap.length - 1)], colors[index], 1);
+                }
+                assertEquals(colors[index], recolored[index], 1);
+            }
+        }
+    }
+
+    /**
+     * Puts a few points in a corner of the padded grid, leaving most rows and columns empty.
+     */
+    private static double[][] randomInput(Random random) {
+        int paddedDim = DIM + 2 * RADIUS;
+        double[][] input = new double[paddedDim][paddedDim];
+        for (int i = 0; i < 10; i++) {
+            input[random.nextInt(paddedDim / 2)][random.nextInt(paddedDim / 3)] += random.nextDouble();
+        }
+        return input;
+    }
+
+    private static void fill(TileGrid grid, double[][] input) {
+        for (int x = 0; x < input.length; x++) {
+            for (int y = 0; y < input.length; y++) {
+                grid.add(x, y, input[x][y]);
+            }
+        }
+    }
+
+    private static double[][] naiveConvolve(double[][] input, double[] kernel) {
+        double[][] output = new double[DIM][DIM];
+        for (int x = 0; x < DIM; x++) {
+            for (int y = 0; y < DIM; y++) {
+                for (int i = 0; i < kernel.length; i++) {
+                    for (int j = 0; j < kernel.length; j++) {
+                        output[x][y] += input[x + i][y + j] * kernel[i] * kernel[j];
+                    }
+                }
+            }
+        }
+        return output;
+    }
+
+    private static void assertOutput(double[][] expected, TileGrid grid, double delta) {
+        for (int x = 0; x < DIM; x++) {
+            for (int y = 0; y < DIM; y++) {
+                assertEquals(expected[x][y], grid.getOutput(x, y), delta);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TilePrefetcherTest extends TestCase {
+    private static final TileProvider NO_TILES = new TileProvider() {
+        @Override
+        public Tile getTile(int x, int y, int zoom) {
+            return NO_TILE;
+        }
+    };
+
+    public void testOrder() {
+        TilePrefetcher prefetcher = new TilePrefetcher(NO_TILES, 1, 21);
+        // Tiles 4 to 5 across and 3 to 4 down at zoom 3
+        LatLngBounds bounds = new LatLngBounds(new LatLng(-30, 10), new LatLng(30, 80));
+        List<TilePrefetcher.Task> tasks = prefetcher.getTasks(bounds, 3, 0);
+
+        Set<Long> keys = new HashSet<Long>();
+        for (TilePrefetcher.Task task : tasks) {
+            assertTrue(keys.add(TileCache.getKey(task.mX, task.mY, task.mZoom)));
+        }
+        // 2x2 visible, a ring of 12, 2 parents and 16 children
+        assertEquals(4 + 12 + 2 + 16, tasks.size());
+        for (int i = 0; i < 4; i++) {
+            TilePrefetcher.Task task = tasks.get(i);
+            assertEquals(3, task.mZoom);
+            assertTrue(task.mX >= 4 && task.mX <= 5 && task.mY >= 3 && task.mY <= 4);
+        }
+        for (int i = 4; i < 16; i++) {
+            assertEquals(3, tasks.get(i).mZoom);
+        }
+        for (int i = 16; i < 18; i++) {
+            assertEquals(2, tasks.get(i).mZoom);
+            assertEquals(2, tasks.get(i).mX);
+        }
+        for (int i = 18; i < tasks.size(); i++) {
+            assertEquals(4, tasks.get(i).mZoom);
+        }
+    }
+
+    public void testAntimeridian() {
+        TilePrefetcher prefetcher = new TilePrefetcher(NO_TILES, 1, 21);
+        LatLngBounds bounds = new LatLngBounds(new LatLng(-10, 170), new LatLng(10, -170));
+        Set<Integer> columns = new HashSet<Integer>();
+        for (TilePrefetcher.Task task : prefetcher.getTasks(bounds, 4, 0)) {
+            if (task.mZoom == 4) {
+                assertTrue(task.mX >= 0 && task.mX < 16);
+                columns.add(task.mX);
+            }
+        }
+        // Visible 15 and 0, and the ring 14 and 1
+        assertEquals(4, columns.size());
+        assertTrue(columns.contains(14) && columns.contains(15)
+                && columns.contains(0) && columns.contains(1));
+    }
+
+    public void testWholeWorld() {
+        TilePrefetcher prefetcher = new TilePrefetcher(NO_TILES, 1, 21);
+        LatLngBounds bounds = new LatLngBounds(new LatLng(-80, -179), new LatLng(80, 179));
+        int zoomOne = 0;
+        for (TilePrefetcher.Task task : prefetcher.getTasks(bounds, 1, 0)) {
+            if (task.mZoom == 1) {
+                zoomOne++;
+            }
+        }
+        assertEquals(4, zoomOne);
+    }
+
+    public void testPrefetch() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(4 + 12 + 2 + 16);
+        TilePrefetcher prefetcher = new TilePrefetcher(new TileProvider() {
+            @Override
+            public Tile getTile(int x, int y, int zoom) {
+                latch.countDown();
+                return NO_TILE;
+            }
+        }, 2, 21);
+        prefetcher.prefetch(new LatLngBounds(new LatLng(-30, 10), new LatLng(30, 80)), 3);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,80 @@
+package com.google.maps.android.heatmaps;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TimeOrderedPointsTest extends TestCase {
+
+    public void testInOrder() {
+        TimeOrderedPoints points = new TimeOrderedPoints();
+        List<TimedWeightedLatLng> all = new ArrayList<TimedWeightedLatLng>();
+        for (int i = 0; i < 5000; i++) {
+            TimedWeightedLatLng point = point(i / 3);
+            points.add(point);
+            all.add(point);
+        }
+        assertCollects(all, points, 0, 5000);
+        assertCollects(all, points, 100, 101);
+        assertCollects(all, points, 1000, 1500);
+        assertCollects(all, points, 1200, 1200);
+    }
+
+    public void testOutOfOrder() {
+        Random random = new Random(1);
+        TimeOrderedPoints points = new TimeOrderedPoints();
+        List<TimedWeightedLatLng> all = new ArrayList<TimedWeightedLatLng>();
+        for (int i = 0; i < 5000; i++) {
+            // Mostly in order, with some late and many equal times
+            long time = random.nextInt(10) == 0 ? random.nextInt(i + 1) : i / 2;
+            TimedWeightedLatLng point = point(time);
+            points.add(point);
+            all.add(point);
+        }
+        assertEquals(all.size(), points.size());
+        for (int i = 0; i < 50; i++) {
+            long start = random.nextInt(3000);
+            assertCollects(all, points, start, start + random.nextInt(500));
+        }
+
+        points.removeBefore(1000);
+        List<TimedWeightedLatLng> kept = new ArrayList<TimedWeightedLatLng>();
+        for (TimedWeightedLatLng point : all) {
+            if (point.getTime() >= 1000) {
+                kept.add(point);
+            }
+        }
+        assertEquals(kept.size(), points.size());
+        assertCollects(kept, points, 0, 3000);
+        assertCollects(kept, points, 1500, 2000);
+    }
+
+    private static TimedWeightedLatLng point(long time) {
+        return new TimedWeightedLatLng(new LatLng(0, 0), time);
+    }
+
+    /**
+     * Checks the points collected in time order are those of the range, in time order.
+     */
+    private static void assertCollects(List<TimedWeightedLatLng> all, TimeOrderedPoints points,
+                                       long start, long end) {
+        List<WeightedLatLng> collected = new ArrayList<WeightedLatLng>();
+        points.collect(start, end, collected);
+        int expected = 0;
+        for (TimedWeightedLatLng point : all) {
+            if (point.getTime() >= start && point.getTime() < end) {
+                expected++;
+                assertTrue(collected.contains(point));
+            }
+        }
+        assertEquals(expected, collected.size());
+        for (int i = 1; i < collected.size(); i++) {
+            assertTrue(((TimedWeightedLatLng) collected.get(i - 1)).getTime()
+                    <= ((TimedWeightedLatLng) collected.get(i)).getTime());
+        }
+    }
+}